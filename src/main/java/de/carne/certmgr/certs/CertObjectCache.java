@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.management.NotificationEmitter;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.util.PropertiesHelper;
+
+/**
+ * Store-wide cache for decoded certificate objects.
+ * <p>
+ * The cache is bounded by an object count as well as by a weight budget. The weight of a cached object is its encoded
+ * size. If any of the budgets is exceeded, the least recently used objects are evicted. The budgets are defined by the
+ * system properties {@code de.carne.certmgr.certs.cacheEntries} (default: 2048 objects) and
+ * {@code de.carne.certmgr.certs.cacheSize} (default: 16384 KiB).
+ * <p>
+ * In addition all caches are shrunk to half of their current weight as soon as the heap usage exceeds the percentage
+ * defined by the system property {@code de.carne.certmgr.certs.cacheMemoryThreshold} (default: 80).
+ */
+final class CertObjectCache {
+
+	private static final Log LOG = new Log();
+
+	private static final int DEFAULT_MAX_ENTRIES = PropertiesHelper.getInt(CertObjectCache.class, ".cacheEntries",
+			2048);
+
+	private static final long DEFAULT_MAX_WEIGHT = PropertiesHelper.getInt(CertObjectCache.class, ".cacheSize",
+			16384) * 1024L;
+
+	private static final int MEMORY_THRESHOLD = PropertiesHelper.getInt(CertObjectCache.class,
+			".cacheMemoryThreshold", 80);
+
+	private static final Set<CertObjectCache> CACHES = Collections.newSetFromMap(new WeakHashMap<>());
+
+	private static boolean memoryListenerRegistered = false;
+
+	private final int maxEntries;
+
+	private final long maxWeight;
+
+	private final LinkedHashMap<Slot<?>, Slot<?>> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	private long hitCount = 0;
+
+	private long missCount = 0;
+
+	private long evictionCount = 0;
+
+	/**
+	 * Construct {@code CertObjectCache} using the default budgets.
+	 */
+	CertObjectCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * Construct {@code CertObjectCache}.
+	 *
+	 * @param maxEntries The maximum number of objects to cache.
+	 * @param maxWeight The maximum weight of the cached objects.
+	 */
+	CertObjectCache(int maxEntries, long maxWeight) {
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		synchronized (CACHES) {
+			CACHES.add(this);
+			if (!memoryListenerRegistered) {
+				registerMemoryListener();
+				memoryListenerRegistered = true;
+			}
+		}
+	}
+
+	/**
+	 * Create a new cache slot.
+	 *
+	 * @param <T> The type of the object to cache.
+	 * @return The created cache slot.
+	 */
+	<T> Slot<T> newSlot() {
+		return new Slot<>();
+	}
+
+	/**
+	 * Get the current cache statistics.
+	 *
+	 * @return The current cache statistics.
+	 */
+	synchronized CertObjectCacheStatistics statistics() {
+		return new CertObjectCacheStatistics(this.slots.size(), this.weight, this.hitCount, this.missCount,
+				this.evictionCount);
+	}
+
+	/**
+	 * Evict the least recently used objects until the cache's weight has been reduced to a specific limit.
+	 *
+	 * @param weightLimit The weight limit to apply.
+	 */
+	synchronized void shrink(long weightLimit) {
+		evict(this.maxEntries, weightLimit);
+	}
+
+	private void evict(int entriesLimit, long weightLimit) {
+		Iterator<Slot<?>> slotsIterator = this.slots.keySet().iterator();
+
+		while ((this.slots.size() > entriesLimit || this.weight > weightLimit) && slotsIterator.hasNext()) {
+			Slot<?> slot = slotsIterator.next();
+
+			slotsIterator.remove();
+			this.weight -= slot.weight;
+			this.evictionCount++;
+			slot.object = null;
+			slot.weight = 0;
+		}
+	}
+
+	private static void registerMemoryListener() {
+		List<MemoryPoolMXBean> thresholdPools = new ArrayList<>();
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+				long poolMax = pool.getUsage().getMax();
+
+				// Don't touch thresholds defined by someone else
+				if (poolMax > 0 && pool.getUsageThreshold() == 0) {
+					pool.setUsageThreshold(poolMax / 100 * MEMORY_THRESHOLD);
+					thresholdPools.add(pool);
+				}
+			}
+		}
+		if (!thresholdPools.isEmpty()) {
+			NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+
+			emitter.addNotificationListener((notification, handback) -> {
+				if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+					shrinkAll();
+				}
+			}, null, null);
+		}
+	}
+
+	private static void shrinkAll() {
+		List<CertObjectCache> caches;
+
+		synchronized (CACHES) {
+			caches = new ArrayList<>(CACHES);
+		}
+		LOG.info("Memory usage threshold exceeded; shrinking {0} certificate object cache(s)", caches.size());
+		for (CertObjectCache cache : caches) {
+			synchronized (cache) {
+				cache.shrink(cache.weight / 2);
+			}
+		}
+	}
+
+	/**
+	 * Cache slot holding a single cached object.
+	 * <p>
+	 * The slot's object is held strongly until it is evicted.
+	 *
+	 * @param <T> The type of the cached object.
+	 */
+	final class Slot<T> {
+
+		@Nullable
+		T object = null;
+		long weight = 0;
+
+		Slot() {
+			// Nothing to do here
+		}
+
+		/**
+		 * Get the cached object.
+		 *
+		 * @return The cached object or {@code null} if the object is not cached.
+		 */
+		@Nullable
+		T get() {
+			T cachedObject;
+
+			synchronized (CertObjectCache.this) {
+				cachedObject = this.object;
+				if (cachedObject != null) {
+					// Access the slot to update the LRU order
+					CertObjectCache.this.slots.get(this);
+					CertObjectCache.this.hitCount++;
+				} else {
+					CertObjectCache.this.missCount++;
+				}
+			}
+			return cachedObject;
+		}
+
+		/**
+		 * Cache an object.
+		 *
+		 * @param cacheObject The object to cache.
+		 * @param cacheWeight The weight of the cached object.
+		 */
+		void set(T cacheObject, long cacheWeight) {
+			synchronized (CertObjectCache.this) {
+				CertObjectCache.this.weight += cacheWeight - this.weight;
+				this.object = cacheObject;
+				this.weight = cacheWeight;
+				CertObjectCache.this.slots.put(this, this);
+				evict(CertObjectCache.this.maxEntries, CertObjectCache.this.maxWeight);
+			}
+		}
+
+		/**
+		 * Remove the cached object.
+		 */
+		void clear() {
+			synchronized (CertObjectCache.this) {
+				if (CertObjectCache.this.slots.remove(this) != null) {
+					CertObjectCache.this.weight -= this.weight;
+				}
+				this.object = null;
+				this.weight = 0;
+			}
+		}
+
+	}
+
+}
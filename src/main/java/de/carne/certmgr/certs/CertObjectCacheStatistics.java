@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+/**
+ * Snapshot of a certificate store's object cache statistics.
+ *
+ * @see UserCertStore#cacheStatistics()
+ */
+public final class CertObjectCacheStatistics {
+
+	/**
+	 * Statistics of stores without an object cache.
+	 */
+	public static final CertObjectCacheStatistics NONE = new CertObjectCacheStatistics(0, 0, 0, 0, 0);
+
+	private final int objectCount;
+	private final long objectWeight;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+
+	CertObjectCacheStatistics(int objectCount, long objectWeight, long hitCount, long missCount, long evictionCount) {
+		this.objectCount = objectCount;
+		this.objectWeight = objectWeight;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+	}
+
+	/**
+	 * Get the number of currently cached objects.
+	 *
+	 * @return The number of currently cached objects.
+	 */
+	public int objectCount() {
+		return this.objectCount;
+	}
+
+	/**
+	 * Get the total weight (encoded size) of the currently cached objects.
+	 *
+	 * @return The total weight of the currently cached objects.
+	 */
+	public long objectWeight() {
+		return this.objectWeight;
+	}
+
+	/**
+	 * Get the number of cache hits.
+	 *
+	 * @return The number of cache hits.
+	 */
+	public long hitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * Get the number of cache misses.
+	 *
+	 * @return The number of cache misses.
+	 */
+	public long missCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * Get the number of evicted objects.
+	 *
+	 * @return The number of evicted objects.
+	 */
+	public long evictionCount() {
+		return this.evictionCount;
+	}
+
+	@Override
+	public String toString() {
+		return "objects: " + this.objectCount + " (" + this.objectWeight + " bytes), hits: " + this.hitCount
+				+ ", misses: " + this.missCount + ", evictions: " + this.evictionCount;
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.IOException;
+
+/**
+ * Callback interface used to receive certificate objects as soon as they are decoded.
+ *
+ * @see CertObjectStore#streaming(CertObjectConsumer)
+ */
+@FunctionalInterface
+public interface CertObjectConsumer {
+
+	/**
+	 * Receive a decoded certificate object.
+	 *
+	 * @param certObject The decoded certificate object.
+	 * @throws IOException if an I/O error occurs while processing the certificate object.
+	 */
+	void accept(CertObjectStore.Entry certObject) throws IOException;
+
+}
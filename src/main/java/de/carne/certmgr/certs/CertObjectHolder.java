@@ -28,4 +28,9 @@ interface CertObjectHolder<T> {
 
 	T get() throws IOException;
 
+	@Nullable
+	default CertObjectInfo info() throws IOException {
+		return null;
+	}
+
 }
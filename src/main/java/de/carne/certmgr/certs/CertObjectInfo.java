@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.security.cert.X509Extension;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.certmgr.certs.x509.AuthorityKeyIdentifierExtensionData;
+import de.carne.certmgr.certs.x509.KeyHelper;
+import de.carne.certmgr.certs.x509.PKCS10CertificateRequest;
+import de.carne.certmgr.certs.x509.SubjectKeyIdentifierExtensionData;
+import de.carne.certmgr.certs.x509.X509ExtensionData;
+
+/**
+ * Metadata of a single certificate object.
+ * <p>
+ * The metadata contains all the information needed to manage a certificate object within a store without decoding the
+ * actual object.
+ */
+final class CertObjectInfo {
+
+	private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+	// Upper bound for a single encoded attribute (DN, serial, ...); anything above indicates corrupt data
+	private static final int MAX_BYTES_LENGTH = 0x10000;
+
+	private final CertObjectType type;
+	private final X500Principal dn;
+	@Nullable
+	private final X500Principal issuerDN;
+	@Nullable
+	private final BigInteger serial;
+	@Nullable
+	private final Date notBefore;
+	@Nullable
+	private final Date notAfter;
+	@Nullable
+	private final String keyFingerprint;
+	private final byte @Nullable [] ski;
+	private final byte @Nullable [] aki;
+	private final byte[] contentDigest;
+
+	private CertObjectInfo(CertObjectType type, X500Principal dn, @Nullable X500Principal issuerDN,
+			@Nullable BigInteger serial, @Nullable Date notBefore, @Nullable Date notAfter,
+			@Nullable String keyFingerprint, byte @Nullable [] ski, byte @Nullable [] aki, byte[] contentDigest) {
+		this.type = type;
+		this.dn = dn;
+		this.issuerDN = issuerDN;
+		this.serial = serial;
+		this.notBefore = notBefore;
+		this.notAfter = notAfter;
+		this.keyFingerprint = keyFingerprint;
+		this.ski = ski;
+		this.aki = aki;
+		this.contentDigest = contentDigest;
+	}
+
+	/**
+	 * Gather the metadata of a CRT object.
+	 *
+	 * @param crt The CRT object to gather the metadata for.
+	 * @return The CRT object's metadata.
+	 * @throws IOException if an error occurs while gathering the metadata.
+	 */
+	public static CertObjectInfo fromCRT(X509Certificate crt) throws IOException {
+		return new CertObjectInfo(CertObjectType.CRT, crt.getSubjectX500Principal(), crt.getIssuerX500Principal(),
+				crt.getSerialNumber(), crt.getNotBefore(), crt.getNotAfter(), KeyHelper.fingerprint(crt.getPublicKey()),
+				keyIdentifier(crt, SubjectKeyIdentifierExtensionData.OID),
+				keyIdentifier(crt, AuthorityKeyIdentifierExtensionData.OID), contentDigest(crt));
+	}
+
+	/**
+	 * Gather the metadata of a CSR object.
+	 *
+	 * @param csr The CSR object to gather the metadata for.
+	 * @return The CSR object's metadata.
+	 * @throws IOException if an error occurs while gathering the metadata.
+	 */
+	public static CertObjectInfo fromCSR(PKCS10CertificateRequest csr) throws IOException {
+		return new CertObjectInfo(CertObjectType.CSR, csr.getSubjectX500Principal(), null, null, null, null,
+				KeyHelper.fingerprint(csr.getPublicKey()), null, null, contentDigest(csr));
+	}
+
+	/**
+	 * Gather the metadata of a CRL object.
+	 *
+	 * @param crl The CRL object to gather the metadata for.
+	 * @return The CRL object's metadata.
+	 * @throws IOException if an error occurs while gathering the metadata.
+	 */
+	public static CertObjectInfo fromCRL(X509CRL crl) throws IOException {
+		X500Principal crlIssuerDN = crl.getIssuerX500Principal();
+
+		return new CertObjectInfo(CertObjectType.CRL, crlIssuerDN, crlIssuerDN, null, crl.getThisUpdate(),
+				crl.getNextUpdate(), null, null, keyIdentifier(crl, AuthorityKeyIdentifierExtensionData.OID),
+				contentDigest(crl));
+	}
+
+	/**
+	 * Compute the content digest of a CRT object.
+	 *
+	 * @param crt The CRT object to compute the digest for.
+	 * @return The CRT object's content digest.
+	 * @throws IOException if an error occurs while encoding the object.
+	 * @see #contentDigest()
+	 */
+	public static byte[] contentDigest(X509Certificate crt) throws IOException {
+		byte[] digest;
+
+		try {
+			digest = contentDigest(crt.getEncoded());
+		} catch (GeneralSecurityException e) {
+			throw new CertProviderException(e);
+		}
+		return digest;
+	}
+
+	/**
+	 * Compute the content digest of a CSR object.
+	 *
+	 * @param csr The CSR object to compute the digest for.
+	 * @return The CSR object's content digest.
+	 * @throws IOException if an error occurs while encoding the object.
+	 * @see #contentDigest()
+	 */
+	public static byte[] contentDigest(PKCS10CertificateRequest csr) throws IOException {
+		return contentDigest(csr.getEncoded());
+	}
+
+	/**
+	 * Compute the content digest of a CRL object.
+	 *
+	 * @param crl The CRL object to compute the digest for.
+	 * @return The CRL object's content digest.
+	 * @throws IOException if an error occurs while encoding the object.
+	 * @see #contentDigest()
+	 */
+	public static byte[] contentDigest(X509CRL crl) throws IOException {
+		byte[] digest;
+
+		try {
+			digest = contentDigest(crl.getEncoded());
+		} catch (GeneralSecurityException e) {
+			throw new CertProviderException(e);
+		}
+		return digest;
+	}
+
+	private static byte[] contentDigest(byte[] encoded) {
+		byte[] digest;
+
+		try {
+			digest = MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM).digest(encoded);
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support SHA-256
+			throw Exceptions.toRuntime(e);
+		}
+		return digest;
+	}
+
+	/**
+	 * Get the type of the described object.
+	 *
+	 * @return The type of the described object.
+	 */
+	public CertObjectType type() {
+		return this.type;
+	}
+
+	/**
+	 * Get the Distinguished Name (DN) of the described object.
+	 * <p>
+	 * For CRT and CSR objects this is the subject DN. For CRL objects this is the issuer DN.
+	 *
+	 * @return The Distinguished Name (DN) of the described object.
+	 */
+	public X500Principal dn() {
+		return this.dn;
+	}
+
+	/**
+	 * Get the issuer's Distinguished Name (DN) of the described object.
+	 *
+	 * @return The issuer's Distinguished Name (DN) of the described object, or {@code null} if not applicable.
+	 */
+	@Nullable
+	public X500Principal issuerDN() {
+		return this.issuerDN;
+	}
+
+	/**
+	 * Get the serial number of the described object.
+	 *
+	 * @return The serial number of the described object, or {@code null} if not applicable.
+	 */
+	@Nullable
+	public BigInteger serial() {
+		return this.serial;
+	}
+
+	/**
+	 * Get the start of the validity period of the described object.
+	 *
+	 * @return The start of the validity period of the described object, or {@code null} if not applicable.
+	 */
+	@Nullable
+	public Date notBefore() {
+		return this.notBefore;
+	}
+
+	/**
+	 * Get the end of the validity period of the described object.
+	 *
+	 * @return The end of the validity period of the described object, or {@code null} if not applicable.
+	 */
+	@Nullable
+	public Date notAfter() {
+		return this.notAfter;
+	}
+
+	/**
+	 * Get the public key fingerprint of the described object.
+	 *
+	 * @return The public key fingerprint of the described object, or {@code null} if not applicable.
+	 * @see KeyHelper#fingerprint(java.security.PublicKey)
+	 */
+	@Nullable
+	public String keyFingerprint() {
+		return this.keyFingerprint;
+	}
+
+	/**
+	 * Get the Subject Key Identifier (SKI) of the described object.
+	 *
+	 * @return The Subject Key Identifier (SKI) of the described object, or {@code null} if not available.
+	 */
+	public byte @Nullable [] ski() {
+		return this.ski;
+	}
+
+	/**
+	 * Get the Authority Key Identifier (AKI) of the described object.
+	 *
+	 * @return The Authority Key Identifier (AKI) of the described object, or {@code null} if not available.
+	 */
+	public byte @Nullable [] aki() {
+		return this.aki;
+	}
+
+	/**
+	 * Get the content digest of the described object.
+	 * <p>
+	 * The content digest is the SHA-256 digest of the object's DER encoding. Objects with equal content digests are
+	 * considered identical.
+	 *
+	 * @return The content digest of the described object.
+	 */
+	public byte[] contentDigest() {
+		return this.contentDigest;
+	}
+
+	/**
+	 * Write this metadata to a {@link DataOutput}.
+	 *
+	 * @param out The {@link DataOutput} to write to.
+	 * @throws IOException if an I/O error occurs while writing.
+	 * @see #read(DataInput)
+	 */
+	public void write(DataOutput out) throws IOException {
+		X500Principal checkedIssuerDN = this.issuerDN;
+		BigInteger checkedSerial = this.serial;
+		Date checkedNotBefore = this.notBefore;
+		Date checkedNotAfter = this.notAfter;
+		String checkedKeyFingerprint = this.keyFingerprint;
+
+		out.writeByte(this.type.ordinal());
+		writeBytes(out, this.dn.getEncoded());
+		writeBytes(out, (checkedIssuerDN != null ? checkedIssuerDN.getEncoded() : null));
+		writeBytes(out, (checkedSerial != null ? checkedSerial.toByteArray() : null));
+		out.writeLong(checkedNotBefore != null ? checkedNotBefore.getTime() : Long.MIN_VALUE);
+		out.writeLong(checkedNotAfter != null ? checkedNotAfter.getTime() : Long.MIN_VALUE);
+		out.writeBoolean(checkedKeyFingerprint != null);
+		if (checkedKeyFingerprint != null) {
+			out.writeUTF(checkedKeyFingerprint);
+		}
+		writeBytes(out, this.ski);
+		writeBytes(out, this.aki);
+		writeBytes(out, this.contentDigest);
+	}
+
+	/**
+	 * Read metadata from a {@link DataInput}.
+	 *
+	 * @param in The {@link DataInput} to read from.
+	 * @return The read metadata.
+	 * @throws IOException if an I/O error occurs while reading or the read data is invalid.
+	 * @see #write(DataOutput)
+	 */
+	public static CertObjectInfo read(DataInput in) throws IOException {
+		CertObjectInfo info;
+
+		try {
+			CertObjectType type = CertObjectType.values()[in.readUnsignedByte()];
+			X500Principal dn = new X500Principal(readRequiredBytes(in));
+			byte[] issuerDNBytes = readBytes(in);
+			byte[] serialBytes = readBytes(in);
+			long notBeforeTime = in.readLong();
+			long notAfterTime = in.readLong();
+			String keyFingerprint = (in.readBoolean() ? in.readUTF() : null);
+			byte[] ski = readBytes(in);
+			byte[] aki = readBytes(in);
+			byte[] contentDigest = readRequiredBytes(in);
+
+			info = new CertObjectInfo(type, dn, (issuerDNBytes != null ? new X500Principal(issuerDNBytes) : null),
+					(serialBytes != null ? new BigInteger(serialBytes) : null),
+					(notBeforeTime != Long.MIN_VALUE ? new Date(notBeforeTime) : null),
+					(notAfterTime != Long.MIN_VALUE ? new Date(notAfterTime) : null), keyFingerprint, ski, aki,
+					contentDigest);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IOException("Invalid certificate object info data", e);
+		}
+		return info;
+	}
+
+	private static void writeBytes(DataOutput out, byte @Nullable [] bytes) throws IOException {
+		if (bytes != null) {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else {
+			out.writeInt(-1);
+		}
+	}
+
+	private static byte @Nullable [] readBytes(DataInput in) throws IOException {
+		int length = in.readInt();
+
+		if (length < -1 || length > MAX_BYTES_LENGTH) {
+			throw new IOException("Invalid certificate object info data length: " + length);
+		}
+
+		byte[] bytes = null;
+
+		if (length >= 0) {
+			bytes = new byte[length];
+			in.readFully(bytes);
+		}
+		return bytes;
+	}
+
+	private static byte[] readRequiredBytes(DataInput in) throws IOException {
+		byte[] bytes = readBytes(in);
+
+		if (bytes == null) {
+			throw new IOException("Missing required certificate object info data");
+		}
+		return bytes;
+	}
+
+	private static byte @Nullable [] keyIdentifier(X509Extension extension, String oid) {
+		byte[] extensionValue = extension.getExtensionValue(oid);
+		byte[] keyIdentifier = null;
+
+		if (extensionValue != null) {
+			try {
+				X509ExtensionData extensionData = X509ExtensionData.decode(oid, false, extensionValue);
+
+				if (extensionData instanceof SubjectKeyIdentifierExtensionData) {
+					keyIdentifier = ((SubjectKeyIdentifierExtensionData) extensionData).getKeyIdentifier();
+				} else if (extensionData instanceof AuthorityKeyIdentifierExtensionData) {
+					keyIdentifier = ((AuthorityKeyIdentifierExtensionData) extensionData).getKeyIdentifier();
+				}
+			} catch (IOException e) {
+				Exceptions.ignore(e);
+			}
+		}
+		return keyIdentifier;
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Result of merging a single source of certificate objects into a certificate store.
+ *
+ * @see UserCertStore#mergeCertObjects(java.util.Collection, PasswordCallback, String)
+ */
+public final class CertObjectMergeReport {
+
+	private final Set<UserCertStoreEntry> mergedEntries = new LinkedHashSet<>();
+	private int objectCount = 0;
+	private int skippedCount = 0;
+
+	CertObjectMergeReport() {
+		// Nothing to do here
+	}
+
+	void record(@Nullable UserCertStoreEntry mergedEntry) {
+		this.objectCount++;
+		if (mergedEntry != null) {
+			this.mergedEntries.add(mergedEntry);
+		} else {
+			this.skippedCount++;
+		}
+	}
+
+	/**
+	 * Get the store entries the source's certificate objects have been merged into.
+	 *
+	 * @return The store entries the source's certificate objects have been merged into (in merge order).
+	 */
+	public Set<UserCertStoreEntry> mergedEntries() {
+		return Collections.unmodifiableSet(this.mergedEntries);
+	}
+
+	/**
+	 * Get the number of processed certificate objects.
+	 *
+	 * @return The number of processed certificate objects.
+	 */
+	public int objectCount() {
+		return this.objectCount;
+	}
+
+	/**
+	 * Get the number of certificate objects which have been skipped because they did not match any store entry.
+	 *
+	 * @return The number of skipped certificate objects.
+	 */
+	public int skippedCount() {
+		return this.skippedCount;
+	}
+
+}
@@ -34,6 +34,9 @@ import de.carne.certmgr.certs.x509.PKCS10CertificateRequest;
 
 /**
  * Class used to collect/transfer individual certificate objects for reading and writing.
+ * <p>
+ * A streaming store (see {@link #streaming(CertObjectConsumer)}) does not collect the added certificate objects but
+ * passes them to a {@link CertObjectConsumer} instead.
  */
 public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 
@@ -153,11 +156,37 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 	}
 
 	private final Set<Entry> entries = new LinkedHashSet<>();
+	@Nullable
+	private final CertObjectConsumer consumer;
+	private int streamedCount = 0;
 	private int crtNumber = 1;
 	private int keyNumber = 1;
 	private int csrNumber = 1;
 	private int crlNumber = 1;
 
+	/**
+	 * Construct {@code CertObjectStore}.
+	 */
+	public CertObjectStore() {
+		this(null);
+	}
+
+	private CertObjectStore(@Nullable CertObjectConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Create a streaming store passing all added certificate objects to a consumer.
+	 * <p>
+	 * The added certificate objects are not collected; hence iterating a streaming store never returns any objects.
+	 *
+	 * @param consumer The consumer to pass the added certificate objects to.
+	 * @return The created streaming store.
+	 */
+	public static CertObjectStore streaming(CertObjectConsumer consumer) {
+		return new CertObjectStore(consumer);
+	}
+
 	/**
 	 * Wrap a single store entry into a store.
 	 *
@@ -171,6 +200,28 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 		return store;
 	}
 
+	/**
+	 * Create an independent copy of a store.
+	 * <p>
+	 * The copy shares the (immutable) certificate objects with the submitted store, but adding objects to either store
+	 * does not affect the other one.
+	 *
+	 * @param store The store to copy.
+	 * @return The created copy.
+	 */
+	public static CertObjectStore copy(CertObjectStore store) {
+		CertObjectStore copy = new CertObjectStore();
+
+		for (Entry entry : store.entries) {
+			copy.entries.add(copy.new Entry(entry));
+		}
+		copy.crtNumber = store.crtNumber;
+		copy.keyNumber = store.keyNumber;
+		copy.csrNumber = store.csrNumber;
+		copy.crlNumber = store.crlNumber;
+		return copy;
+	}
+
 	/**
 	 * Add a CRT object to the store.
 	 *
@@ -191,7 +242,7 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 	 */
 	public void addCRT(String alias, X509Certificate crt) throws IOException {
 		try {
-			this.entries.add(new Entry(alias, CertObjectType.CRT, crt, crt.getEncoded()));
+			add(new Entry(alias, CertObjectType.CRT, crt, crt.getEncoded()));
 		} catch (CertificateEncodingException e) {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
@@ -216,7 +267,7 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 	 * @throws IOException if an encoding error occurs.
 	 */
 	public void addKey(String alias, KeyPair key) throws IOException {
-		this.entries.add(new Entry(alias, CertObjectType.KEY, key, KeyHelper.encodePrivateKey(key.getPrivate())));
+		add(new Entry(alias, CertObjectType.KEY, key, KeyHelper.encodePrivateKey(key.getPrivate())));
 	}
 
 	/**
@@ -238,7 +289,7 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 	 * @throws IOException if an encoding error occurs.
 	 */
 	public void addCSR(String alias, PKCS10CertificateRequest csr) throws IOException {
-		this.entries.add(new Entry(alias, CertObjectType.CSR, csr, csr.getEncoded()));
+		add(new Entry(alias, CertObjectType.CSR, csr, csr.getEncoded()));
 	}
 
 	/**
@@ -261,19 +312,32 @@ public final class CertObjectStore implements Iterable<CertObjectStore.Entry> {
 	 */
 	public void addCRL(String alias, X509CRL crl) throws IOException {
 		try {
-			this.entries.add(new Entry(alias, CertObjectType.CRL, crl, crl.getEncoded()));
+			add(new Entry(alias, CertObjectType.CRL, crl, crl.getEncoded()));
 		} catch (CRLException e) {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
 	}
 
+	private void add(Entry entry) throws IOException {
+		CertObjectConsumer checkedConsumer = this.consumer;
+
+		if (checkedConsumer != null) {
+			checkedConsumer.accept(entry);
+			this.streamedCount++;
+		} else {
+			this.entries.add(entry);
+		}
+	}
+
 	/**
 	 * Get the number of certificate objects in this store.
+	 * <p>
+	 * For a streaming store this is the number of certificate objects passed to the consumer so far.
 	 *
 	 * @return The number of certificate objects in this store.
 	 */
 	public int size() {
-		return this.entries.size();
+		return this.entries.size() + this.streamedCount;
 	}
 
 	@Override
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Time-limited cache for decrypted private keys.
+ * <p>
+ * A cached key is dropped as soon as it has not been accessed for the idle timeout or as soon as the maximum lifetime
+ * has been reached (whatever happens first). Cached keys are kept in their encoded form and the encoding is wiped when
+ * a key is dropped. Every cache hit returns a freshly decoded key instance, hence dropping a key never affects a key
+ * instance already in use.
+ * <p>
+ * The shared background expiration task references the cache weakly. A cache which is no longer referenced (e.g.
+ * because its store has been dropped without disabling the cache) is therefore not kept alive by the task; the task
+ * cancels itself once the cache has been collected.
+ */
+final class DecryptedKeyCache {
+
+	private static final Log LOG = new Log();
+
+	private static final ScheduledExecutorService EXPIRER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, DecryptedKeyCache.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final long EXPIRE_INTERVAL_MILLIS = 1000;
+
+	private final long idleTimeoutNanos;
+
+	private final long maxLifetimeNanos;
+
+	private final Map<Object, CachedKey> cachedKeys = new HashMap<>();
+
+	private final ScheduledFuture<?> expireTask;
+
+	/**
+	 * Construct {@code DecryptedKeyCache}.
+	 *
+	 * @param idleTimeout The time after which a cached key is dropped if it is not accessed.
+	 * @param maxLifetime The maximum time a key is cached.
+	 */
+	DecryptedKeyCache(Duration idleTimeout, Duration maxLifetime) {
+		this.idleTimeoutNanos = idleTimeout.toNanos();
+		this.maxLifetimeNanos = maxLifetime.toNanos();
+		ExpireTask task = new ExpireTask(this);
+
+		this.expireTask = EXPIRER.scheduleWithFixedDelay(task, EXPIRE_INTERVAL_MILLIS, EXPIRE_INTERVAL_MILLIS,
+				TimeUnit.MILLISECONDS);
+		task.setFuture(this.expireTask);
+	}
+
+	/**
+	 * Get a cached key.
+	 *
+	 * @param owner The owner of the key to get.
+	 * @return The cached key or {@code null} if the key is not cached.
+	 */
+	@Nullable
+	synchronized KeyPair get(Object owner) {
+		expire();
+
+		CachedKey cachedKey = this.cachedKeys.get(owner);
+		KeyPair key = null;
+
+		if (cachedKey != null) {
+			try {
+				key = cachedKey.decode();
+				cachedKey.lastAccess = System.nanoTime();
+			} catch (GeneralSecurityException e) {
+				LOG.warning(e, "Failed to decode cached key; dropping it");
+				remove(owner);
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Cache a key.
+	 *
+	 * @param owner The owner of the key to cache.
+	 * @param key The key to cache.
+	 */
+	synchronized void put(Object owner, KeyPair key) {
+		PrivateKey privateKey = key.getPrivate();
+		byte[] encodedPrivateKey = privateKey.getEncoded();
+
+		if ("PKCS#8".equals(privateKey.getFormat()) && encodedPrivateKey != null) {
+			CachedKey previousCachedKey = this.cachedKeys.put(owner,
+					new CachedKey(key.getPublic(), privateKey.getAlgorithm(), encodedPrivateKey));
+
+			if (previousCachedKey != null) {
+				previousCachedKey.wipe();
+			}
+		} else {
+			LOG.info("Not caching key of unsupported format ''{0}''", privateKey.getFormat());
+		}
+	}
+
+	/**
+	 * Drop a cached key.
+	 *
+	 * @param owner The owner of the key to drop.
+	 */
+	synchronized void remove(Object owner) {
+		CachedKey cachedKey = this.cachedKeys.remove(owner);
+
+		if (cachedKey != null) {
+			cachedKey.wipe();
+		}
+	}
+
+	/**
+	 * Drop all cached keys.
+	 */
+	synchronized void purge() {
+		for (CachedKey cachedKey : this.cachedKeys.values()) {
+			cachedKey.wipe();
+		}
+		this.cachedKeys.clear();
+	}
+
+	/**
+	 * Drop all cached keys and stop the expiration of cached keys.
+	 */
+	synchronized void close() {
+		this.expireTask.cancel(false);
+		purge();
+	}
+
+	/**
+	 * Get the number of cached keys.
+	 *
+	 * @return The number of cached keys.
+	 */
+	synchronized int size() {
+		expire();
+		return this.cachedKeys.size();
+	}
+
+	private synchronized void expire() {
+		long now = System.nanoTime();
+		Iterator<CachedKey> cachedKeysIterator = this.cachedKeys.values().iterator();
+
+		while (cachedKeysIterator.hasNext()) {
+			CachedKey cachedKey = cachedKeysIterator.next();
+
+			if (now - cachedKey.lastAccess >= this.idleTimeoutNanos
+					|| now - cachedKey.created >= this.maxLifetimeNanos) {
+				cachedKeysIterator.remove();
+				cachedKey.wipe();
+			}
+		}
+	}
+
+	private static class ExpireTask implements Runnable {
+
+		private final WeakReference<DecryptedKeyCache> cacheReference;
+
+		@Nullable
+		private volatile ScheduledFuture<?> future = null;
+
+		ExpireTask(DecryptedKeyCache cache) {
+			this.cacheReference = new WeakReference<>(cache);
+		}
+
+		void setFuture(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			DecryptedKeyCache cache = this.cacheReference.get();
+
+			if (cache != null) {
+				cache.expire();
+			} else {
+				ScheduledFuture<?> checkedFuture = this.future;
+
+				if (checkedFuture != null) {
+					checkedFuture.cancel(false);
+				}
+			}
+		}
+
+	}
+
+	private static class CachedKey {
+
+		private final PublicKey publicKey;
+		private final String algorithm;
+		private final byte[] encodedPrivateKey;
+		final long created;
+		long lastAccess;
+
+		CachedKey(PublicKey publicKey, String algorithm, byte[] encodedPrivateKey) {
+			this.publicKey = publicKey;
+			this.algorithm = algorithm;
+			this.encodedPrivateKey = encodedPrivateKey;
+			this.created = System.nanoTime();
+			this.lastAccess = this.created;
+		}
+
+		KeyPair decode() throws GeneralSecurityException {
+			PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(this.encodedPrivateKey);
+
+			return new KeyPair(this.publicKey, KeyFactory.getInstance(this.algorithm).generatePrivate(keySpec));
+		}
+
+		void wipe() {
+			Arrays.fill(this.encodedPrivateKey, (byte) 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+/**
+ * Callback interface used to monitor a multi-file import.
+ *
+ * @see UserCertStore#createFromFiles(java.util.Collection, PasswordCallback, FileImportMonitor)
+ */
+public interface FileImportMonitor {
+
+	/**
+	 * This function is called every time a file has been processed.
+	 *
+	 * @param processed The number of files processed so far.
+	 * @param total The total number of files to process.
+	 */
+	void progress(int processed, int total);
+
+	/**
+	 * Check whether the import has been cancelled.
+	 * <p>
+	 * This function is polled while the import is running. If it returns {@code true}, the pending files are skipped
+	 * and the import fails.
+	 *
+	 * @return {@code true} if the import has been cancelled.
+	 */
+	boolean isCancelled();
+
+}
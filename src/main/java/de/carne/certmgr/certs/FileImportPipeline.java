@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.io.CertReaders;
+import de.carne.certmgr.util.PropertiesHelper;
+
+/**
+ * Pipeline used by {@link UserCertStore} to read multiple files concurrently.
+ * <p>
+ * The files are read by a bounded number of threads defined by the system property
+ * {@code de.carne.certmgr.certs.importThreads} (default: number of available processors). Files with identical content
+ * are only decoded once. Password queries issued by the reading threads are serialized, hence the user is asked for
+ * one resource at a time.
+ * <p>
+ * The reading threads stream the decoded certificate objects through a bounded hand-off queue to the thread running
+ * the import. Neither files nor read results are collected; a reading thread blocks as soon as the queue is full.
+ */
+final class FileImportPipeline {
+
+	private static final Log LOG = new Log();
+
+	private static final int THREAD_COUNT = PropertiesHelper.getInt(FileImportPipeline.class, ".importThreads",
+			Runtime.getRuntime().availableProcessors());
+
+	private static final int HAND_OFF_CAPACITY = 64;
+
+	private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+	private final PasswordCallback password;
+
+	@Nullable
+	private final FileImportMonitor monitor;
+
+	private final Map<ByteBuffer, ContentClaim> contentClaims = new HashMap<>();
+
+	/**
+	 * Construct {@code FileImportPipeline}.
+	 *
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @param monitor The optional monitor to report the progress to and to poll for cancellation.
+	 */
+	FileImportPipeline(PasswordCallback password, @Nullable FileImportMonitor monitor) {
+		this.password = new SerializedPassword(password);
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Read the certificate objects from a set of files.
+	 * <p>
+	 * The certificate objects are passed to the consumer as soon as they have been decoded. The consumer is always
+	 * invoked by the calling thread. Files that cannot be read or whose format is not recognized are logged and
+	 * skipped.
+	 *
+	 * @param files The files to read.
+	 * @param consumer The consumer to pass the read certificate objects to.
+	 * @throws InterruptedIOException if the import has been cancelled or interrupted.
+	 * @throws IOException if the consumer fails to process a certificate object.
+	 */
+	void run(Collection<Path> files, CertObjectConsumer consumer) throws IOException {
+		int total = files.size();
+		BlockingQueue<HandOff> handOffs = new ArrayBlockingQueue<>(HAND_OFF_CAPACITY);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(THREAD_COUNT, total)), r -> {
+			String threadName = FileImportPipeline.class.getSimpleName() + "-" + THREAD_NUMBER.incrementAndGet();
+			Thread thread = new Thread(r, threadName);
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			for (Path file : files) {
+				executor.execute(() -> readFile(file, handOffs));
+			}
+
+			int processed = 0;
+
+			while (processed < total) {
+				checkCancelled();
+
+				HandOff handOff = handOffs.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if (handOff != null) {
+					CertObjectStore.Entry certObject = handOff.certObject;
+					FileResult fileResult = handOff.fileResult;
+
+					if (certObject != null) {
+						consumer.accept(certObject);
+					} else if (fileResult != null) {
+						processFileResult(fileResult);
+						processed++;
+						reportProgress(processed, total);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} finally {
+			// Also releases any reading thread blocked on the hand-off queue
+			executor.shutdownNow();
+		}
+	}
+
+	private void processFileResult(FileResult fileResult) {
+		IOException exception = fileResult.exception;
+		RuntimeException failure = fileResult.failure;
+
+		if (failure != null) {
+			throw failure;
+		}
+		if (exception != null) {
+			LOG.warning(exception, "Ignoring file ''{0}'' due to read error: {1}", fileResult.file,
+					exception.getLocalizedMessage());
+		} else if (fileResult.duplicate) {
+			LOG.info("Ignoring file ''{0}'' due to duplicate content", fileResult.file);
+		} else if (!fileResult.recognized) {
+			LOG.warning("Ignoring file ''{0}'' due to unrecognized file format or missing password", fileResult.file);
+		}
+	}
+
+	private void readFile(Path file, BlockingQueue<HandOff> handOffs) {
+		FileResult fileResult = new FileResult(file);
+
+		try {
+			ByteBuffer data = CertReaders.readData(file);
+			ByteBuffer contentDigest = contentDigest(data);
+
+			// Identical files (e.g. the same certificate bundle placed in multiple directories) are decoded only once.
+			// If the file cannot be read, the copies that showed up in the meantime are tried instead.
+			if (claimContent(contentDigest, file)) {
+				try {
+					fileResult.recognized = streamFile(file, data, handOffs);
+				} finally {
+					if (fileResult.recognized) {
+						releaseContent(contentDigest);
+					} else {
+						readPendingCopies(contentDigest, handOffs);
+					}
+				}
+			} else {
+				fileResult.duplicate = true;
+			}
+		} catch (IOException e) {
+			fileResult.exception = e;
+		} catch (RuntimeException e) {
+			fileResult.failure = e;
+		}
+		try {
+			handOffs.put(new HandOff(null, fileResult));
+		} catch (InterruptedException e) {
+			// The import has been stopped; nobody is waiting for the result anymore
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean streamFile(Path file, ByteBuffer data, BlockingQueue<HandOff> handOffs) throws IOException {
+		return CertReaders.streamFile(file, data, this.password, certObject -> {
+			try {
+				handOffs.put(new HandOff(certObject, null));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+		});
+	}
+
+	private void readPendingCopies(ByteBuffer contentDigest, BlockingQueue<HandOff> handOffs) {
+		boolean recognized = false;
+		Path copy;
+
+		while (!recognized && !Thread.currentThread().isInterrupted()
+				&& (copy = nextPendingCopy(contentDigest)) != null) {
+			LOG.info("Reading duplicate file ''{0}'' as the original content has not been read", copy);
+			try {
+				recognized = streamFile(copy, CertReaders.readData(copy), handOffs);
+				if (!recognized) {
+					LOG.warning("Ignoring file ''{0}'' due to unrecognized file format or missing password", copy);
+				}
+			} catch (IOException e) {
+				LOG.warning(e, "Ignoring file ''{0}'' due to read error: {1}", copy, e.getLocalizedMessage());
+			}
+		}
+		if (recognized) {
+			releaseContent(contentDigest);
+		}
+	}
+
+	private boolean claimContent(ByteBuffer contentDigest, Path file) {
+		boolean claimed = false;
+
+		synchronized (this.contentClaims) {
+			ContentClaim claim = this.contentClaims.get(contentDigest);
+
+			if (claim == null) {
+				this.contentClaims.put(contentDigest, new ContentClaim());
+				claimed = true;
+			} else if (!claim.read) {
+				claim.pendingCopies.add(file);
+			}
+		}
+		return claimed;
+	}
+
+	private void releaseContent(ByteBuffer contentDigest) {
+		synchronized (this.contentClaims) {
+			ContentClaim claim = this.contentClaims.get(contentDigest);
+
+			if (claim != null) {
+				claim.read = true;
+				claim.pendingCopies.clear();
+			}
+		}
+	}
+
+	@Nullable
+	private Path nextPendingCopy(ByteBuffer contentDigest) {
+		Path copy = null;
+
+		synchronized (this.contentClaims) {
+			ContentClaim claim = this.contentClaims.get(contentDigest);
+
+			if (claim != null) {
+				copy = claim.pendingCopies.poll();
+				if (copy == null) {
+					// Give copies showing up later on a chance of their own
+					this.contentClaims.remove(contentDigest);
+				}
+			}
+		}
+		return copy;
+	}
+
+	private void checkCancelled() throws InterruptedIOException {
+		FileImportMonitor checkedMonitor = this.monitor;
+
+		if (checkedMonitor != null && checkedMonitor.isCancelled()) {
+			throw new InterruptedIOException("File import cancelled");
+		}
+	}
+
+	private void reportProgress(int processed, int total) {
+		FileImportMonitor reportMonitor = this.monitor;
+
+		if (reportMonitor != null) {
+			reportMonitor.progress(processed, total);
+		}
+	}
+
+	private static ByteBuffer contentDigest(ByteBuffer data) {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support SHA-256
+			throw Exceptions.toRuntime(e);
+		}
+		digest.update(data.duplicate());
+		return ByteBuffer.wrap(digest.digest());
+	}
+
+	private static class HandOff {
+
+		final CertObjectStore.@Nullable Entry certObject;
+		@Nullable
+		final FileResult fileResult;
+
+		HandOff(CertObjectStore.@Nullable Entry certObject, @Nullable FileResult fileResult) {
+			this.certObject = certObject;
+			this.fileResult = fileResult;
+		}
+
+	}
+
+	private static class FileResult {
+
+		final Path file;
+		boolean recognized = false;
+		boolean duplicate = false;
+		@Nullable
+		IOException exception = null;
+		@Nullable
+		RuntimeException failure = null;
+
+		FileResult(Path file) {
+			this.file = file;
+		}
+
+	}
+
+	private static class ContentClaim {
+
+		boolean read = false;
+		final Deque<Path> pendingCopies = new ArrayDeque<>();
+
+	}
+
+	private static class SerializedPassword implements PasswordCallback {
+
+		private final PasswordCallback password;
+
+		SerializedPassword(PasswordCallback password) {
+			this.password = password;
+		}
+
+		@Override
+		public synchronized char @Nullable [] queryPassword(String resource) {
+			return this.password.queryPassword(resource);
+		}
+
+		@Override
+		public synchronized char @Nullable [] requeryPassword(String resource, Throwable cause) {
+			return this.password.requeryPassword(resource, cause);
+		}
+
+	}
+
+}
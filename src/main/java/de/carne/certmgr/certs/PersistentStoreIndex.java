@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Binary metadata index of a persistent store.
+ * <p>
+ * The index records the {@link CertObjectInfo} of every certificate object file in the store together with the file's
+ * last modified time and size. As long as a file's time and size are unchanged, the recorded metadata can be used
+ * instead of decoding the file.
+ * <p>
+ * A missing or corrupt index file is silently discarded, causing all files to be decoded (and the index to be
+ * rebuilt).
+ */
+final class PersistentStoreIndex {
+
+	private static final Log LOG = new Log();
+
+	static final String INDEX_FILENAME = ".index.dat";
+
+	private static final int INDEX_MAGIC = 0x434d4958;
+
+	private static final int INDEX_VERSION = 2;
+
+	private final Path indexPath;
+
+	private final Path storeHome;
+
+	private final Map<String, IndexRecord> records = new HashMap<>();
+
+	private final Set<String> touchedRecords = new HashSet<>();
+
+	private boolean modified = false;
+
+	private PersistentStoreIndex(Path storeHome) {
+		this.indexPath = storeHome.resolve(INDEX_FILENAME);
+		this.storeHome = storeHome;
+	}
+
+	/**
+	 * Load the index of a persistent store.
+	 *
+	 * @param storeHome The home path of the store to load the index for.
+	 * @return The loaded index (which is empty in case the index file is missing or corrupt).
+	 */
+	public static PersistentStoreIndex load(Path storeHome) {
+		PersistentStoreIndex index = new PersistentStoreIndex(storeHome);
+
+		try {
+			index.readIndex();
+		} catch (NoSuchFileException e) {
+			LOG.info("No store index found; rebuilding index ''{0}''", index.indexPath);
+			index.reset();
+		} catch (IOException e) {
+			LOG.warning(e, "Discarding corrupt store index ''{0}''", index.indexPath);
+			index.reset();
+		}
+		return index;
+	}
+
+	/**
+	 * Get the recorded metadata for a certificate object file.
+	 *
+	 * @param file The certificate object file to get the metadata for.
+	 * @param attrs The current attributes of the certificate object file.
+	 * @return The recorded metadata, or {@code null} if the file is not recorded or has been changed since it was
+	 *         recorded.
+	 */
+	@Nullable
+	public synchronized CertObjectInfo get(Path file, BasicFileAttributes attrs) {
+		String recordKey = recordKey(file);
+		IndexRecord record = this.records.get(recordKey);
+		CertObjectInfo info = null;
+
+		this.touchedRecords.add(recordKey);
+		if (record != null && record.matches(attrs)) {
+			info = record.info();
+		}
+		return info;
+	}
+
+	/**
+	 * Record the metadata for a certificate object file.
+	 *
+	 * @param file The certificate object file to record the metadata for.
+	 * @param attrs The current attributes of the certificate object file.
+	 * @param info The metadata to record.
+	 */
+	public synchronized void put(Path file, BasicFileAttributes attrs, CertObjectInfo info) {
+		String recordKey = recordKey(file);
+
+		this.records.put(recordKey, new IndexRecord(attrs.lastModifiedTime().toMillis(), attrs.size(), info));
+		this.touchedRecords.add(recordKey);
+		this.modified = true;
+	}
+
+	/**
+	 * Save this index.
+	 * <p>
+	 * All records which have not been accessed via {@link #get(Path, BasicFileAttributes)} or
+	 * {@link #put(Path, BasicFileAttributes, CertObjectInfo)} since this index has been loaded are dropped prior to
+	 * saving. If no record has been changed or dropped, this function does nothing.
+	 *
+	 * @throws IOException if an I/O error occurs while writing the index file.
+	 */
+	public synchronized void save() throws IOException {
+		if (this.records.keySet().retainAll(this.touchedRecords)) {
+			this.modified = true;
+		}
+		if (this.modified) {
+			writeIndex();
+			this.modified = false;
+		}
+	}
+
+	private String recordKey(Path file) {
+		return this.storeHome.relativize(file).toString();
+	}
+
+	private void reset() {
+		this.records.clear();
+		this.modified = true;
+	}
+
+	private void readIndex() throws IOException {
+		CheckedInputStream checkedIn = new CheckedInputStream(
+				new BufferedInputStream(Files.newInputStream(this.indexPath)), new CRC32());
+
+		try (DataInputStream in = new DataInputStream(checkedIn)) {
+			if (in.readInt() != INDEX_MAGIC) {
+				throw new IOException("Invalid store index magic");
+			}
+
+			int version = in.readInt();
+
+			if (version != INDEX_VERSION) {
+				throw new IOException("Unsupported store index version: " + version);
+			}
+
+			int recordCount = in.readInt();
+
+			for (int recordIndex = 0; recordIndex < recordCount; recordIndex++) {
+				String recordKey = in.readUTF();
+				long lastModified = in.readLong();
+				long size = in.readLong();
+				CertObjectInfo info = CertObjectInfo.read(in);
+
+				this.records.put(recordKey, new IndexRecord(lastModified, size, info));
+			}
+
+			long checksum = checkedIn.getChecksum().getValue();
+
+			if (in.readLong() != checksum) {
+				throw new IOException("Store index checksum mismatch");
+			}
+		}
+		LOG.info("Loaded {0} record(s) from store index ''{1}''", this.records.size(), this.indexPath);
+	}
+
+	private void writeIndex() throws IOException {
+		Path tempIndexPath = this.indexPath.resolveSibling(INDEX_FILENAME + ".tmp");
+		CheckedOutputStream checkedOut = new CheckedOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tempIndexPath)), new CRC32());
+
+		try (DataOutputStream out = new DataOutputStream(checkedOut)) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeInt(this.records.size());
+			for (Map.Entry<String, IndexRecord> recordEntry : this.records.entrySet()) {
+				IndexRecord record = recordEntry.getValue();
+
+				out.writeUTF(recordEntry.getKey());
+				out.writeLong(record.lastModified());
+				out.writeLong(record.size());
+				record.info().write(out);
+			}
+			out.writeLong(checkedOut.getChecksum().getValue());
+		}
+		try {
+			Files.move(tempIndexPath, this.indexPath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempIndexPath, this.indexPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+		LOG.info("Saved {0} record(s) to store index ''{1}''", this.records.size(), this.indexPath);
+	}
+
+	private static final class IndexRecord {
+
+		private final long lastModified;
+		private final long size;
+		private final CertObjectInfo info;
+
+		IndexRecord(long lastModified, long size, CertObjectInfo info) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.info = info;
+		}
+
+		long lastModified() {
+			return this.lastModified;
+		}
+
+		long size() {
+			return this.size;
+		}
+
+		CertObjectInfo info() {
+			return this.info;
+		}
+
+		boolean matches(BasicFileAttributes attrs) {
+			return this.lastModified == attrs.lastModifiedTime().toMillis() && this.size == attrs.size();
+		}
+
+	}
+
+}
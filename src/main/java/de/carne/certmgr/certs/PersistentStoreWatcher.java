@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Shared {@link WatchService} used to track changes of persistent store directories.
+ * <p>
+ * A single watcher instance is used per {@link FileSystem}. Events are dispatched during {@link #poll()} calls. The
+ * registered listeners are referenced weakly; registrations of collected listeners are dropped automatically.
+ */
+final class PersistentStoreWatcher {
+
+	private static final Log LOG = new Log();
+
+	private static final Map<FileSystem, Optional<PersistentStoreWatcher>> WATCHERS = new HashMap<>();
+
+	/**
+	 * Listener interface for directory change notifications.
+	 */
+	interface Listener {
+
+		/**
+		 * Called whenever a file within a watched directory has been created, deleted or modified.
+		 *
+		 * @param file The changed file.
+		 */
+		void fileChanged(Path file);
+
+		/**
+		 * Called whenever the changes of a watched directory cannot be tracked file by file (e.g. due to an event
+		 * overflow).
+		 *
+		 * @param directory The changed directory.
+		 * @param valid Whether the directory is still watched ({@code true}) or the watch has been cancelled
+		 *        ({@code false}).
+		 */
+		void directoryChanged(Path directory, boolean valid);
+
+	}
+
+	private final WatchService watchService;
+
+	private final Map<WatchKey, List<Registration>> registrations = new HashMap<>();
+
+	private PersistentStoreWatcher(WatchService watchService) {
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Get the watcher instance for a specific {@link FileSystem}.
+	 *
+	 * @param fileSystem The {@link FileSystem} to get the watcher for.
+	 * @return The watcher instance, or {@code null} if the {@link FileSystem} does not support watching.
+	 */
+	@Nullable
+	static PersistentStoreWatcher getInstance(FileSystem fileSystem) {
+		Optional<PersistentStoreWatcher> watcher;
+
+		synchronized (WATCHERS) {
+			watcher = WATCHERS.get(fileSystem);
+			if (watcher == null) {
+				try {
+					watcher = Optional.of(new PersistentStoreWatcher(fileSystem.newWatchService()));
+				} catch (IOException | UnsupportedOperationException e) {
+					LOG.info(e, "File system does not support watching; falling back to polling");
+					watcher = Optional.empty();
+				}
+				WATCHERS.put(fileSystem, watcher);
+			}
+		}
+		return watcher.orElse(null);
+	}
+
+	/**
+	 * Register a directory for watching.
+	 *
+	 * @param directory The directory to watch.
+	 * @param listener The listener to notify about changes.
+	 * @return {@code true} if the directory is watched now.
+	 */
+	synchronized boolean register(Path directory, Listener listener) {
+		boolean registered = false;
+
+		pruneRegistrations();
+		try {
+			WatchKey key = directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+			this.registrations.computeIfAbsent(key, k -> new ArrayList<>()).add(new Registration(directory, listener));
+			registered = true;
+		} catch (IOException | UnsupportedOperationException e) {
+			LOG.info(e, "Unable to watch directory ''{0}''; falling back to polling", directory);
+		}
+		return registered;
+	}
+
+	/**
+	 * Dispatch all pending change events to the registered listeners.
+	 * <p>
+	 * This function does not block.
+	 */
+	synchronized void poll() {
+		WatchKey key;
+
+		while ((key = this.watchService.poll()) != null) {
+			List<Registration> keyRegistrations = this.registrations.getOrDefault(key, new ArrayList<>());
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				Object eventContext = event.context();
+
+				for (Registration registration : keyRegistrations) {
+					if (event.kind() != StandardWatchEventKinds.OVERFLOW && eventContext instanceof Path) {
+						registration.fileChanged((Path) eventContext);
+					} else {
+						registration.directoryChanged(true);
+					}
+				}
+			}
+			keyRegistrations.removeIf(Registration::isCollected);
+			if (!key.reset() || keyRegistrations.isEmpty()) {
+				key.cancel();
+				for (Registration registration : keyRegistrations) {
+					registration.directoryChanged(false);
+				}
+				this.registrations.remove(key);
+			}
+		}
+	}
+
+	private void pruneRegistrations() {
+		// Drop registrations of collected listeners for directories without any events
+		Iterator<Map.Entry<WatchKey, List<Registration>>> registrationsIterator = this.registrations.entrySet()
+				.iterator();
+
+		while (registrationsIterator.hasNext()) {
+			Map.Entry<WatchKey, List<Registration>> registrationsEntry = registrationsIterator.next();
+			List<Registration> keyRegistrations = registrationsEntry.getValue();
+
+			if (keyRegistrations.removeIf(Registration::isCollected) && keyRegistrations.isEmpty()) {
+				registrationsEntry.getKey().cancel();
+				registrationsIterator.remove();
+			}
+		}
+	}
+
+	private static class Registration {
+
+		private final Path directory;
+
+		private final WeakReference<Listener> listenerReference;
+
+		Registration(Path directory, Listener listener) {
+			this.directory = directory;
+			this.listenerReference = new WeakReference<>(listener);
+		}
+
+		boolean isCollected() {
+			return this.listenerReference.get() == null;
+		}
+
+		void fileChanged(Path fileName) {
+			Listener listener = this.listenerReference.get();
+
+			if (listener != null) {
+				listener.fileChanged(this.directory.resolve(fileName));
+			}
+		}
+
+		void directoryChanged(boolean valid) {
+			Listener listener = this.listenerReference.get();
+
+			if (listener != null) {
+				listener.directoryChanged(this.directory, valid);
+			}
+		}
+
+	}
+
+}
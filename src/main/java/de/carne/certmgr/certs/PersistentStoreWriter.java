@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+
+/**
+ * Background writer used by {@link PersistentUserCertStoreHandler} to perform batched store mutations.
+ * <p>
+ * File operations are executed in submission order by a single background thread. Files are written to a temporary
+ * file first, forced to disk and then renamed to their final name. As this happens on the background thread, the
+ * caller does not wait for the individual syncs. The directories touched during a batch (and hence the renames) are
+ * synced once when the batch is committed.
+ */
+final class PersistentStoreWriter {
+
+	private static final Log LOG = new Log();
+
+	private static final String TEMP_FILE_PREFIX = ".";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private final ExecutorService executor;
+
+	private final Map<Path, Future<Void>> pendingOperations = new HashMap<>();
+
+	private final Set<Path> touchedDirectories = new HashSet<>();
+
+	PersistentStoreWriter(String name) {
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, name);
+
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Submit a file write.
+	 *
+	 * @param file The file to write.
+	 * @param data The data to write.
+	 */
+	synchronized void write(Path file, byte[] data) {
+		this.touchedDirectories.add(file.getParent());
+		this.pendingOperations.put(file, this.executor.submit(() -> {
+			writeFile(file, data);
+			return null;
+		}));
+	}
+
+	/**
+	 * Submit a file deletion.
+	 *
+	 * @param file The file to delete.
+	 */
+	synchronized void delete(Path file) {
+		this.touchedDirectories.add(file.getParent());
+		this.pendingOperations.put(file, this.executor.submit(() -> {
+			Files.deleteIfExists(file);
+			return null;
+		}));
+	}
+
+	/**
+	 * Wait for the pending operations on a specific file to complete.
+	 *
+	 * @param file The file to wait for.
+	 * @throws IOException if the pending operation failed.
+	 */
+	void await(Path file) throws IOException {
+		Future<Void> pendingOperation;
+
+		synchronized (this) {
+			pendingOperation = this.pendingOperations.get(file);
+		}
+		if (pendingOperation != null) {
+			awaitOperation(pendingOperation);
+		}
+	}
+
+	/**
+	 * Wait for all pending operations to complete.
+	 *
+	 * @throws IOException if any of the pending operations failed.
+	 */
+	void flush() throws IOException {
+		List<Map.Entry<Path, Future<Void>>> pendingOperationsSnapshot;
+
+		synchronized (this) {
+			pendingOperationsSnapshot = new ArrayList<>(this.pendingOperations.entrySet());
+		}
+
+		IOException flushException = null;
+
+		for (Map.Entry<Path, Future<Void>> pendingOperation : pendingOperationsSnapshot) {
+			try {
+				awaitOperation(pendingOperation.getValue());
+			} catch (IOException e) {
+				if (flushException == null) {
+					flushException = e;
+				} else {
+					flushException.addSuppressed(e);
+				}
+			}
+			synchronized (this) {
+				this.pendingOperations.remove(pendingOperation.getKey(), pendingOperation.getValue());
+			}
+		}
+		if (flushException != null) {
+			throw flushException;
+		}
+	}
+
+	/**
+	 * Wait for all pending operations to complete, sync all touched directories and stop the background thread.
+	 *
+	 * @throws IOException if any of the pending operations failed.
+	 */
+	void commit() throws IOException {
+		try {
+			flush();
+		} finally {
+			this.executor.shutdown();
+		}
+
+		Set<Path> touchedDirectoriesSnapshot;
+
+		synchronized (this) {
+			touchedDirectoriesSnapshot = new HashSet<>(this.touchedDirectories);
+			this.touchedDirectories.clear();
+		}
+		for (Path directory : touchedDirectoriesSnapshot) {
+			syncDirectory(directory);
+		}
+	}
+
+	private static void awaitOperation(Future<Void> operation) throws IOException {
+		try {
+			operation.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw Exceptions.toRuntime(cause != null ? cause : e);
+		}
+	}
+
+	private static void writeFile(Path file, byte[] data) throws IOException {
+		Path tempFile = file.resolveSibling(TEMP_FILE_PREFIX + file.getFileName() + TEMP_FILE_SUFFIX);
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			// Otherwise the rename may become durable before the data does
+			channel.force(false);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Sync a directory, making the file creations, renames and deletions within it durable.
+	 * <p>
+	 * Platforms not supporting directory syncs are tolerated.
+	 *
+	 * @param directory The directory to sync.
+	 */
+	static void syncDirectory(Path directory) {
+		// Not all platforms support syncing directories (e.g. Windows); the renames are still atomic there
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			LOG.info(e, "Unable to sync directory ''{0}''", directory);
+		}
+	}
+
+}
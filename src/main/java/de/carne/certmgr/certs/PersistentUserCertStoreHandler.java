@@ -16,33 +16,57 @@
  */
 package de.carne.certmgr.certs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.lang.ref.SoftReference;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
+import java.security.MessageDigest;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.prefs.BackingStoreException;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import de.carne.boot.Exceptions;
 import de.carne.boot.logging.Log;
 import de.carne.certmgr.certs.io.IOResource;
+import de.carne.certmgr.certs.io.DERCertReaderWriter;
 import de.carne.certmgr.certs.io.PEMCertReaderWriter;
 import de.carne.certmgr.certs.x509.PKCS10CertificateRequest;
+import de.carne.certmgr.util.PropertiesHelper;
 import de.carne.nio.file.attribute.FileAttributes;
 
 /**
@@ -59,30 +83,105 @@ import de.carne.nio.file.attribute.FileAttributes;
  * </pre>
  *
  * A certificate object's file names are determined based upon the corresponding entry id's alias attributes.
+ * <p>
+ * For very large stores a sharded layout can be selected via the store preferences (see
+ * {@link UserCertStorePreferences#shardedLayout}). In this layout every file is placed in a sub-directory of the
+ * directories above. The sub-directory is named after a two digit hash of the file's alias (e.g.
+ * {@code ./certs/3f/*.crt}). Stores in either layout are always scanned for both layouts' files. Existing stores are
+ * migrated via {@link #convertLayout(Path, boolean)}.
+ * <p>
+ * Certificate objects are stored PEM encoded by default. Alternatively they can be stored as raw DER data (see
+ * {@link UserCertStorePreferences#storageFormat}), in which case the {@code .der} extension is used for all file
+ * types. Files of both formats are always recognized and decoded according to their extension. Existing stores are
+ * converted via {@link #convertFormat(Path, UserCertStoreFormat, PasswordCallback)}.
+ * <p>
+ * While scanning a store the certificate object files are decoded in parallel. The number of worker threads used for
+ * this is defined by the system property {@code de.carne.certmgr.certs.scanThreads} (default: number of available
+ * processors).
+ * <p>
+ * Decoded certificate objects are cached (see {@link CertObjectCache}). If supported by the underlying file system,
+ * the store directories are watched for changes and cached objects are only re-checked after a change has been
+ * reported. Otherwise the file's last modified time is checked on every access. The same change events are used to
+ * reload externally modified entries (see {@link UserCertStore#processChanges()}). Events caused by the handler's own
+ * writes are suppressed as long as the affected file is still in the state the handler left it in.
+ * <p>
+ * Within a batch (see {@link #beginBatch()}) the certificate object files are written in the background by a
+ * {@link PersistentStoreWriter}. Until the batch is committed, accessing a certificate object waits for its pending
+ * write to complete.
  */
 class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 
 	private static final Log LOG = new Log();
 
-	private static final Pattern INDEXED_ALIAS_PATTERN = Pattern.compile("(.*)\\d+$");
-	private static final String INDEXED_ALIAS_FORMAT = "%s%d";
+	private static final int SCAN_THREADS = PropertiesHelper.getInt(PersistentUserCertStoreHandler.class,
+			".scanThreads", Runtime.getRuntime().availableProcessors());
 
 	static final String DIR_CRT = "certs";
 	static final String DIR_KEY = "private";
 	static final String DIR_CSR = "csr";
 	static final String DIR_CRL = "crl";
 
+	private static final String[] STORE_DIRS = new String[] { DIR_CRT, DIR_KEY, DIR_CSR, DIR_CRL };
+
 	static final String EXTENSION_CRT = ".crt";
 	static final String EXTENSION_KEY = ".key";
 	static final String EXTENSION_CSR = ".csr";
 	static final String EXTENSION_CRL = ".crl";
 
+	private static final String[] STORE_EXTENSIONS = new String[] { EXTENSION_CRT, EXTENSION_KEY, EXTENSION_CSR,
+			EXTENSION_CRL };
+
+	static final String EXTENSION_DER = ".der";
+
+	private static final int SHARD_NAME_LENGTH = 2;
+
+	private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+	private static final byte[] DELETED_DIGEST = new byte[0];
+
 	private int nextId = 1;
 
 	private final Path storeHome;
 
+	private final boolean sharded;
+
+	private final boolean derFormat;
+
+	private final StoreAliasRegistry aliasRegistry = new StoreAliasRegistry();
+
+	private final AtomicInteger decodedObjectCount = new AtomicInteger();
+
+	private final CertObjectCache objectCache = new CertObjectCache();
+
+	@Nullable
+	private final PersistentStoreWatcher watcher;
+
+	private final PersistentStoreWatcher.Listener watchListener = new WatchListener();
+
+	private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+	private final Set<Path> changedFiles = ConcurrentHashMap.newKeySet();
+
+	// Digests of the files written (or deleted) by this handler; used to suppress the resulting watch events
+	private final Map<Path, byte[]> ownChanges = new ConcurrentHashMap<>();
+
+	private final AtomicLong watchEpoch = new AtomicLong();
+
+	private final Set<Path> pendingChangedFiles = new HashSet<>();
+
+	private boolean pendingRescan = false;
+
+	@Nullable
+	private volatile PersistentStoreWriter writer = null;
+
 	PersistentUserCertStoreHandler(Path storeHome) {
 		this.storeHome = storeHome;
+		UserCertStorePreferences preferences = new UserCertStorePreferences(storeHome);
+
+		this.sharded = preferences.shardedLayout.getBoolean(false);
+		this.derFormat = UserCertStoreFormat.DER.name()
+				.equals(preferences.storageFormat.get(UserCertStoreFormat.PEM.name()));
+		this.watcher = PersistentStoreWatcher.getInstance(storeHome.getFileSystem());
 	}
 
 	@Override
@@ -90,90 +189,280 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 		return this.storeHome;
 	}
 
+	@Override
+	public int decodedObjectCount() {
+		return this.decodedObjectCount.get();
+	}
+
+	@Override
+	public CertObjectCacheStatistics cacheStatistics() {
+		return this.objectCache.statistics();
+	}
+
 	public Map<UserCertStoreEntryId, PersistentEntry> scanStore() throws IOException {
-		PersistentEntryPathsScanner scanner = new PersistentEntryPathsScanner(LOG);
+		PersistentStoreIndex index = PersistentStoreIndex.load(storeHome());
+		PersistentEntryPathsScanner scanner = new PersistentEntryPathsScanner(LOG, index);
 
+		// Start watching prior to scanning to make sure no change gets lost
+		watchDirectory(storeHome());
+		for (String dir : STORE_DIRS) {
+			watchDirectory(storeHome().resolve(dir));
+		}
 		Files.walkFileTree(storeHome(), scanner);
-		return scanner.getResult();
+		loadInfos(scanner.getPendingInfoLoads());
+		try {
+			index.save();
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to save store index for store ''{0}''", storeHome());
+		}
+
+		Map<UserCertStoreEntryId, PersistentEntry> result = scanner.getResult();
+
+		this.aliasRegistry.clear();
+		for (UserCertStoreEntryId id : result.keySet()) {
+			this.aliasRegistry.register(Objects.requireNonNull(id.getAlias()));
+		}
+		return result;
 	}
 
-	@Override
-	public UserCertStoreEntryId nextEntryId(@Nullable String aliasHint) {
-		String alias = null;
+	private void loadInfos(List<Callable<Void>> infoLoads) throws IOException {
+		int threadCount = Math.min(SCAN_THREADS, infoLoads.size());
+
+		if (threadCount > 1) {
+			LOG.debug("Decoding {0} store file(s) using {1} thread(s)...", infoLoads.size(), threadCount);
+
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+			try {
+				for (Future<Void> infoLoad : executor.invokeAll(infoLoads)) {
+					infoLoad.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw Exceptions.toRuntime(cause != null ? cause : e);
+			} finally {
+				executor.shutdownNow();
+			}
+		} else {
+			for (Callable<Void> infoLoad : infoLoads) {
+				try {
+					infoLoad.call();
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw Exceptions.toRuntime(e);
+				}
+			}
+		}
+	}
 
-		if (aliasHint != null) {
-			if (!isAliasInUse(aliasHint)) {
-				alias = aliasHint;
+	@Override
+	public Set<UserCertStoreEntryId> pollChangedEntryIds(Collection<UserCertStoreEntryId> knownIds)
+			throws IOException {
+		PersistentStoreWatcher checkedWatcher = this.watcher;
+		Set<UserCertStoreEntryId> changedIds = new HashSet<>();
+
+		if (checkedWatcher != null) {
+			// Make sure the files of the current batch are in place before looking at them
+			flushBatch();
+			checkedWatcher.poll();
+
+			Set<Path> changedFilesSnapshot;
+			boolean rescan;
+
+			synchronized (this.pendingChangedFiles) {
+				changedFilesSnapshot = new HashSet<>(this.pendingChangedFiles);
+				rescan = this.pendingRescan;
+				this.pendingChangedFiles.clear();
+				this.pendingRescan = false;
+			}
+			if (rescan) {
+				// Changes have been lost; consider all known as well as all existing entries as changed
+				changedIds.addAll(knownIds);
+				for (String dir : STORE_DIRS) {
+					Path dirPath = storeHome().resolve(dir);
+
+					watchDirectory(dirPath);
+					changedFilesSnapshot.addAll(listEntryFiles(dirPath));
+				}
 			} else {
-				Matcher indexedAliasMatcher = INDEXED_ALIAS_PATTERN.matcher(aliasHint);
-				String indexedAliasBase = (indexedAliasMatcher.matches() ? indexedAliasMatcher.group(1) : aliasHint);
-				int aliasIndex = 1;
+				// Start watching newly created store and shard directories and pick up the files created in the
+				// meantime
+				for (String dir : STORE_DIRS) {
+					Path dirPath = storeHome().resolve(dir);
+
+					if (changedFilesSnapshot.contains(dirPath) && !this.watchedDirectories.contains(dirPath)) {
+						watchDirectory(dirPath);
+						changedFilesSnapshot.addAll(listEntryFiles(dirPath));
+					}
+				}
+				for (Path changedFile : new ArrayList<>(changedFilesSnapshot)) {
+					if (isShardDirectory(changedFile) && !this.watchedDirectories.contains(changedFile)) {
+						watchDirectory(changedFile);
+						changedFilesSnapshot.addAll(listDirectory(changedFile));
+					}
+				}
+			}
 
-				while (true) {
-					alias = String.format(INDEXED_ALIAS_FORMAT, indexedAliasBase, aliasIndex);
-					if (!isAliasInUse(alias)) {
+			PathMatcher[] entryMatchers = new PathMatcher[] { entryMatcher(DIR_CRT, EXTENSION_CRT),
+					entryMatcher(DIR_KEY, EXTENSION_KEY), entryMatcher(DIR_CSR, EXTENSION_CSR),
+					entryMatcher(DIR_CRL, EXTENSION_CRL) };
+
+			for (Path changedFile : changedFilesSnapshot) {
+				for (PathMatcher entryMatcher : entryMatchers) {
+					if (entryMatcher.matches(changedFile)) {
+						changedIds.add(pathId(changedFile));
 						break;
 					}
-					aliasIndex++;
 				}
 			}
 		}
-		return (alias != null ? new UserCertStoreEntryId(0, alias) : new UserCertStoreEntryId(this.nextId++, null));
+		return changedIds;
+	}
+
+	@Override
+	@Nullable
+	public PersistentEntry reloadEntry(UserCertStoreEntryId id) throws IOException {
+		String alias = Objects.requireNonNull(id.getAlias());
+		PersistentCRTEntry crtHolder = null;
+		PersistentKeyEntry keyHolder = null;
+		PersistentCSREntry csrHolder = null;
+		PersistentCRLEntry crlHolder = null;
+
+		Path crtPath = findEntryPath(DIR_CRT, alias, EXTENSION_CRT);
+
+		if (crtPath != null) {
+			crtHolder = new PersistentCRTEntry(id, crtPath);
+			crtHolder.info();
+		}
+		Path keyPath = findEntryPath(DIR_KEY, alias, EXTENSION_KEY);
+
+		if (keyPath != null) {
+			keyHolder = new PersistentKeyEntry(id, keyPath);
+		}
+		Path csrPath = findEntryPath(DIR_CSR, alias, EXTENSION_CSR);
+
+		if (csrPath != null) {
+			csrHolder = new PersistentCSREntry(id, csrPath);
+			csrHolder.info();
+		}
+		Path crlPath = findEntryPath(DIR_CRL, alias, EXTENSION_CRL);
+
+		if (crlPath != null) {
+			crlHolder = new PersistentCRLEntry(id, crlPath);
+			crlHolder.info();
+		}
+
+		PersistentEntry entry = null;
+
+		if (crtHolder != null || keyHolder != null || csrHolder != null || crlHolder != null) {
+			entry = new PersistentEntry(null, crtHolder, keyHolder, csrHolder, crlHolder);
+			this.aliasRegistry.register(alias);
+		} else {
+			this.aliasRegistry.unregister(alias);
+		}
+		return entry;
+	}
+
+	private List<Path> listEntryFiles(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		for (Path file : listDirectory(directory)) {
+			if (isShardDirectory(file)) {
+				watchDirectory(file);
+				files.addAll(listDirectory(file));
+			} else {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private static List<Path> listDirectory(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+				for (Path file : directoryStream) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	@Override
+	public UserCertStoreEntryId nextEntryId(@Nullable String aliasHint) {
+		return (aliasHint != null ? new UserCertStoreEntryId(0, this.aliasRegistry.nextAlias(aliasHint))
+				: new UserCertStoreEntryId(this.nextId++, null));
 	}
 
 	@Override
 	public CertObjectHolder<X509Certificate> createCRT(UserCertStoreEntryId id, X509Certificate crt)
 			throws IOException {
 		String alias = Objects.requireNonNull(id.getAlias());
-		Path crtPath = entryPath(DIR_CRT, alias, EXTENSION_CRT);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
 
-		Files.createDirectories(crtPath.getParent(), FileAttributes.userDirectoryDefault(storeHome()));
-		try (IOResource<OutputStream> out = IOResource.newOutputStream(alias, crtPath, StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING)) {
-			PEMCertReaderWriter.writeCRTBinary(out, crt);
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			writeCRT(out, crt, this.derFormat);
 		}
-		return new PersistentCRTEntry(id, crt, Files.getLastModifiedTime(crtPath));
+
+		FileTime crtFileTime = writeEntryFile(entryPath(DIR_CRT, alias, EXTENSION_CRT), data.toByteArray());
+
+		this.aliasRegistry.register(alias);
+		return new PersistentCRTEntry(id, crt, crtFileTime, data.size());
 	}
 
 	@Override
 	public SecureCertObjectHolder<KeyPair> createKey(UserCertStoreEntryId id, KeyPair key, PasswordCallback newPassword)
 			throws IOException {
 		String alias = Objects.requireNonNull(id.getAlias());
-		Path keyPath = entryPath(DIR_KEY, alias, EXTENSION_KEY);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
 
-		Files.createDirectories(keyPath.getParent(), FileAttributes.userDirectoryDefault(storeHome()));
-		try (IOResource<OutputStream> out = IOResource.newOutputStream(alias, keyPath, StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING)) {
-			PEMCertReaderWriter.writeKeyBinary(out, key, newPassword);
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			writeKey(out, key, newPassword, this.derFormat);
 		}
-		return new PersistentKeyEntry(id);
+		writeEntryFile(entryPath(DIR_KEY, alias, EXTENSION_KEY), data.toByteArray());
+		this.aliasRegistry.register(alias);
+		return new PersistentKeyEntry(id, entryPath(DIR_KEY, alias, EXTENSION_KEY));
 	}
 
 	@Override
 	public CertObjectHolder<PKCS10CertificateRequest> createCSR(UserCertStoreEntryId id, PKCS10CertificateRequest csr)
 			throws IOException {
 		String alias = Objects.requireNonNull(id.getAlias());
-		Path csrPath = entryPath(DIR_CSR, alias, EXTENSION_CSR);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
 
-		Files.createDirectories(csrPath.getParent(), FileAttributes.userDirectoryDefault(storeHome()));
-		try (IOResource<OutputStream> out = IOResource.newOutputStream(alias, csrPath, StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING)) {
-			PEMCertReaderWriter.writeCSRBinary(out, csr);
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			writeCSR(out, csr, this.derFormat);
 		}
-		return new PersistentCSREntry(id, csr, Files.getLastModifiedTime(csrPath));
+
+		FileTime csrFileTime = writeEntryFile(entryPath(DIR_CSR, alias, EXTENSION_CSR), data.toByteArray());
+
+		this.aliasRegistry.register(alias);
+		return new PersistentCSREntry(id, csr, csrFileTime, data.size());
 	}
 
 	@Override
 	public CertObjectHolder<X509CRL> createCRL(UserCertStoreEntryId id, X509CRL crl) throws IOException {
 		String alias = Objects.requireNonNull(id.getAlias());
-		Path crlPath = entryPath(DIR_CRL, alias, EXTENSION_CRL);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
 
-		Files.createDirectories(crlPath.getParent(), FileAttributes.userDirectoryDefault(storeHome()));
-		try (IOResource<OutputStream> out = IOResource.newOutputStream(alias, crlPath, StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING)) {
-			PEMCertReaderWriter.writeCRLBinary(out, crl);
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			writeCRL(out, crl, this.derFormat);
 		}
-		return new PersistentCRLEntry(id, crl, Files.getLastModifiedTime(crlPath));
+
+		FileTime crlFileTime = writeEntryFile(entryPath(DIR_CRL, alias, EXTENSION_CRL), data.toByteArray());
+
+		this.aliasRegistry.register(alias);
+		return new PersistentCRLEntry(id, crl, crlFileTime, data.size());
 	}
 
 	@Override
@@ -181,53 +470,442 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 		String alias = id.getAlias();
 
 		if (alias != null) {
-			Files.deleteIfExists(entryPath(DIR_CRT, alias, EXTENSION_CRT));
-			Files.deleteIfExists(entryPath(DIR_KEY, alias, EXTENSION_KEY));
-			Files.deleteIfExists(entryPath(DIR_CSR, alias, EXTENSION_CSR));
-			Files.deleteIfExists(entryPath(DIR_CRL, alias, EXTENSION_CRL));
+			PersistentStoreWriter checkedWriter = this.writer;
+			List<Path> entryPaths = new ArrayList<>();
+
+			// Delete the files of both layouts and both formats
+			for (int storeDirIndex = 0; storeDirIndex < STORE_DIRS.length; storeDirIndex++) {
+				for (String extension : new String[] { STORE_EXTENSIONS[storeDirIndex], EXTENSION_DER }) {
+					entryPaths.add(entryPath(storeHome(), false, STORE_DIRS[storeDirIndex], alias, extension));
+					entryPaths.add(entryPath(storeHome(), true, STORE_DIRS[storeDirIndex], alias, extension));
+				}
+			}
+			for (Path entryPath : entryPaths) {
+				if (Files.exists(entryPath)) {
+					this.ownChanges.put(entryPath, DELETED_DIGEST);
+				}
+				if (checkedWriter != null) {
+					checkedWriter.delete(entryPath);
+				} else {
+					Files.deleteIfExists(entryPath);
+				}
+			}
+			this.aliasRegistry.unregister(alias);
 		}
 	}
 
-	private boolean isAliasInUse(String alias) {
-		return Files.exists(entryPath(DIR_CRT, alias, EXTENSION_CRT))
-				|| Files.exists(entryPath(DIR_KEY, alias, EXTENSION_KEY))
-				|| Files.exists(entryPath(DIR_CSR, alias, EXTENSION_CSR))
-				|| Files.exists(entryPath(DIR_CRL, alias, EXTENSION_CRL));
+	@Override
+	public synchronized void beginBatch() {
+		if (this.writer == null) {
+			this.writer = new PersistentStoreWriter(getClass().getSimpleName() + ":" + storeHome().getFileName());
+		}
+	}
+
+	@Override
+	public void flushBatch() throws IOException {
+		PersistentStoreWriter checkedWriter = this.writer;
+
+		if (checkedWriter != null) {
+			checkedWriter.flush();
+		}
+	}
+
+	@Override
+	public synchronized void commitBatch() throws IOException {
+		PersistentStoreWriter checkedWriter = this.writer;
+
+		if (checkedWriter != null) {
+			try {
+				checkedWriter.commit();
+			} finally {
+				this.writer = null;
+			}
+		}
+	}
+
+	@Nullable
+	private FileTime writeEntryFile(Path path, byte[] data) throws IOException {
+		Path directory = path.getParent();
+
+		Files.createDirectories(directory, FileAttributes.userDirectoryDefault(storeHome()));
+		watchDirectory(directory);
+
+		PersistentStoreWriter checkedWriter = this.writer;
+		FileTime fileTime = null;
+
+		this.ownChanges.put(path, contentDigest(data));
+		if (checkedWriter != null) {
+			checkedWriter.write(path, data);
+		} else {
+			Files.write(path, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			fileTime = Files.getLastModifiedTime(path);
+		}
+		return fileTime;
+	}
+
+	BasicFileAttributes readAttributes(Path path) throws IOException {
+		awaitPendingWrite(path);
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+
+	void awaitPendingWrite(Path path) throws IOException {
+		PersistentStoreWriter checkedWriter = this.writer;
+
+		if (checkedWriter != null) {
+			checkedWriter.await(path);
+		}
+	}
+
+	private void watchDirectory(Path directory) {
+		PersistentStoreWatcher checkedWatcher = this.watcher;
+
+		if (checkedWatcher != null && !this.watchedDirectories.contains(directory) && Files.isDirectory(directory)
+				&& checkedWatcher.register(directory, this.watchListener)) {
+			this.watchedDirectories.add(directory);
+		}
+	}
+
+	private boolean isOwnChange(Path file) {
+		byte[] ownChangeDigest = this.ownChanges.get(file);
+		boolean ownChange = false;
+
+		if (ownChangeDigest != null) {
+			try {
+				if (ownChangeDigest == DELETED_DIGEST) {
+					ownChange = !Files.exists(file);
+				} else if (Files.isRegularFile(file)) {
+					ownChange = Arrays.equals(ownChangeDigest, contentDigest(Files.readAllBytes(file)));
+				}
+			} catch (IOException e) {
+				Exceptions.ignore(e);
+			}
+			// Once the file deviates from the state we left it in, any further change is an external one
+			if (!ownChange) {
+				this.ownChanges.remove(file, ownChangeDigest);
+			}
+		}
+		return ownChange;
+	}
+
+	private static byte[] contentDigest(byte[] data) {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support SHA-256
+			throw Exceptions.toRuntime(e);
+		}
+		return digest.digest(data);
+	}
+
+	long watchEpoch() {
+		return this.watchEpoch.get();
+	}
+
+	boolean isFileChanged(Path file, long epoch) {
+		PersistentStoreWatcher checkedWatcher = this.watcher;
+		boolean changed = true;
+
+		if (checkedWatcher != null) {
+			checkedWatcher.poll();
+
+			boolean fileChanged = this.changedFiles.remove(file);
+
+			changed = fileChanged || this.watchEpoch.get() != epoch
+					|| !this.watchedDirectories.contains(file.getParent());
+		}
+		return changed;
 	}
 
 	PathMatcher entryMatcher(String dir, String ext) {
-		return storeHome().getFileSystem().getPathMatcher("glob:**/" + dir + "/*" + ext);
+		FileSystem fileSystem = storeHome().getFileSystem();
+		String extGlob = "{" + ext + "," + EXTENSION_DER + "}";
+		PathMatcher flatMatcher = fileSystem.getPathMatcher("glob:**/" + dir + "/*" + extGlob);
+		PathMatcher shardedMatcher = fileSystem.getPathMatcher("glob:**/" + dir + "/??/*" + extGlob);
+
+		return path -> flatMatcher.matches(path) || shardedMatcher.matches(path);
 	}
 
 	Path entryPath(String dir, String alias, String ext) {
-		return storeHome().resolve(dir).resolve(alias + ext);
+		return entryPath(storeHome(), this.sharded, dir, alias, (this.derFormat ? EXTENSION_DER : ext));
 	}
 
-	UserCertStoreEntryId pathId(Path path) {
-		String fileName = path.getFileName().toString();
-		int extIndex = fileName.lastIndexOf('.');
+	@Nullable
+	private Path findEntryPath(String dir, String alias, String ext) {
+		String storeExt = (this.derFormat ? EXTENSION_DER : ext);
+		String alternateExt = (this.derFormat ? ext : EXTENSION_DER);
+		Path[] candidatePaths = new Path[] { entryPath(storeHome(), this.sharded, dir, alias, storeExt),
+				entryPath(storeHome(), !this.sharded, dir, alias, storeExt),
+				entryPath(storeHome(), this.sharded, dir, alias, alternateExt),
+				entryPath(storeHome(), !this.sharded, dir, alias, alternateExt) };
+		Path path = null;
+
+		for (Path candidatePath : candidatePaths) {
+			if (Files.exists(candidatePath)) {
+				path = candidatePath;
+				break;
+			}
+		}
+		return path;
+	}
 
-		return new UserCertStoreEntryId(0, (extIndex > 0 ? fileName.substring(0, extIndex) : fileName));
+	private static Path entryPath(Path storeHome, boolean sharded, String dir, String alias, String ext) {
+		Path dirPath = storeHome.resolve(dir);
+
+		return (sharded ? dirPath.resolve(shardName(alias)) : dirPath).resolve(alias + ext);
 	}
 
-	@Nullable
-	CertObjectHolder<X509Certificate> toCRT(UserCertStoreEntryId id, @Nullable Path crtPath) {
-		return (crtPath != null ? new PersistentCRTEntry(id) : null);
+	private static String shardName(String alias) {
+		// Aliases are case insensitive; make sure all variants end up in the same shard
+		return String.format("%02x", alias.toLowerCase(Locale.ROOT).hashCode() & 0xff);
 	}
 
-	@Nullable
-	SecureCertObjectHolder<KeyPair> toKey(UserCertStoreEntryId id, @Nullable Path keyPath) {
-		return (keyPath != null ? new PersistentKeyEntry(id) : null);
+	private boolean isShardDirectory(Path path) {
+		Path parent = path.getParent();
+
+		return parent != null && storeHome().equals(parent.getParent())
+				&& Arrays.asList(STORE_DIRS).contains(parent.getFileName().toString())
+				&& path.getFileName().toString().length() == SHARD_NAME_LENGTH && Files.isDirectory(path);
 	}
 
-	@Nullable
-	CertObjectHolder<PKCS10CertificateRequest> toCSR(UserCertStoreEntryId id, @Nullable Path csrPath) {
-		return (csrPath != null ? new PersistentCSREntry(id) : null);
+	/**
+	 * Collect all entry files of a specific type directory (regardless of whether they are stored in the flat or in the
+	 * sharded layout).
+	 *
+	 * @param typeDirectory The type directory to collect the files from.
+	 * @param extensions The file extensions of the files to collect.
+	 * @return The collected files.
+	 * @throws IOException if an I/O error occurs while listing the directory.
+	 */
+	static List<Path> collectEntryFiles(Path typeDirectory, String... extensions) throws IOException {
+		List<Path> entryFiles = new ArrayList<>();
+
+		for (Path file : listDirectory(typeDirectory)) {
+			if (Files.isDirectory(file)) {
+				if (file.getFileName().toString().length() == SHARD_NAME_LENGTH) {
+					for (Path shardFile : listDirectory(file)) {
+						if (hasExtension(shardFile, extensions) && !Files.isDirectory(shardFile)) {
+							entryFiles.add(shardFile);
+						}
+					}
+				}
+			} else if (hasExtension(file, extensions)) {
+				entryFiles.add(file);
+			}
+		}
+		return entryFiles;
 	}
 
-	@Nullable
-	CertObjectHolder<X509CRL> toCRL(UserCertStoreEntryId id, @Nullable Path crlPath) {
-		return (crlPath != null ? new PersistentCRLEntry(id) : null);
+	private static boolean hasExtension(Path file, String... extensions) {
+		String fileName = file.getFileName().toString();
+		boolean hasExtension = false;
+
+		for (String extension : extensions) {
+			if (fileName.endsWith(extension)) {
+				hasExtension = true;
+				break;
+			}
+		}
+		return hasExtension;
+	}
+
+	/**
+	 * Delete all empty shard directories of a specific type directory.
+	 *
+	 * @param typeDirectory The type directory to clean up.
+	 * @throws IOException if an I/O error occurs while listing the directory.
+	 */
+	static void deleteEmptyShardDirectories(Path typeDirectory) throws IOException {
+		for (Path file : listDirectory(typeDirectory)) {
+			if (Files.isDirectory(file) && file.getFileName().toString().length() == SHARD_NAME_LENGTH) {
+				try {
+					Files.delete(file);
+				} catch (DirectoryNotEmptyException e) {
+					Exceptions.ignore(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Convert a store home between the flat and the sharded directory layout.
+	 * <p>
+	 * The files are moved one by one. As stores are always scanned for both layouts, an interrupted conversion leaves
+	 * the store accessible and can simply be repeated. The store must not be opened while it is converted.
+	 *
+	 * @param storeHome The store home to convert.
+	 * @param sharded Whether to convert to the sharded layout ({@code true}) or to the flat layout ({@code false}).
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	static void convertLayout(Path storeHome, boolean sharded) throws IOException {
+		int movedFileCount = 0;
+
+		for (int storeDirIndex = 0; storeDirIndex < STORE_DIRS.length; storeDirIndex++) {
+			String dir = STORE_DIRS[storeDirIndex];
+			String extension = STORE_EXTENSIONS[storeDirIndex];
+			Path typeDirectory = storeHome.resolve(dir);
+
+			for (Path file : collectEntryFiles(typeDirectory, extension, EXTENSION_DER)) {
+				String fileName = file.getFileName().toString();
+				int extensionIndex = fileName.lastIndexOf('.');
+				Path targetFile = entryPath(storeHome, sharded, dir, fileName.substring(0, extensionIndex),
+						fileName.substring(extensionIndex));
+
+				if (!targetFile.equals(file)) {
+					Files.createDirectories(targetFile.getParent(), FileAttributes.userDirectoryDefault(storeHome));
+					Files.move(file, targetFile, StandardCopyOption.ATOMIC_MOVE);
+					movedFileCount++;
+				}
+			}
+			if (!sharded) {
+				deleteEmptyShardDirectories(typeDirectory);
+			}
+		}
+
+		UserCertStorePreferences preferences = new UserCertStorePreferences(storeHome);
+
+		preferences.shardedLayout.putBoolean(sharded);
+		try {
+			preferences.sync();
+		} catch (BackingStoreException e) {
+			throw new IOException("Failed to store layout preference for store: " + storeHome, e);
+		}
+		LOG.info("Converted store ''{0}'' to {1} layout ({2} file(s) moved)", storeHome, (sharded ? "sharded" : "flat"),
+				movedFileCount);
+	}
+
+	/**
+	 * Convert a store home between the PEM and the DER storage format.
+	 * <p>
+	 * Every file is re-encoded and written next to its original before the original is deleted. As stores are always
+	 * scanned for both formats, an interrupted conversion leaves the store accessible and can simply be repeated. Keys
+	 * are re-encrypted using the password they have been decrypted with. The store must not be opened while it is
+	 * converted.
+	 *
+	 * @param storeHome The store home to convert.
+	 * @param format The storage format to convert to.
+	 * @param password The callback to use for querying the key passwords.
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	static void convertFormat(Path storeHome, UserCertStoreFormat format, PasswordCallback password)
+			throws IOException {
+		boolean der = format == UserCertStoreFormat.DER;
+		int convertedFileCount = 0;
+
+		for (int storeDirIndex = 0; storeDirIndex < STORE_DIRS.length; storeDirIndex++) {
+			String dir = STORE_DIRS[storeDirIndex];
+			String extension = STORE_EXTENSIONS[storeDirIndex];
+			String sourceExtension = (der ? extension : EXTENSION_DER);
+			String targetExtension = (der ? EXTENSION_DER : extension);
+
+			for (Path file : collectEntryFiles(storeHome.resolve(dir), sourceExtension)) {
+				String fileName = file.getFileName().toString();
+				String alias = fileName.substring(0, fileName.length() - sourceExtension.length());
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+				try (IOResource<InputStream> in = IOResource.newInputStream(alias, file, StandardOpenOption.READ);
+						IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+					switch (dir) {
+					case DIR_CRT:
+						writeCRT(out, readCRT(in, !der), der);
+						break;
+					case DIR_KEY:
+						RecordingPassword recordingPassword = new RecordingPassword(password);
+
+						writeKey(out, readKey(in, recordingPassword, !der), recordingPassword.recordedPassword(), der);
+						break;
+					case DIR_CSR:
+						writeCSR(out, readCSR(in, !der), der);
+						break;
+					case DIR_CRL:
+						writeCRL(out, readCRL(in, !der), der);
+						break;
+					default:
+						throw new IllegalStateException();
+					}
+				}
+				Files.write(file.resolveSibling(alias + targetExtension), data.toByteArray(),
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				Files.delete(file);
+				convertedFileCount++;
+			}
+		}
+
+		UserCertStorePreferences preferences = new UserCertStorePreferences(storeHome);
+
+		preferences.storageFormat.put(format.name());
+		try {
+			preferences.sync();
+		} catch (BackingStoreException e) {
+			throw new IOException("Failed to store format preference for store: " + storeHome, e);
+		}
+		LOG.info("Converted store ''{0}'' to {1} format ({2} file(s) converted)", storeHome, format,
+				convertedFileCount);
+	}
+
+	private static boolean isDERFile(Path file) {
+		return file.getFileName().toString().endsWith(EXTENSION_DER);
+	}
+
+	private static X509Certificate readCRT(IOResource<InputStream> in, boolean der) throws IOException {
+		return (der ? DERCertReaderWriter.readCRTBinary(in) : PEMCertReaderWriter.readCRTBinary(in));
+	}
+
+	private static KeyPair readKey(IOResource<InputStream> in, PasswordCallback password, boolean der)
+			throws IOException {
+		return (der ? DERCertReaderWriter.readKeyBinary(in, password)
+				: PEMCertReaderWriter.readKeyBinary(in, password));
+	}
+
+	private static PKCS10CertificateRequest readCSR(IOResource<InputStream> in, boolean der) throws IOException {
+		return (der ? DERCertReaderWriter.readCSRBinary(in) : PEMCertReaderWriter.readCSRBinary(in));
+	}
+
+	private static X509CRL readCRL(IOResource<InputStream> in, boolean der) throws IOException {
+		return (der ? DERCertReaderWriter.readCRLBinary(in) : PEMCertReaderWriter.readCRLBinary(in));
+	}
+
+	private static void writeCRT(IOResource<OutputStream> out, X509Certificate crt, boolean der) throws IOException {
+		if (der) {
+			DERCertReaderWriter.writeCRTBinary(out, crt);
+		} else {
+			PEMCertReaderWriter.writeCRTBinary(out, crt);
+		}
+	}
+
+	private static void writeKey(IOResource<OutputStream> out, KeyPair key, PasswordCallback newPassword, boolean der)
+			throws IOException {
+		if (der) {
+			DERCertReaderWriter.writeKeyBinary(out, key, newPassword);
+		} else {
+			PEMCertReaderWriter.writeKeyBinary(out, key, newPassword);
+		}
+	}
+
+	private static void writeCSR(IOResource<OutputStream> out, PKCS10CertificateRequest csr, boolean der)
+			throws IOException {
+		if (der) {
+			DERCertReaderWriter.writeCSRBinary(out, csr);
+		} else {
+			PEMCertReaderWriter.writeCSRBinary(out, csr);
+		}
+	}
+
+	private static void writeCRL(IOResource<OutputStream> out, X509CRL crl, boolean der) throws IOException {
+		if (der) {
+			DERCertReaderWriter.writeCRLBinary(out, crl);
+		} else {
+			PEMCertReaderWriter.writeCRLBinary(out, crl);
+		}
+	}
+
+	UserCertStoreEntryId pathId(Path path) {
+		String fileName = path.getFileName().toString();
+		int extIndex = fileName.lastIndexOf('.');
+
+		return new UserCertStoreEntryId(0, (extIndex > 0 ? fileName.substring(0, extIndex) : fileName));
 	}
 
 	private class PersistentEntryPathsScanner extends SimpleFileVisitor<Path> {
@@ -239,67 +917,150 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 
 		private final Log log;
 
+		private final PersistentStoreIndex index;
+
 		private final Map<UserCertStoreEntryId, PersistentEntry> result = new HashMap<>();
 
-		PersistentEntryPathsScanner(Log log) {
+		private final List<Callable<Void>> pendingInfoLoads = new ArrayList<>();
+
+		PersistentEntryPathsScanner(Log log, PersistentStoreIndex index) {
 			this.log = log;
+			this.index = index;
 		}
 
 		public Map<UserCertStoreEntryId, PersistentEntry> getResult() {
 			return this.result;
 		}
 
+		public List<Callable<Void>> getPendingInfoLoads() {
+			return this.pendingInfoLoads;
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(@Nullable Path dir, @Nullable BasicFileAttributes attrs)
+				throws IOException {
+			assert dir != null;
+
+			if (isShardDirectory(dir)) {
+				watchDirectory(dir);
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
 		@Override
 		public FileVisitResult visitFile(@Nullable Path file, @Nullable BasicFileAttributes attrs) throws IOException {
 			assert file != null;
+			assert attrs != null;
 
 			if (this.crtMatcher.matches(file)) {
 				this.log.info("Found CRT file: ''{0}''", file);
-				updateResult(pathId(file), file, null, null, null);
+
+				UserCertStoreEntryId id = pathId(file);
+				PersistentCRTEntry crtHolder = new PersistentCRTEntry(id, file);
+
+				deferInfoLoad(crtHolder, attrs);
+				updateResult(id, crtHolder, null, null, null);
 			} else if (this.keyMatcher.matches(file)) {
 				this.log.info("Found Key file: ''{0}''", file);
-				updateResult(pathId(file), null, file, null, null);
+
+				UserCertStoreEntryId id = pathId(file);
+
+				updateResult(id, null, new PersistentKeyEntry(id, file), null, null);
 			} else if (this.csrMatcher.matches(file)) {
 				this.log.info("Found CSR file: ''{0}''", file);
-				updateResult(pathId(file), null, null, file, null);
+
+				UserCertStoreEntryId id = pathId(file);
+				PersistentCSREntry csrHolder = new PersistentCSREntry(id, file);
+
+				deferInfoLoad(csrHolder, attrs);
+				updateResult(id, null, null, csrHolder, null);
 			} else if (this.crlMatcher.matches(file)) {
 				this.log.info("Found CRL file: ''{0}''", file);
-				updateResult(pathId(file), null, null, null, file);
+
+				UserCertStoreEntryId id = pathId(file);
+				PersistentCRLEntry crlHolder = new PersistentCRLEntry(id, file);
+
+				deferInfoLoad(crlHolder, attrs);
+				updateResult(id, null, null, null, crlHolder);
 			} else {
 				this.log.debug("Ignoring file: ''{0}''", file);
 			}
 			return FileVisitResult.CONTINUE;
 		}
 
-		private void updateResult(UserCertStoreEntryId id, @Nullable Path crtPath, @Nullable Path keyPath,
-				@Nullable Path csrPath, @Nullable Path crlPath) {
-			PersistentEntry resultEntry = new PersistentEntry(this.result.get(id), toCRT(id, crtPath),
-					toKey(id, keyPath), toCSR(id, csrPath), toCRL(id, crlPath));
+		private void deferInfoLoad(PersistentCertObjectHolder<?> holder, BasicFileAttributes attrs) {
+			this.pendingInfoLoads.add(() -> {
+				holder.loadInfo(this.index, attrs);
+				return null;
+			});
+		}
+
+		private void updateResult(UserCertStoreEntryId id, @Nullable CertObjectHolder<X509Certificate> crtHolder,
+				@Nullable SecureCertObjectHolder<KeyPair> keyHolder,
+				@Nullable CertObjectHolder<PKCS10CertificateRequest> csrHolder,
+				@Nullable CertObjectHolder<X509CRL> crlHolder) {
+			PersistentEntry resultEntry = new PersistentEntry(this.result.get(id), crtHolder, keyHolder, csrHolder,
+					crlHolder);
 
 			this.result.put(id, resultEntry);
 		}
 
 	}
 
+	private class WatchListener implements PersistentStoreWatcher.Listener {
+
+		WatchListener() {
+			// Nothing to do here
+		}
+
+		@Override
+		public void fileChanged(Path file) {
+			if (!isOwnChange(file)) {
+				PersistentUserCertStoreHandler.this.changedFiles.add(file);
+				synchronized (PersistentUserCertStoreHandler.this.pendingChangedFiles) {
+					PersistentUserCertStoreHandler.this.pendingChangedFiles.add(file);
+				}
+			}
+		}
+
+		@Override
+		public void directoryChanged(Path directory, boolean valid) {
+			if (!valid) {
+				PersistentUserCertStoreHandler.this.watchedDirectories.remove(directory);
+			}
+			PersistentUserCertStoreHandler.this.watchEpoch.incrementAndGet();
+			synchronized (PersistentUserCertStoreHandler.this.pendingChangedFiles) {
+				PersistentUserCertStoreHandler.this.pendingRescan = true;
+			}
+		}
+
+	}
+
 	private abstract class PersistentCertObjectHolder<T> implements CertObjectHolder<T> {
 
 		private final UserCertStoreEntryId id;
 
 		private final Path path;
 
-		private SoftReference<T> cached;
-		private FileTime cachedFileTime;
+		private final CertObjectCache.Slot<T> cached = PersistentUserCertStoreHandler.this.objectCache.newSlot();
+		@Nullable
+		private FileTime cachedFileTime = null;
+		private long cachedWatchEpoch;
 
-		protected PersistentCertObjectHolder(UserCertStoreEntryId id, Path path) {
-			this(id, path, null, null);
-		}
+		@Nullable
+		private CertObjectInfo info = null;
 
-		protected PersistentCertObjectHolder(UserCertStoreEntryId id, Path path, @Nullable T object,
-				@Nullable FileTime fileTime) {
+		protected PersistentCertObjectHolder(UserCertStoreEntryId id, Path path) {
 			this.id = id;
 			this.path = path;
-			this.cached = new SoftReference<>(object);
-			this.cachedFileTime = (fileTime != null ? fileTime : FileTime.fromMillis(0));
+			this.cachedWatchEpoch = watchEpoch();
+		}
+
+		protected PersistentCertObjectHolder(UserCertStoreEntryId id, Path path, T object,
+				@Nullable FileTime fileTime, long encodedSize) {
+			this(id, path);
+			this.cached.set(object, encodedSize);
+			this.cachedFileTime = fileTime;
 		}
 
 		@Override
@@ -307,24 +1068,57 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 			return this.path;
 		}
 
+		@Override
+		public synchronized CertObjectInfo info() throws IOException {
+			CertObjectInfo checkedInfo = this.info;
+
+			if (checkedInfo == null) {
+				checkedInfo = toInfo(get());
+				this.info = checkedInfo;
+			}
+			return checkedInfo;
+		}
+
+		synchronized void loadInfo(PersistentStoreIndex index, BasicFileAttributes attrs) throws IOException {
+			CertObjectInfo indexInfo = index.get(this.path, attrs);
+
+			if (indexInfo == null) {
+				indexInfo = toInfo(get());
+				index.put(this.path, attrs, indexInfo);
+			}
+			this.info = indexInfo;
+		}
+
 		@Override
 		public synchronized T get() throws IOException {
 			T object = this.cached.get();
-			FileTime pathFileTime = Files.getLastModifiedTime(this.path);
 
-			if (object == null || !this.cachedFileTime.equals(pathFileTime)) {
-				try (IOResource<InputStream> in = IOResource.newInputStream(Objects.requireNonNull(this.id.getAlias()),
-						this.path, StandardOpenOption.READ)) {
-					object = read(in);
+			if (object == null || isFileChanged(this.path, this.cachedWatchEpoch)) {
+				long pathWatchEpoch = watchEpoch();
+				BasicFileAttributes pathAttrs = readAttributes(this.path);
+				FileTime pathFileTime = pathAttrs.lastModifiedTime();
+				FileTime checkedFileTime = this.cachedFileTime;
+
+				// An unknown file time means the cached object has been written by ourselves in a batch
+				if (object == null || (checkedFileTime != null && !checkedFileTime.equals(pathFileTime))) {
+					try (IOResource<InputStream> in = IOResource.newInputStream(
+							Objects.requireNonNull(this.id.getAlias()), this.path, StandardOpenOption.READ)) {
+						object = read(in);
+					}
+					PersistentUserCertStoreHandler.this.decodedObjectCount.incrementAndGet();
+					this.cached.set(object, pathAttrs.size());
+					this.info = null;
 				}
-				this.cached = new SoftReference<>(object);
 				this.cachedFileTime = pathFileTime;
+				this.cachedWatchEpoch = pathWatchEpoch;
 			}
 			return object;
 		}
 
 		protected abstract T read(IOResource<InputStream> in) throws IOException;
 
+		protected abstract CertObjectInfo toInfo(T object) throws IOException;
+
 	}
 
 	private abstract class PersistentSecureCertObjectHolder<T> implements SecureCertObjectHolder<T> {
@@ -357,10 +1151,12 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 		public T get(PasswordCallback password) throws IOException {
 			T object;
 
+			awaitPendingWrite(this.path);
 			try (IOResource<InputStream> in = IOResource.newInputStream(Objects.requireNonNull(this.id.getAlias()),
 					this.path, StandardOpenOption.READ)) {
 				object = read(in, password);
 			}
+			PersistentUserCertStoreHandler.this.decodedObjectCount.incrementAndGet();
 			return object;
 		}
 
@@ -370,64 +1166,113 @@ class PersistentUserCertStoreHandler extends UserCertStoreHandler {
 
 	private class PersistentCRTEntry extends PersistentCertObjectHolder<X509Certificate> {
 
-		PersistentCRTEntry(UserCertStoreEntryId id) {
-			super(id, entryPath(DIR_CRT, Objects.requireNonNull(id.getAlias()), EXTENSION_CRT));
+		PersistentCRTEntry(UserCertStoreEntryId id, Path path) {
+			super(id, path);
 		}
 
-		PersistentCRTEntry(UserCertStoreEntryId id, X509Certificate crt, FileTime crtFileTime) {
-			super(id, entryPath(DIR_CRT, Objects.requireNonNull(id.getAlias()), EXTENSION_CRT), crt, crtFileTime);
+		PersistentCRTEntry(UserCertStoreEntryId id, X509Certificate crt, @Nullable FileTime crtFileTime,
+				long crtSize) {
+			super(id, entryPath(DIR_CRT, Objects.requireNonNull(id.getAlias()), EXTENSION_CRT), crt, crtFileTime,
+					crtSize);
 		}
 
 		@Override
 		protected X509Certificate read(IOResource<InputStream> in) throws IOException {
-			return PEMCertReaderWriter.readCRTBinary(in);
+			return readCRT(in, isDERFile(path()));
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(X509Certificate crt) throws IOException {
+			return CertObjectInfo.fromCRT(crt);
 		}
 
 	}
 
 	private class PersistentKeyEntry extends PersistentSecureCertObjectHolder<KeyPair> {
 
-		PersistentKeyEntry(UserCertStoreEntryId id) {
-			super(id, entryPath(DIR_KEY, Objects.requireNonNull(id.getAlias()), EXTENSION_KEY));
+		PersistentKeyEntry(UserCertStoreEntryId id, Path path) {
+			super(id, path);
 		}
 
 		@Override
 		protected KeyPair read(IOResource<InputStream> in, PasswordCallback password) throws IOException {
-			return PEMCertReaderWriter.readKeyBinary(in, password);
+			return readKey(in, password, isDERFile(path()));
 		}
 
 	}
 
 	private class PersistentCSREntry extends PersistentCertObjectHolder<PKCS10CertificateRequest> {
 
-		PersistentCSREntry(UserCertStoreEntryId id) {
-			super(id, entryPath(DIR_CSR, Objects.requireNonNull(id.getAlias()), EXTENSION_CSR));
+		PersistentCSREntry(UserCertStoreEntryId id, Path path) {
+			super(id, path);
 		}
 
-		PersistentCSREntry(UserCertStoreEntryId id, PKCS10CertificateRequest csr, FileTime csrFileTime) {
-			super(id, entryPath(DIR_CSR, Objects.requireNonNull(id.getAlias()), EXTENSION_CSR), csr, csrFileTime);
+		PersistentCSREntry(UserCertStoreEntryId id, PKCS10CertificateRequest csr, @Nullable FileTime csrFileTime,
+				long csrSize) {
+			super(id, entryPath(DIR_CSR, Objects.requireNonNull(id.getAlias()), EXTENSION_CSR), csr, csrFileTime,
+					csrSize);
 		}
 
 		@Override
 		protected PKCS10CertificateRequest read(IOResource<InputStream> in) throws IOException {
-			return PEMCertReaderWriter.readCSRBinary(in);
+			return readCSR(in, isDERFile(path()));
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(PKCS10CertificateRequest csr) throws IOException {
+			return CertObjectInfo.fromCSR(csr);
 		}
 
 	}
 
 	private class PersistentCRLEntry extends PersistentCertObjectHolder<X509CRL> {
 
-		PersistentCRLEntry(UserCertStoreEntryId id) {
-			super(id, entryPath(DIR_CRL, Objects.requireNonNull(id.getAlias()), EXTENSION_CRL));
+		PersistentCRLEntry(UserCertStoreEntryId id, Path path) {
+			super(id, path);
 		}
 
-		PersistentCRLEntry(UserCertStoreEntryId id, X509CRL crl, FileTime crlFileTime) {
-			super(id, entryPath(DIR_CRL, Objects.requireNonNull(id.getAlias()), EXTENSION_CRL), crl, crlFileTime);
+		PersistentCRLEntry(UserCertStoreEntryId id, X509CRL crl, @Nullable FileTime crlFileTime,
+				long crlSize) {
+			super(id, entryPath(DIR_CRL, Objects.requireNonNull(id.getAlias()), EXTENSION_CRL), crl, crlFileTime,
+					crlSize);
 		}
 
 		@Override
 		protected X509CRL read(IOResource<InputStream> in) throws IOException {
-			return PEMCertReaderWriter.readCRLBinary(in);
+			return readCRL(in, isDERFile(path()));
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(X509CRL crl) throws IOException {
+			return CertObjectInfo.fromCRL(crl);
+		}
+
+	}
+
+	private static class RecordingPassword implements PasswordCallback {
+
+		private final PasswordCallback password;
+
+		private char @Nullable [] recordedPasswordChars = null;
+
+		RecordingPassword(PasswordCallback password) {
+			this.password = password;
+		}
+
+		PasswordCallback recordedPassword() {
+			return StaticPassword.getInstance(this.recordedPasswordChars);
+		}
+
+		@Override
+		public char @Nullable [] queryPassword(String resource) {
+			this.recordedPasswordChars = this.password.queryPassword(resource);
+			return this.recordedPasswordChars;
+		}
+
+		@Override
+		public char @Nullable [] requeryPassword(String resource, Throwable cause) {
+			this.recordedPasswordChars = this.password.requeryPassword(resource, cause);
+			return this.recordedPasswordChars;
 		}
 
 	}
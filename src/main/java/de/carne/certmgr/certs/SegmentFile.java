@@ -0,0 +1,787 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Append-only segment file storing the encoded certificate objects of a store.
+ * <p>
+ * The segment file consists of a header followed by a sequence of records. Each record either stores (put) or removes
+ * (delete) a single certificate object identified by its alias and type. Every record is protected by a CRC32
+ * checksum. A torn or corrupt record at the end of the segment (e.g. due to a crash while appending) is discarded when
+ * the segment is opened.
+ * <p>
+ * The location of all live objects is kept in an in-memory offset index. The index is persisted in a separate index
+ * file, so that only the records appended since the index has been written need to be scanned when the segment is
+ * opened. Object data is read via a read-only memory mapping of the segment file.
+ * <p>
+ * A segment file owned by another store can be opened read-only (see {@link #openReadOnly(Path)}). In this case an
+ * incomplete tail is only skipped (it may still be appended by the owner) and neither the segment nor the index file
+ * are ever written.
+ */
+final class SegmentFile {
+
+	private static final Log LOG = new Log();
+
+	static final String SEGMENT_FILENAME = "store.seg";
+	static final String INDEX_FILENAME = "store.idx";
+
+	private static final int SEGMENT_MAGIC = 0x434d5347;
+	private static final int INDEX_MAGIC = 0x434d5349;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 4 + 4 + 8;
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_DELETE = 2;
+
+	// op + type + sequence + alias length
+	private static final int RECORD_PREFIX_LENGTH = 1 + 1 + 8 + 2;
+
+	private static final long COMPACTION_MIN_GARBAGE = 64 * 1024;
+
+	private final Path segmentPath;
+
+	private final Path indexPath;
+
+	private final boolean readOnly;
+
+	private long segmentId;
+
+	private long segmentLength;
+
+	private long liveLength = 0;
+
+	private long nextSequence = 1;
+
+	private final Map<String, Map<CertObjectType, SegmentRecord>> records = new HashMap<>();
+
+	@Nullable
+	private MappedByteBuffer mapping = null;
+
+	private SegmentFile(Path segmentPath, boolean readOnly, long segmentId, long segmentLength) {
+		this.segmentPath = segmentPath;
+		this.indexPath = segmentPath.resolveSibling(INDEX_FILENAME);
+		this.readOnly = readOnly;
+		this.segmentId = segmentId;
+		this.segmentLength = segmentLength;
+	}
+
+	/**
+	 * Check whether a store home contains a segment file.
+	 *
+	 * @param storeHome The store home to check.
+	 * @return {@code true} if the store home contains a segment file.
+	 */
+	public static boolean exists(Path storeHome) {
+		return Files.isRegularFile(storeHome.resolve(SEGMENT_FILENAME));
+	}
+
+	/**
+	 * Create a new empty segment file.
+	 *
+	 * @param segmentPath The path of the segment file to create.
+	 * @return The created segment file.
+	 * @throws IOException if an I/O error occurs while creating the segment file.
+	 */
+	public static SegmentFile create(Path segmentPath) throws IOException {
+		long segmentId = ThreadLocalRandom.current().nextLong();
+
+		try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE)) {
+			writeFully(channel, encodeHeader(segmentId), 0);
+			channel.force(true);
+		}
+		return new SegmentFile(segmentPath, false, segmentId, HEADER_LENGTH);
+	}
+
+	/**
+	 * Open the segment file of a store home.
+	 *
+	 * @param storeHome The store home containing the segment file.
+	 * @return The opened segment file.
+	 * @throws IOException if an I/O error occurs while opening the segment file.
+	 */
+	public static SegmentFile open(Path storeHome) throws IOException {
+		return open(storeHome, false);
+	}
+
+	/**
+	 * Open the segment file of a store home for reading only.
+	 * <p>
+	 * The returned segment file rejects all modifications.
+	 *
+	 * @param storeHome The store home containing the segment file.
+	 * @return The opened segment file.
+	 * @throws IOException if an I/O error occurs while opening the segment file.
+	 */
+	public static SegmentFile openReadOnly(Path storeHome) throws IOException {
+		return open(storeHome, true);
+	}
+
+	private static SegmentFile open(Path storeHome, boolean readOnly) throws IOException {
+		Path segmentPath = storeHome.resolve(SEGMENT_FILENAME);
+		long fileLength = Files.size(segmentPath);
+
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new IOException("Segment file exceeds maximum size: " + segmentPath);
+		}
+
+		ByteBuffer header = map(segmentPath, Math.min(fileLength, HEADER_LENGTH));
+
+		if (header.remaining() < HEADER_LENGTH || header.getInt() != SEGMENT_MAGIC) {
+			throw new IOException("Invalid segment file: " + segmentPath);
+		}
+
+		int version = header.getInt();
+
+		if (version != VERSION) {
+			throw new IOException("Unsupported segment file version " + version + ": " + segmentPath);
+		}
+
+		SegmentFile segment = new SegmentFile(segmentPath, readOnly, header.getLong(), HEADER_LENGTH);
+
+		segment.recover(fileLength);
+		return segment;
+	}
+
+	/**
+	 * Get the currently stored (live) records.
+	 *
+	 * @return The currently stored (live) records.
+	 */
+	public synchronized List<SegmentRecord> records() {
+		List<SegmentRecord> liveRecords = new ArrayList<>();
+
+		for (Map<CertObjectType, SegmentRecord> aliasRecords : this.records.values()) {
+			liveRecords.addAll(aliasRecords.values());
+		}
+		return liveRecords;
+	}
+
+	/**
+	 * Get the currently stored record for a specific certificate object.
+	 *
+	 * @param alias The alias of the certificate object.
+	 * @param type The type of the certificate object.
+	 * @return The currently stored record, or {@code null} if the object is not stored.
+	 */
+	@Nullable
+	public synchronized SegmentRecord get(String alias, CertObjectType type) {
+		Map<CertObjectType, SegmentRecord> aliasRecords = this.records.get(alias);
+
+		return (aliasRecords != null ? aliasRecords.get(type) : null);
+	}
+
+	/**
+	 * Read the currently stored object data of a specific certificate object.
+	 * <p>
+	 * The record lookup and the actual read are performed atomically. Hence a concurrent {@link #compact()} call
+	 * cannot invalidate the record in between.
+	 *
+	 * @param alias The alias of the certificate object.
+	 * @param type The type of the certificate object.
+	 * @return The currently stored record and its object data, or {@code null} if the object is not stored.
+	 * @throws IOException if an I/O error occurs while reading the record.
+	 */
+	@Nullable
+	public synchronized SegmentData read(String alias, CertObjectType type) throws IOException {
+		SegmentRecord record = get(alias, type);
+
+		return (record != null ? new SegmentData(record, readData(record)) : null);
+	}
+
+	/**
+	 * Read a record's object data.
+	 *
+	 * @param record The record to read (as returned by {@link #records()} or {@link #get(String, CertObjectType)}).
+	 * @return The record's object data.
+	 * @throws IOException if an I/O error occurs while reading the record or if the record is no longer current.
+	 */
+	public synchronized byte[] read(SegmentRecord record) throws IOException {
+		if (get(record.alias(), record.type()) != record) {
+			throw new IOException("Segment record is no longer current: " + record.alias() + " (" + record.type()
+					+ ")");
+		}
+		return readData(record);
+	}
+
+	private byte[] readData(SegmentRecord record) throws IOException {
+		MappedByteBuffer checkedMapping = this.mapping;
+		long dataEnd = record.dataOffset() + record.dataLength();
+
+		if (checkedMapping == null || checkedMapping.capacity() < dataEnd) {
+			checkedMapping = map(this.segmentPath, this.segmentLength);
+			this.mapping = checkedMapping;
+		}
+
+		ByteBuffer data = checkedMapping.duplicate();
+		byte[] bytes = new byte[record.dataLength()];
+
+		data.position((int) record.dataOffset());
+		data.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Store a certificate object.
+	 *
+	 * @param alias The alias of the certificate object.
+	 * @param type The type of the certificate object.
+	 * @param data The encoded certificate object.
+	 * @return The record of the stored object.
+	 * @throws IOException if an I/O error occurs while appending the record.
+	 */
+	public synchronized SegmentRecord put(String alias, CertObjectType type, byte[] data) throws IOException {
+		Map<CertObjectType, byte[]> objects = new EnumMap<>(CertObjectType.class);
+
+		objects.put(type, data);
+		return putAll(alias, objects).get(0);
+	}
+
+	/**
+	 * Store multiple certificate objects of the same alias using a single append operation.
+	 *
+	 * @param alias The alias of the certificate objects.
+	 * @param objects The encoded certificate objects to store.
+	 * @return The records of the stored objects.
+	 * @throws IOException if an I/O error occurs while appending the records.
+	 */
+	public synchronized List<SegmentRecord> putAll(String alias, Map<CertObjectType, byte[]> objects)
+			throws IOException {
+		List<ByteBuffer> encodedRecords = new ArrayList<>();
+		List<SegmentRecord> putRecords = new ArrayList<>();
+
+		encodePuts(alias, objects, this.segmentLength, encodedRecords, putRecords);
+		append(encodedRecords);
+		for (SegmentRecord putRecord : putRecords) {
+			applyPut(putRecord);
+		}
+		return putRecords;
+	}
+
+	/**
+	 * Store the certificate objects of multiple aliases using a single append operation.
+	 * <p>
+	 * In contrast to calling {@link #putAll(String, Map)} per alias, the segment file is forced to the storage device
+	 * only once.
+	 *
+	 * @param objects The encoded certificate objects to store (grouped by alias).
+	 * @throws IOException if an I/O error occurs while appending the records.
+	 */
+	public synchronized void putAll(Map<String, Map<CertObjectType, byte[]>> objects) throws IOException {
+		List<ByteBuffer> encodedRecords = new ArrayList<>();
+		List<SegmentRecord> putRecords = new ArrayList<>();
+		long recordOffset = this.segmentLength;
+
+		for (Map.Entry<String, Map<CertObjectType, byte[]>> aliasObjects : objects.entrySet()) {
+			recordOffset = encodePuts(aliasObjects.getKey(), aliasObjects.getValue(), recordOffset, encodedRecords,
+					putRecords);
+		}
+		append(encodedRecords);
+		for (SegmentRecord putRecord : putRecords) {
+			applyPut(putRecord);
+		}
+	}
+
+	private long encodePuts(String alias, Map<CertObjectType, byte[]> objects, long offset,
+			List<ByteBuffer> encodedRecords, List<SegmentRecord> putRecords) throws IOException {
+		byte[] aliasBytes = encodeAlias(alias);
+		long recordOffset = offset;
+
+		for (Map.Entry<CertObjectType, byte[]> object : objects.entrySet()) {
+			byte[] data = object.getValue();
+			ByteBuffer encodedRecord = encodeRecord(OP_PUT, object.getKey(), this.nextSequence, aliasBytes, data);
+			long dataOffset = recordOffset + 4 + RECORD_PREFIX_LENGTH + aliasBytes.length;
+
+			encodedRecords.add(encodedRecord);
+			putRecords.add(new SegmentRecord(alias, object.getKey(), this.nextSequence, dataOffset, data.length,
+					encodedRecord.remaining()));
+			recordOffset += encodedRecord.remaining();
+			this.nextSequence++;
+		}
+		return recordOffset;
+	}
+
+	/**
+	 * Remove all certificate objects of a specific alias.
+	 *
+	 * @param alias The alias of the certificate objects to remove.
+	 * @throws IOException if an I/O error occurs while appending the delete records.
+	 */
+	public synchronized void deleteAll(String alias) throws IOException {
+		Map<CertObjectType, SegmentRecord> aliasRecords = this.records.get(alias);
+
+		if (aliasRecords != null && !aliasRecords.isEmpty()) {
+			byte[] aliasBytes = encodeAlias(alias);
+			List<ByteBuffer> encodedRecords = new ArrayList<>();
+			List<CertObjectType> deleteTypes = new ArrayList<>(aliasRecords.keySet());
+
+			for (CertObjectType deleteType : deleteTypes) {
+				encodedRecords.add(encodeRecord(OP_DELETE, deleteType, this.nextSequence, aliasBytes, new byte[0]));
+				this.nextSequence++;
+			}
+			append(encodedRecords);
+			for (CertObjectType deleteType : deleteTypes) {
+				applyDelete(alias, deleteType);
+			}
+		}
+	}
+
+	/**
+	 * Check whether this segment file contains enough garbage (overwritten or deleted records) to be worth compacting.
+	 *
+	 * @return {@code true} if this segment file should be compacted.
+	 * @see #compact()
+	 */
+	public synchronized boolean needsCompaction() {
+		long garbageLength = this.segmentLength - HEADER_LENGTH - this.liveLength;
+
+		return garbageLength >= COMPACTION_MIN_GARBAGE && garbageLength * 2 >= this.segmentLength;
+	}
+
+	/**
+	 * Compact this segment file by rewriting all live records to a new segment file which then replaces the current
+	 * one.
+	 *
+	 * @throws IOException if an I/O error occurs during compaction.
+	 */
+	public synchronized void compact() throws IOException {
+		checkWritable();
+
+		Path compactPath = this.segmentPath.resolveSibling(SEGMENT_FILENAME + ".tmp");
+		long compactSegmentId = ThreadLocalRandom.current().nextLong();
+		List<SegmentRecord> compactRecords = new ArrayList<>();
+		long compactLength = HEADER_LENGTH;
+
+		LOG.info("Compacting segment file ''{0}'' (length: {1}, live: {2})...", this.segmentPath, this.segmentLength,
+				this.liveLength);
+
+		try (FileChannel channel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeFully(channel, encodeHeader(compactSegmentId), 0);
+			for (SegmentRecord record : records()) {
+				byte[] aliasBytes = encodeAlias(record.alias());
+				ByteBuffer encodedRecord = encodeRecord(OP_PUT, record.type(), record.sequence(), aliasBytes,
+						readData(record));
+				long dataOffset = compactLength + 4 + RECORD_PREFIX_LENGTH + aliasBytes.length;
+
+				compactRecords.add(new SegmentRecord(record.alias(), record.type(), record.sequence(), dataOffset,
+						record.dataLength(), encodedRecord.remaining()));
+				compactLength += writeFully(channel, encodedRecord, compactLength);
+			}
+			channel.force(true);
+		}
+		try {
+			Files.move(compactPath, this.segmentPath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(compactPath, this.segmentPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.segmentId = compactSegmentId;
+		this.segmentLength = compactLength;
+		this.liveLength = 0;
+		this.records.clear();
+		this.mapping = null;
+		for (SegmentRecord compactRecord : compactRecords) {
+			applyPut(compactRecord);
+		}
+		writeIndex();
+		LOG.info("Segment file ''{0}'' compacted (length: {1})", this.segmentPath, this.segmentLength);
+	}
+
+	private void recover(long fileLength) throws IOException {
+		long scanStart = HEADER_LENGTH;
+
+		try {
+			scanStart = readIndex(fileLength);
+		} catch (NoSuchFileException e) {
+			LOG.info("No segment index found; scanning segment file ''{0}''", this.segmentPath);
+		} catch (IOException e) {
+			LOG.warning(e, "Discarding invalid segment index ''{0}''", this.indexPath);
+			this.records.clear();
+			this.liveLength = 0;
+			this.nextSequence = 1;
+		}
+
+		MappedByteBuffer checkedMapping = map(this.segmentPath, fileLength);
+		long position = scanStart;
+		int scannedRecords = 0;
+
+		this.mapping = checkedMapping;
+		while (position + 4 <= fileLength) {
+			int payloadLength = checkedMapping.getInt((int) position);
+
+			if (payloadLength < RECORD_PREFIX_LENGTH || position + 4 + payloadLength + 4 > fileLength) {
+				break;
+			}
+
+			int payloadStart = (int) position + 4;
+			ByteBuffer payload = checkedMapping.duplicate();
+			CRC32 crc = new CRC32();
+
+			payload.position(payloadStart);
+			payload.limit(payloadStart + payloadLength);
+			crc.update(payload);
+			if ((int) crc.getValue() != checkedMapping.getInt(payloadStart + payloadLength)) {
+				break;
+			}
+
+			byte op = checkedMapping.get(payloadStart);
+			int typeOrdinal = checkedMapping.get(payloadStart + 1);
+			long sequence = checkedMapping.getLong(payloadStart + 2);
+			int aliasLength = checkedMapping.getShort(payloadStart + 10) & 0xffff;
+			CertObjectType[] types = CertObjectType.values();
+
+			if (RECORD_PREFIX_LENGTH + aliasLength > payloadLength || typeOrdinal < 0 || typeOrdinal >= types.length) {
+				break;
+			}
+
+			byte[] aliasBytes = new byte[aliasLength];
+			ByteBuffer aliasBuffer = checkedMapping.duplicate();
+
+			aliasBuffer.position(payloadStart + RECORD_PREFIX_LENGTH);
+			aliasBuffer.get(aliasBytes);
+
+			String alias = new String(aliasBytes, StandardCharsets.UTF_8);
+			int recordLength = 4 + payloadLength + 4;
+
+			if (op == OP_PUT) {
+				long dataOffset = (long) payloadStart + RECORD_PREFIX_LENGTH + aliasLength;
+				int dataLength = payloadLength - RECORD_PREFIX_LENGTH - aliasLength;
+
+				applyPut(new SegmentRecord(alias, types[typeOrdinal], sequence, dataOffset, dataLength, recordLength));
+			} else if (op == OP_DELETE) {
+				applyDelete(alias, types[typeOrdinal]);
+			} else {
+				break;
+			}
+			this.nextSequence = Math.max(this.nextSequence, sequence + 1);
+			position += recordLength;
+			scannedRecords++;
+		}
+		this.segmentLength = position;
+		if (position < fileLength) {
+			if (this.readOnly) {
+				// The owner may still be appending these records; hence only skip them
+				LOG.info("Skipping {0} byte(s) of incomplete records at the end of segment file ''{1}''",
+						fileLength - position, this.segmentPath);
+			} else {
+				LOG.warning("Discarding {0} byte(s) of incomplete records at the end of segment file ''{1}''",
+						fileLength - position, this.segmentPath);
+				try (FileChannel channel = FileChannel.open(this.segmentPath, StandardOpenOption.WRITE)) {
+					channel.truncate(position);
+					channel.force(true);
+				}
+				this.mapping = null;
+			}
+		}
+		if (!this.readOnly && (scannedRecords > 0 || scanStart == HEADER_LENGTH)) {
+			try {
+				writeIndex();
+			} catch (IOException e) {
+				LOG.warning(e, "Failed to write segment index ''{0}''", this.indexPath);
+			}
+		}
+	}
+
+	private long readIndex(long fileLength) throws IOException {
+		CheckedInputStream checkedIn = new CheckedInputStream(
+				new BufferedInputStream(Files.newInputStream(this.indexPath)), new CRC32());
+		long coveredLength;
+
+		try (DataInputStream in = new DataInputStream(checkedIn)) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Invalid segment index header");
+			}
+			if (in.readLong() != this.segmentId) {
+				throw new IOException("Segment index does not match segment file");
+			}
+			coveredLength = in.readLong();
+			if (coveredLength < HEADER_LENGTH || coveredLength > fileLength) {
+				throw new IOException("Segment index exceeds segment file");
+			}
+			this.nextSequence = in.readLong();
+
+			int recordCount = in.readInt();
+			CertObjectType[] types = CertObjectType.values();
+
+			for (int recordIndex = 0; recordIndex < recordCount; recordIndex++) {
+				String alias = in.readUTF();
+				int typeOrdinal = in.readUnsignedByte();
+
+				if (typeOrdinal >= types.length) {
+					throw new IOException("Invalid segment index record");
+				}
+
+				long sequence = in.readLong();
+				long dataOffset = in.readLong();
+				int dataLength = in.readInt();
+				int recordLength = in.readInt();
+
+				applyPut(new SegmentRecord(alias, types[typeOrdinal], sequence, dataOffset, dataLength, recordLength));
+			}
+
+			long checksum = checkedIn.getChecksum().getValue();
+
+			if (in.readLong() != checksum) {
+				throw new IOException("Segment index checksum mismatch");
+			}
+		}
+		return coveredLength;
+	}
+
+	private void writeIndex() throws IOException {
+		Path tempIndexPath = this.indexPath.resolveSibling(INDEX_FILENAME + ".tmp");
+		CheckedOutputStream checkedOut = new CheckedOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tempIndexPath)), new CRC32());
+		List<SegmentRecord> liveRecords = records();
+
+		try (DataOutputStream out = new DataOutputStream(checkedOut)) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(this.segmentId);
+			out.writeLong(this.segmentLength);
+			out.writeLong(this.nextSequence);
+			out.writeInt(liveRecords.size());
+			for (SegmentRecord record : liveRecords) {
+				out.writeUTF(record.alias());
+				out.writeByte(record.type().ordinal());
+				out.writeLong(record.sequence());
+				out.writeLong(record.dataOffset());
+				out.writeInt(record.dataLength());
+				out.writeInt(record.recordLength());
+			}
+			out.writeLong(checkedOut.getChecksum().getValue());
+		}
+		try {
+			Files.move(tempIndexPath, this.indexPath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempIndexPath, this.indexPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void checkWritable() throws IOException {
+		if (this.readOnly) {
+			throw new IOException("Segment file has been opened read-only: " + this.segmentPath);
+		}
+	}
+
+	private void append(List<ByteBuffer> encodedRecords) throws IOException {
+		checkWritable();
+		if (this.segmentLength + encodedRecords.stream().mapToLong(ByteBuffer::remaining).sum() > Integer.MAX_VALUE) {
+			throw new IOException("Segment file exceeds maximum size: " + this.segmentPath);
+		}
+
+		long appendPosition = this.segmentLength;
+
+		try (FileChannel channel = FileChannel.open(this.segmentPath, StandardOpenOption.WRITE)) {
+			for (ByteBuffer encodedRecord : encodedRecords) {
+				appendPosition += writeFully(channel, encodedRecord, appendPosition);
+			}
+			// Make sure the records are durable before they are considered stored
+			channel.force(false);
+		}
+		this.segmentLength = appendPosition;
+	}
+
+	private void applyPut(SegmentRecord record) {
+		SegmentRecord previousRecord = this.records
+				.computeIfAbsent(record.alias(), k -> new EnumMap<>(CertObjectType.class)).put(record.type(), record);
+
+		if (previousRecord != null) {
+			this.liveLength -= previousRecord.recordLength();
+		}
+		this.liveLength += record.recordLength();
+	}
+
+	private void applyDelete(String alias, CertObjectType type) {
+		Map<CertObjectType, SegmentRecord> aliasRecords = this.records.get(alias);
+
+		if (aliasRecords != null) {
+			SegmentRecord previousRecord = aliasRecords.remove(type);
+
+			if (previousRecord != null) {
+				this.liveLength -= previousRecord.recordLength();
+			}
+			if (aliasRecords.isEmpty()) {
+				this.records.remove(alias);
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(Path segmentPath, long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+	}
+
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+
+	private static ByteBuffer encodeHeader(long segmentId) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+		header.putInt(SEGMENT_MAGIC);
+		header.putInt(VERSION);
+		header.putLong(segmentId);
+		header.flip();
+		return header;
+	}
+
+	private static byte[] encodeAlias(String alias) throws IOException {
+		byte[] aliasBytes = alias.getBytes(StandardCharsets.UTF_8);
+
+		if (aliasBytes.length > 0xffff) {
+			throw new IOException("Alias too long: " + alias);
+		}
+		return aliasBytes;
+	}
+
+	private static ByteBuffer encodeRecord(byte op, CertObjectType type, long sequence, byte[] aliasBytes,
+			byte[] data) {
+		int payloadLength = RECORD_PREFIX_LENGTH + aliasBytes.length + data.length;
+		ByteBuffer record = ByteBuffer.allocate(4 + payloadLength + 4);
+		CRC32 crc = new CRC32();
+
+		record.putInt(payloadLength);
+		record.put(op);
+		record.put((byte) type.ordinal());
+		record.putLong(sequence);
+		record.putShort((short) aliasBytes.length);
+		record.put(aliasBytes);
+		record.put(data);
+		crc.update(record.array(), 4, payloadLength);
+		record.putInt((int) crc.getValue());
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * A single certificate object record within the segment file.
+	 */
+	static final class SegmentRecord {
+
+		private final String alias;
+		private final CertObjectType type;
+		private final long sequence;
+		private final long dataOffset;
+		private final int dataLength;
+		private final int recordLength;
+
+		SegmentRecord(String alias, CertObjectType type, long sequence, long dataOffset, int dataLength,
+				int recordLength) {
+			this.alias = alias;
+			this.type = type;
+			this.sequence = sequence;
+			this.dataOffset = dataOffset;
+			this.dataLength = dataLength;
+			this.recordLength = recordLength;
+		}
+
+		String alias() {
+			return this.alias;
+		}
+
+		CertObjectType type() {
+			return this.type;
+		}
+
+		/**
+		 * Get the record's sequence number.
+		 * <p>
+		 * The sequence number uniquely identifies the stored object version and is retained during compaction.
+		 *
+		 * @return The record's sequence number.
+		 */
+		long sequence() {
+			return this.sequence;
+		}
+
+		long dataOffset() {
+			return this.dataOffset;
+		}
+
+		int dataLength() {
+			return this.dataLength;
+		}
+
+		int recordLength() {
+			return this.recordLength;
+		}
+
+	}
+
+	/**
+	 * A record together with the object data read for it.
+	 */
+	static final class SegmentData {
+
+		private final SegmentRecord record;
+		private final byte[] data;
+
+		SegmentData(SegmentRecord record, byte[] data) {
+			this.record = record;
+			this.data = data;
+		}
+
+		SegmentRecord record() {
+			return this.record;
+		}
+
+		byte[] data() {
+			return this.data;
+		}
+
+	}
+
+}
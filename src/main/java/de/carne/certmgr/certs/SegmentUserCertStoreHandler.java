@@ -0,0 +1,624 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.SegmentFile.SegmentData;
+import de.carne.certmgr.certs.SegmentFile.SegmentRecord;
+import de.carne.certmgr.certs.io.IOResource;
+import de.carne.certmgr.certs.io.PEMCertReaderWriter;
+import de.carne.certmgr.certs.x509.PKCS10CertificateRequest;
+import de.carne.nio.file.attribute.FileAttributes;
+
+/**
+ * {@link UserCertStoreHandler} implementation storing all certificate objects in a single append-only segment file
+ * (see {@link SegmentFile}).
+ * <p>
+ * The certificate objects are encoded the same way as in the directory layout provided by
+ * {@link PersistentUserCertStoreHandler}, which allows the stores to be converted between both layouts without
+ * decoding any certificate object. Segment files are compacted in the background as soon as they contain enough
+ * overwritten or deleted records.
+ */
+class SegmentUserCertStoreHandler extends UserCertStoreHandler {
+
+	private static final Log LOG = new Log();
+
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, SegmentUserCertStoreHandler.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private int nextId = 1;
+
+	private final Path storeHome;
+
+	private final SegmentFile segment;
+
+	private final StoreAliasRegistry aliasRegistry = new StoreAliasRegistry();
+
+	private final AtomicInteger decodedObjectCount = new AtomicInteger();
+
+	private final CertObjectCache objectCache = new CertObjectCache();
+
+	private final AtomicBoolean compactionPending = new AtomicBoolean();
+
+	private SegmentUserCertStoreHandler(Path storeHome, SegmentFile segment) {
+		this.storeHome = storeHome;
+		this.segment = segment;
+	}
+
+	/**
+	 * Check whether a store home uses the segment layout.
+	 *
+	 * @param storeHome The store home to check.
+	 * @return {@code true} if the store home uses the segment layout.
+	 */
+	public static boolean isSegmentStore(Path storeHome) {
+		return SegmentFile.exists(storeHome);
+	}
+
+	/**
+	 * Create a new segment file in an existing store home and open it.
+	 *
+	 * @param storeHome The store home to create the segment file in.
+	 * @return The created store handler.
+	 * @throws IOException if an I/O error occurs while creating the segment file.
+	 */
+	public static SegmentUserCertStoreHandler create(Path storeHome) throws IOException {
+		return new SegmentUserCertStoreHandler(storeHome,
+				SegmentFile.create(storeHome.resolve(SegmentFile.SEGMENT_FILENAME)));
+	}
+
+	/**
+	 * Open the segment file of a store home.
+	 *
+	 * @param storeHome The store home to open.
+	 * @return The opened store handler.
+	 * @throws IOException if an I/O error occurs while opening the segment file.
+	 */
+	public static SegmentUserCertStoreHandler open(Path storeHome) throws IOException {
+		return new SegmentUserCertStoreHandler(storeHome, SegmentFile.open(storeHome));
+	}
+
+	/**
+	 * Convert a store home from the directory layout to the segment layout.
+	 * <p>
+	 * The segment file is written completely before any of the directory layout's files is removed. Segment files
+	 * only hold PEM encoded objects, hence stores using the DER storage format have to be converted to the PEM storage
+	 * format first.
+	 *
+	 * @param storeHome The store home to convert.
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	public static void convertFromDirectoryLayout(Path storeHome) throws IOException {
+		if (isSegmentStore(storeHome)) {
+			throw new FileAlreadyExistsException(storeHome.resolve(SegmentFile.SEGMENT_FILENAME).toString());
+		}
+		for (CertObjectType type : CertObjectType.values()) {
+			Path directory = storeHome.resolve(directoryName(type));
+
+			String derExtension = PersistentUserCertStoreHandler.EXTENSION_DER;
+
+			if (!PersistentUserCertStoreHandler.collectEntryFiles(directory, derExtension).isEmpty()) {
+				throw new IOException("Store contains DER encoded objects (convert to PEM format first): " + storeHome);
+			}
+		}
+
+		Path tempSegmentPath = storeHome.resolve(SegmentFile.SEGMENT_FILENAME + ".tmp");
+
+		Files.deleteIfExists(tempSegmentPath);
+
+		SegmentFile tempSegment = SegmentFile.create(tempSegmentPath);
+		Map<String, Map<CertObjectType, byte[]>> objects = new HashMap<>();
+		List<Path> convertedFiles = new ArrayList<>();
+
+		for (CertObjectType type : CertObjectType.values()) {
+			Path directory = storeHome.resolve(directoryName(type));
+			String extension = fileExtension(type);
+
+			for (Path file : PersistentUserCertStoreHandler.collectEntryFiles(directory, extension)) {
+				String fileName = file.getFileName().toString();
+				String alias = fileName.substring(0, fileName.length() - extension.length());
+
+				objects.computeIfAbsent(alias, k -> new EnumMap<>(CertObjectType.class)).put(type,
+						Files.readAllBytes(file));
+				convertedFiles.add(file);
+			}
+		}
+		tempSegment.putAll(objects);
+		try {
+			Files.move(tempSegmentPath, storeHome.resolve(SegmentFile.SEGMENT_FILENAME),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempSegmentPath, storeHome.resolve(SegmentFile.SEGMENT_FILENAME));
+		}
+		PersistentStoreWriter.syncDirectory(storeHome);
+		LOG.info("Converted {0} file(s) of store ''{1}'' to segment layout", convertedFiles.size(), storeHome);
+
+		// The segment file is in place; discard the directory layout
+		for (Path convertedFile : convertedFiles) {
+			Files.delete(convertedFile);
+		}
+		for (CertObjectType type : CertObjectType.values()) {
+			Path directory = storeHome.resolve(directoryName(type));
+
+			PersistentUserCertStoreHandler.deleteEmptyShardDirectories(directory);
+			deleteDirectoryIfEmpty(directory);
+		}
+		Files.deleteIfExists(storeHome.resolve(PersistentStoreIndex.INDEX_FILENAME));
+	}
+
+	/**
+	 * Convert a store home from the segment layout to the directory layout.
+	 * <p>
+	 * All certificate object files are written and synced to disk completely before the segment file is removed.
+	 *
+	 * @param storeHome The store home to convert.
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	public static void convertToDirectoryLayout(Path storeHome) throws IOException {
+		SegmentFile segment = SegmentFile.open(storeHome);
+		List<SegmentRecord> records = segment.records();
+		Set<Path> directories = new HashSet<>();
+
+		for (SegmentRecord record : records) {
+			Path file = storeHome.resolve(directoryName(record.type()))
+					.resolve(record.alias() + fileExtension(record.type()));
+
+			if (directories.add(file.getParent())) {
+				Files.createDirectories(file.getParent(), FileAttributes.userDirectoryDefault(storeHome));
+			}
+			writeFile(file, segment.read(record));
+		}
+		for (Path directory : directories) {
+			PersistentStoreWriter.syncDirectory(directory);
+		}
+		PersistentStoreWriter.syncDirectory(storeHome);
+		Files.delete(storeHome.resolve(SegmentFile.SEGMENT_FILENAME));
+		Files.deleteIfExists(storeHome.resolve(SegmentFile.INDEX_FILENAME));
+		LOG.info("Converted {0} segment record(s) of store ''{1}'' to directory layout", records.size(), storeHome);
+	}
+
+	private static void writeFile(Path file, byte[] data) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+	}
+
+	private static String directoryName(CertObjectType type) {
+		String directoryName;
+
+		switch (type) {
+		case CRT:
+			directoryName = PersistentUserCertStoreHandler.DIR_CRT;
+			break;
+		case KEY:
+			directoryName = PersistentUserCertStoreHandler.DIR_KEY;
+			break;
+		case CSR:
+			directoryName = PersistentUserCertStoreHandler.DIR_CSR;
+			break;
+		case CRL:
+			directoryName = PersistentUserCertStoreHandler.DIR_CRL;
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected certificate object type: " + type);
+		}
+		return directoryName;
+	}
+
+	private static String fileExtension(CertObjectType type) {
+		String fileExtension;
+
+		switch (type) {
+		case CRT:
+			fileExtension = PersistentUserCertStoreHandler.EXTENSION_CRT;
+			break;
+		case KEY:
+			fileExtension = PersistentUserCertStoreHandler.EXTENSION_KEY;
+			break;
+		case CSR:
+			fileExtension = PersistentUserCertStoreHandler.EXTENSION_CSR;
+			break;
+		case CRL:
+			fileExtension = PersistentUserCertStoreHandler.EXTENSION_CRL;
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected certificate object type: " + type);
+		}
+		return fileExtension;
+	}
+
+	private static void deleteDirectoryIfEmpty(Path directory) throws IOException {
+		try {
+			Files.deleteIfExists(directory);
+		} catch (DirectoryNotEmptyException e) {
+			LOG.warning("Keeping non-empty directory ''{0}''", directory);
+			Exceptions.ignore(e);
+		}
+	}
+
+	@Override
+	public Path storeHome() {
+		return this.storeHome;
+	}
+
+	@Override
+	public int decodedObjectCount() {
+		return this.decodedObjectCount.get();
+	}
+
+	@Override
+	public CertObjectCacheStatistics cacheStatistics() {
+		return this.objectCache.statistics();
+	}
+
+	public Map<UserCertStoreEntryId, PersistentEntry> scanStore() {
+		Map<UserCertStoreEntryId, PersistentEntry> result = new HashMap<>();
+
+		this.aliasRegistry.clear();
+		for (SegmentRecord record : this.segment.records()) {
+			String alias = record.alias();
+			UserCertStoreEntryId id = new UserCertStoreEntryId(0, alias);
+			PersistentEntry resultEntry;
+
+			switch (record.type()) {
+			case CRT:
+				resultEntry = new PersistentEntry(result.get(id), new SegmentCRTHolder(alias, null, record), null,
+						null, null);
+				break;
+			case KEY:
+				resultEntry = new PersistentEntry(result.get(id), null, new SegmentKeyHolder(alias), null, null);
+				break;
+			case CSR:
+				resultEntry = new PersistentEntry(result.get(id), null, null,
+						new SegmentCSRHolder(alias, null, record), null);
+				break;
+			case CRL:
+				resultEntry = new PersistentEntry(result.get(id), null, null, null,
+						new SegmentCRLHolder(alias, null, record));
+				break;
+			default:
+				throw new IllegalStateException("Unexpected certificate object type: " + record.type());
+			}
+			result.put(id, resultEntry);
+			this.aliasRegistry.register(alias);
+		}
+		return result;
+	}
+
+	@Override
+	public UserCertStoreEntryId nextEntryId(@Nullable String aliasHint) {
+		return (aliasHint != null ? new UserCertStoreEntryId(0, this.aliasRegistry.nextAlias(aliasHint))
+				: new UserCertStoreEntryId(this.nextId++, null));
+	}
+
+	@Override
+	public CertObjectHolder<X509Certificate> createCRT(UserCertStoreEntryId id, X509Certificate crt)
+			throws IOException {
+		String alias = Objects.requireNonNull(id.getAlias());
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			PEMCertReaderWriter.writeCRTBinary(out, crt);
+		}
+
+		SegmentRecord record = put(alias, CertObjectType.CRT, data.toByteArray());
+
+		return new SegmentCRTHolder(alias, crt, record);
+	}
+
+	@Override
+	public SecureCertObjectHolder<KeyPair> createKey(UserCertStoreEntryId id, KeyPair key, PasswordCallback newPassword)
+			throws IOException {
+		String alias = Objects.requireNonNull(id.getAlias());
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			PEMCertReaderWriter.writeKeyBinary(out, key, newPassword);
+		}
+		put(alias, CertObjectType.KEY, data.toByteArray());
+		return new SegmentKeyHolder(alias);
+	}
+
+	@Override
+	public CertObjectHolder<PKCS10CertificateRequest> createCSR(UserCertStoreEntryId id, PKCS10CertificateRequest csr)
+			throws IOException {
+		String alias = Objects.requireNonNull(id.getAlias());
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			PEMCertReaderWriter.writeCSRBinary(out, csr);
+		}
+
+		SegmentRecord record = put(alias, CertObjectType.CSR, data.toByteArray());
+
+		return new SegmentCSRHolder(alias, csr, record);
+	}
+
+	@Override
+	public CertObjectHolder<X509CRL> createCRL(UserCertStoreEntryId id, X509CRL crl) throws IOException {
+		String alias = Objects.requireNonNull(id.getAlias());
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		try (IOResource<OutputStream> out = new IOResource<>(data, alias)) {
+			PEMCertReaderWriter.writeCRLBinary(out, crl);
+		}
+
+		SegmentRecord record = put(alias, CertObjectType.CRL, data.toByteArray());
+
+		return new SegmentCRLHolder(alias, crl, record);
+	}
+
+	@Override
+	public void deleteEntry(UserCertStoreEntryId id) throws IOException {
+		String alias = id.getAlias();
+
+		if (alias != null) {
+			this.segment.deleteAll(alias);
+			this.aliasRegistry.unregister(alias);
+			scheduleCompaction();
+		}
+	}
+
+	private SegmentRecord put(String alias, CertObjectType type, byte[] data) throws IOException {
+		boolean overwrite = this.segment.get(alias, type) != null;
+		SegmentRecord record = this.segment.put(alias, type, data);
+
+		this.aliasRegistry.register(alias);
+		if (overwrite) {
+			scheduleCompaction();
+		}
+		return record;
+	}
+
+	private void scheduleCompaction() {
+		if (this.segment.needsCompaction() && this.compactionPending.compareAndSet(false, true)) {
+			COMPACTOR.submit(() -> {
+				this.compactionPending.set(false);
+				try {
+					if (this.segment.needsCompaction()) {
+						this.segment.compact();
+					}
+				} catch (IOException e) {
+					LOG.warning(e, "Failed to compact segment file of store ''{0}''", this.storeHome);
+				}
+			});
+		}
+	}
+
+	private SegmentRecord getRecord(String alias, CertObjectType type) throws IOException {
+		SegmentRecord record = this.segment.get(alias, type);
+
+		if (record == null) {
+			throw new FileNotFoundException("No " + type + " object stored for alias: " + alias);
+		}
+		return record;
+	}
+
+	private SegmentData readRecord(String alias, CertObjectType type) throws IOException {
+		SegmentData data = this.segment.read(alias, type);
+
+		if (data == null) {
+			throw new FileNotFoundException("No " + type + " object stored for alias: " + alias);
+		}
+		return data;
+	}
+
+	private IOResource<InputStream> openData(String alias, SegmentData data) {
+		return new IOResource<>(new ByteArrayInputStream(data.data()), alias);
+	}
+
+	private abstract class SegmentCertObjectHolder<T> implements CertObjectHolder<T> {
+
+		private final String alias;
+
+		private final CertObjectType type;
+
+		private final CertObjectCache.Slot<T> cached = SegmentUserCertStoreHandler.this.objectCache.newSlot();
+		private long cachedSequence;
+
+		@Nullable
+		private CertObjectInfo info = null;
+
+		protected SegmentCertObjectHolder(String alias, CertObjectType type, @Nullable T object,
+				SegmentRecord record) {
+			this.alias = alias;
+			this.type = type;
+			if (object != null) {
+				this.cached.set(object, record.dataLength());
+			}
+			this.cachedSequence = record.sequence();
+		}
+
+		@Override
+		@Nullable
+		public Path path() {
+			return null;
+		}
+
+		@Override
+		public synchronized CertObjectInfo info() throws IOException {
+			CertObjectInfo checkedInfo = this.info;
+
+			if (checkedInfo == null) {
+				checkedInfo = toInfo(get());
+				this.info = checkedInfo;
+			}
+			return checkedInfo;
+		}
+
+		@Override
+		public synchronized T get() throws IOException {
+			SegmentRecord record = getRecord(this.alias, this.type);
+			T object = this.cached.get();
+
+			if (object == null || this.cachedSequence != record.sequence()) {
+				// Look up the record again while reading; it may have been moved by a compaction in the meantime
+				SegmentData data = readRecord(this.alias, this.type);
+
+				try (IOResource<InputStream> in = openData(this.alias, data)) {
+					object = read(in);
+				}
+				SegmentUserCertStoreHandler.this.decodedObjectCount.incrementAndGet();
+				this.cached.set(object, data.record().dataLength());
+				this.cachedSequence = data.record().sequence();
+				this.info = null;
+			}
+			return object;
+		}
+
+		protected abstract T read(IOResource<InputStream> in) throws IOException;
+
+		protected abstract CertObjectInfo toInfo(T object) throws IOException;
+
+	}
+
+	private class SegmentCRTHolder extends SegmentCertObjectHolder<X509Certificate> {
+
+		SegmentCRTHolder(String alias, @Nullable X509Certificate crt, SegmentRecord record) {
+			super(alias, CertObjectType.CRT, crt, record);
+		}
+
+		@Override
+		protected X509Certificate read(IOResource<InputStream> in) throws IOException {
+			return PEMCertReaderWriter.readCRTBinary(in);
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(X509Certificate crt) throws IOException {
+			return CertObjectInfo.fromCRT(crt);
+		}
+
+	}
+
+	private class SegmentCSRHolder extends SegmentCertObjectHolder<PKCS10CertificateRequest> {
+
+		SegmentCSRHolder(String alias, @Nullable PKCS10CertificateRequest csr, SegmentRecord record) {
+			super(alias, CertObjectType.CSR, csr, record);
+		}
+
+		@Override
+		protected PKCS10CertificateRequest read(IOResource<InputStream> in) throws IOException {
+			return PEMCertReaderWriter.readCSRBinary(in);
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(PKCS10CertificateRequest csr) throws IOException {
+			return CertObjectInfo.fromCSR(csr);
+		}
+
+	}
+
+	private class SegmentCRLHolder extends SegmentCertObjectHolder<X509CRL> {
+
+		SegmentCRLHolder(String alias, @Nullable X509CRL crl, SegmentRecord record) {
+			super(alias, CertObjectType.CRL, crl, record);
+		}
+
+		@Override
+		protected X509CRL read(IOResource<InputStream> in) throws IOException {
+			return PEMCertReaderWriter.readCRLBinary(in);
+		}
+
+		@Override
+		protected CertObjectInfo toInfo(X509CRL crl) throws IOException {
+			return CertObjectInfo.fromCRL(crl);
+		}
+
+	}
+
+	private class SegmentKeyHolder implements SecureCertObjectHolder<KeyPair> {
+
+		private final String alias;
+
+		SegmentKeyHolder(String alias) {
+			this.alias = alias;
+		}
+
+		@Override
+		@Nullable
+		public Path path() {
+			return null;
+		}
+
+		@Override
+		public KeyPair get() throws IOException {
+			throw new PasswordRequiredException(this.alias);
+		}
+
+		@Override
+		public boolean isSecured() {
+			return true;
+		}
+
+		@Override
+		public KeyPair get(PasswordCallback password) throws IOException {
+			KeyPair key;
+
+			try (IOResource<InputStream> in = openData(this.alias, readRecord(this.alias, CertObjectType.KEY))) {
+				key = PEMCertReaderWriter.readKeyBinary(in, password);
+			}
+			SegmentUserCertStoreHandler.this.decodedObjectCount.incrementAndGet();
+			return key;
+		}
+
+	}
+
+}
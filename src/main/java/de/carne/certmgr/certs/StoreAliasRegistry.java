@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.carne.boot.Exceptions;
+
+/**
+ * Registry of the entry aliases in use by a store handler.
+ * <p>
+ * Aliases differing only in case are considered identical (to stay safe on case insensitive file systems). This only
+ * affects the choice of new aliases: a new alias differing only in case from an existing one receives an index suffix
+ * instead. Aliases themselves are never changed. Stores created before may still contain aliases differing only in
+ * case; these are registered individually, hence removing one of them keeps the others in use.
+ */
+final class StoreAliasRegistry {
+
+	private static final Pattern INDEXED_ALIAS_PATTERN = Pattern.compile("(.*)\\d+$");
+	private static final String INDEXED_ALIAS_FORMAT = "%s%d";
+
+	private final Map<String, Set<String>> aliases = new HashMap<>();
+
+	private final Map<String, Integer> aliasIndexes = new HashMap<>();
+
+	/**
+	 * Remove all registered aliases.
+	 */
+	public synchronized void clear() {
+		this.aliases.clear();
+		this.aliasIndexes.clear();
+	}
+
+	/**
+	 * Check whether an alias is in use.
+	 *
+	 * @param alias The alias to check.
+	 * @return {@code true} if the alias is in use.
+	 */
+	public synchronized boolean isInUse(String alias) {
+		return this.aliases.containsKey(aliasKey(alias));
+	}
+
+	/**
+	 * Register an alias as in use.
+	 *
+	 * @param alias The alias to register.
+	 */
+	public synchronized void register(String alias) {
+		this.aliases.computeIfAbsent(aliasKey(alias), key -> new HashSet<>()).add(alias);
+	}
+
+	/**
+	 * Unregister an alias.
+	 *
+	 * @param alias The alias to unregister.
+	 */
+	public synchronized void unregister(String alias) {
+		String aliasKey = aliasKey(alias);
+		Set<String> keyAliases = this.aliases.get(aliasKey);
+
+		if (keyAliases != null && keyAliases.remove(alias) && keyAliases.isEmpty()) {
+			this.aliases.remove(aliasKey);
+		}
+
+		// Make the freed alias index available again for the matching alias base(s)
+		int indexStart = alias.length();
+
+		while (indexStart > 0 && Character.isDigit(alias.charAt(indexStart - 1))) {
+			indexStart--;
+
+			String indexedAliasBase = alias.substring(0, indexStart);
+			Integer nextAliasIndex = this.aliasIndexes.get(indexedAliasBase);
+
+			if (nextAliasIndex != null) {
+				try {
+					int aliasIndex = Integer.parseInt(alias.substring(indexStart));
+
+					if (aliasIndex < nextAliasIndex.intValue()) {
+						this.aliasIndexes.put(indexedAliasBase, Math.max(aliasIndex, 1));
+					}
+				} catch (NumberFormatException e) {
+					Exceptions.ignore(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determine the next unused alias for an alias hint.
+	 * <p>
+	 * If the alias hint itself is already in use, an indexed alias is derived from it.
+	 *
+	 * @param aliasHint The alias hint to use.
+	 * @return The next unused alias (which is not yet registered).
+	 */
+	public synchronized String nextAlias(String aliasHint) {
+		String alias = aliasHint;
+
+		if (isInUse(aliasHint)) {
+			Matcher indexedAliasMatcher = INDEXED_ALIAS_PATTERN.matcher(aliasHint);
+			String indexedAliasBase = (indexedAliasMatcher.matches() ? indexedAliasMatcher.group(1) : aliasHint);
+			int aliasIndex = this.aliasIndexes.getOrDefault(indexedAliasBase, 1);
+
+			while (true) {
+				alias = String.format(INDEXED_ALIAS_FORMAT, indexedAliasBase, aliasIndex);
+				if (!isInUse(alias)) {
+					break;
+				}
+				aliasIndex++;
+			}
+			this.aliasIndexes.put(indexedAliasBase, aliasIndex);
+		}
+		return alias;
+	}
+
+	private static String aliasKey(String alias) {
+		return alias.toLowerCase(Locale.ROOT);
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.SegmentFile.SegmentRecord;
+import de.carne.certmgr.certs.io.CertReaders;
+import de.carne.certmgr.certs.io.IOResource;
+import de.carne.certmgr.certs.io.PEMCertReaderWriter;
+
+/**
+ * Read-only source of certificates consulted during issuer resolution (see
+ * {@link UserCertStore#addTrustLayer(Path)}).
+ * <p>
+ * A trust layer is loaded from a single certificate file (e.g. a PEM bundle), from a directory of certificate files
+ * (e.g. an OS CA directory) or from the home directory of another store. Only the certificates (CRT objects) of the
+ * source are considered. Identical certificates are only loaded once.
+ * <p>
+ * Trust layers are loaded and indexed once and are shared by all stores using the same source. A layer is reloaded as
+ * soon as its source's last modified time changes.
+ */
+final class TrustLayer {
+
+	private static final Log LOG = new Log();
+
+	private static final Map<Path, WeakReference<TrustLayer>> LAYERS = new HashMap<>();
+
+	private final Path source;
+
+	private final FileTime sourceTime;
+
+	private final Map<X500Principal, List<CertObjectHolder<X509Certificate>>> dnIndex = new HashMap<>();
+
+	private int size = 0;
+
+	private TrustLayer(Path source, FileTime sourceTime) {
+		this.source = source;
+		this.sourceTime = sourceTime;
+	}
+
+	/**
+	 * Get the trust layer for a specific source.
+	 *
+	 * @param source The source to get the layer for.
+	 * @return The trust layer for the given source.
+	 * @throws IOException if an I/O error occurs while loading the layer.
+	 */
+	static TrustLayer get(Path source) throws IOException {
+		Path normalizedSource = source.toAbsolutePath().normalize();
+		FileTime sourceTime = Files.getLastModifiedTime(normalizedSource);
+		TrustLayer layer;
+
+		synchronized (LAYERS) {
+			WeakReference<TrustLayer> layerReference = LAYERS.get(normalizedSource);
+
+			layer = (layerReference != null ? layerReference.get() : null);
+			if (layer == null || !layer.sourceTime.equals(sourceTime)) {
+				layer = new TrustLayer(normalizedSource, sourceTime);
+				layer.load();
+				LAYERS.put(normalizedSource, new WeakReference<>(layer));
+			}
+		}
+		return layer;
+	}
+
+	/**
+	 * Get this layer's source.
+	 *
+	 * @return This layer's source.
+	 */
+	Path source() {
+		return this.source;
+	}
+
+	/**
+	 * Get the number of certificates provided by this layer.
+	 *
+	 * @return The number of certificates provided by this layer.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Lookup the certificates of a specific subject.
+	 *
+	 * @param dn The subject DN to lookup.
+	 * @return The found certificates (may be empty).
+	 */
+	List<CertObjectHolder<X509Certificate>> lookup(X500Principal dn) {
+		List<CertObjectHolder<X509Certificate>> crtHolders = this.dnIndex.get(dn);
+
+		return (crtHolders != null ? Collections.unmodifiableList(crtHolders) : Collections.emptyList());
+	}
+
+	private void load() throws IOException {
+		LOG.info("Loading trust layer ''{0}''...", this.source);
+
+		Set<ByteBuffer> loadedDigests = new HashSet<>();
+
+		if (SegmentUserCertStoreHandler.isSegmentStore(this.source)) {
+			SegmentFile segment = SegmentFile.openReadOnly(this.source);
+
+			for (SegmentRecord record : segment.records()) {
+				if (record.type() == CertObjectType.CRT) {
+					try (IOResource<InputStream> in = new IOResource<>(new ByteArrayInputStream(segment.read(record)),
+							record.alias())) {
+						addCRT(this.source, PEMCertReaderWriter.readCRTBinary(in), loadedDigests);
+					}
+				}
+			}
+		} else {
+			for (Path file : sourceFiles()) {
+				try {
+					CertObjectStore certObjects = CertReaders.readFile(file, NoPassword.getInstance());
+
+					if (certObjects != null) {
+						for (CertObjectStore.Entry certObject : certObjects) {
+							if (certObject.type() == CertObjectType.CRT) {
+								addCRT(file, certObject.getCRT(), loadedDigests);
+							}
+						}
+					}
+				} catch (IOException e) {
+					LOG.warning(e, "Ignoring unreadable trust layer file ''{0}''", file);
+				}
+			}
+		}
+		LOG.info("Trust layer ''{0}'' loaded ({1} certificate(s))", this.source, this.size);
+	}
+
+	private List<Path> sourceFiles() throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		if (Files.isDirectory(this.source.resolve(PersistentUserCertStoreHandler.DIR_CRT))) {
+			files.addAll(PersistentUserCertStoreHandler.collectEntryFiles(
+					this.source.resolve(PersistentUserCertStoreHandler.DIR_CRT),
+					PersistentUserCertStoreHandler.EXTENSION_CRT, PersistentUserCertStoreHandler.EXTENSION_DER));
+		} else if (Files.isDirectory(this.source)) {
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(this.source)) {
+				for (Path file : directoryStream) {
+					if (Files.isRegularFile(file)) {
+						files.add(file);
+					}
+				}
+			}
+		} else {
+			files.add(this.source);
+		}
+		return files;
+	}
+
+	private void addCRT(Path file, X509Certificate crt, Set<ByteBuffer> loadedDigests) throws IOException {
+		CertObjectInfo crtInfo = CertObjectInfo.fromCRT(crt);
+
+		// Certificate directories usually contain the same certificate under different names
+		if (loadedDigests.add(ByteBuffer.wrap(crtInfo.contentDigest()))) {
+			this.dnIndex.computeIfAbsent(crtInfo.dn(), k -> new ArrayList<>())
+					.add(new TrustLayerCRTHolder(file, crt, crtInfo));
+			this.size++;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.source.toString();
+	}
+
+	private static class TrustLayerCRTHolder implements CertObjectHolder<X509Certificate> {
+
+		private final Path path;
+		private final X509Certificate crt;
+		private final CertObjectInfo info;
+
+		TrustLayerCRTHolder(Path path, X509Certificate crt, CertObjectInfo info) {
+			this.path = path;
+			this.crt = crt;
+			this.info = info;
+		}
+
+		@Override
+		@Nullable
+		public Path path() {
+			return this.path;
+		}
+
+		@Override
+		public X509Certificate get() throws IOException {
+			return this.crt;
+		}
+
+		@Override
+		@Nullable
+		public CertObjectInfo info() throws IOException {
+			return this.info;
+		}
+
+	}
+
+}
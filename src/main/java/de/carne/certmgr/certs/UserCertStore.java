@@ -18,25 +18,33 @@ package de.carne.certmgr.certs;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.PublicKey;
-import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -75,12 +83,61 @@ public final class UserCertStore {
 
 	private final UserCertStoreHandler storeHandler;
 
+	private final boolean lazy;
+
 	private final Map<UserCertStoreEntryId, Entry> storeEntries = new HashMap<>();
 
 	private final Map<Entry, Entry> issuerCache = new HashMap<>();
 
+	private final Map<Entry, Set<Entry>> issuedEntries = new HashMap<>();
+
+	private final Set<Entry> rootEntries = new HashSet<>();
+
+	private final Map<UserCertStoreEntry, Set<UserCertStoreEntry>> issuedEntriesSnapshots = new HashMap<>();
+
+	@Nullable
+	private Set<UserCertStoreEntry> rootEntriesSnapshot = null;
+
+	private final Map<X500Principal, Set<Entry>> dnIndex = new HashMap<>();
+
+	private final Map<String, Set<Entry>> publicKeyIndex = new HashMap<>();
+
+	private final Map<X500Principal, Set<Entry>> crlIssuerIndex = new HashMap<>();
+
+	// Entries with a public key are already covered by the public key index. Only entries solely identified by their
+	// CRL need to be checked via signature verification.
+	private final Set<Entry> unkeyedCRLEntries = new HashSet<>();
+
+	private final Map<X500Principal, Set<Entry>> issuerDNIndex = new HashMap<>();
+
+	private final Map<ByteBuffer, Set<Entry>> contentIndex = new HashMap<>();
+
+	private final Map<X500Principal, Entry> externalIssuers = new HashMap<>();
+
+	private final List<TrustLayer> trustLayers = new ArrayList<>();
+
+	private final Map<CertObjectHolder<X509Certificate>, Entry> trustLayerEntries = new HashMap<>();
+
+	private final Set<Entry> addedEntries = new HashSet<>();
+
+	private final Set<Entry> keyedEntries = new HashSet<>();
+
+	private final Set<Entry> removedEntries = new HashSet<>();
+
+	private final List<UserCertStoreChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+	private int batchDepth = 0;
+
+	@Nullable
+	private volatile DecryptedKeyCache keyCache = null;
+
 	private UserCertStore(UserCertStoreHandler storeHandler) {
+		this(storeHandler, false);
+	}
+
+	private UserCertStore(UserCertStoreHandler storeHandler, boolean lazy) {
 		this.storeHandler = storeHandler;
+		this.lazy = lazy;
 	}
 
 	/**
@@ -104,6 +161,81 @@ public final class UserCertStore {
 		return openStore(createdStoreHome);
 	}
 
+	/**
+	 * Create a certificate store backed up by a local directory using a specific layout.
+	 * <p>
+	 * The created certificate store supports read and write access.
+	 *
+	 * @param storeHome The directory path to use for certificate storage.
+	 * @param layout The on-disk layout to use.
+	 * @return The created certificate store.
+	 * @throws FileAlreadyExistsException if the directory path already exists.
+	 * @throws IOException if an I/O error occurs while creating the store.
+	 * @see PersistentUserCertStoreHandler
+	 * @see SegmentUserCertStoreHandler
+	 */
+	public static UserCertStore createStore(Path storeHome, UserCertStoreLayout layout) throws IOException {
+		if (Files.exists(storeHome)) {
+			throw new FileAlreadyExistsException("Store home path already exists: " + storeHome);
+		}
+
+		Path createdStoreHome = Files.createDirectories(storeHome, FileAttributes.userDirectoryDefault(storeHome));
+		UserCertStore store;
+
+		if (layout == UserCertStoreLayout.SEGMENT) {
+			store = new UserCertStore(SegmentUserCertStoreHandler.create(createdStoreHome), false);
+		} else {
+			PersistentUserCertStoreHandler.convertLayout(createdStoreHome,
+					layout == UserCertStoreLayout.SHARDED_DIRECTORY);
+			store = openStore(createdStoreHome);
+		}
+		return store;
+	}
+
+	/**
+	 * Convert an existing certificate store to a specific on-disk layout.
+	 * <p>
+	 * The store must not be opened while it is converted. Nothing happens if the store already uses the requested
+	 * layout.
+	 *
+	 * @param storeHome The directory path of the store to convert.
+	 * @param layout The on-disk layout to convert to.
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	public static void convertStore(Path storeHome, UserCertStoreLayout layout) throws IOException {
+		boolean segmentStore = SegmentUserCertStoreHandler.isSegmentStore(storeHome);
+
+		if (layout == UserCertStoreLayout.SEGMENT) {
+			if (!segmentStore) {
+				SegmentUserCertStoreHandler.convertFromDirectoryLayout(storeHome);
+			}
+		} else {
+			if (segmentStore) {
+				SegmentUserCertStoreHandler.convertToDirectoryLayout(storeHome);
+			}
+			PersistentUserCertStoreHandler.convertLayout(storeHome, layout == UserCertStoreLayout.SHARDED_DIRECTORY);
+		}
+	}
+
+	/**
+	 * Convert an existing directory based certificate store to a specific storage format.
+	 * <p>
+	 * The store must not be opened while it is converted. Nothing happens if the store already uses the requested
+	 * format.
+	 *
+	 * @param storeHome The directory path of the store to convert.
+	 * @param format The storage format to convert to.
+	 * @param password The callback to use for querying the key passwords.
+	 * @throws IOException if an I/O error occurs during the conversion.
+	 */
+	public static void convertStore(Path storeHome, UserCertStoreFormat format, PasswordCallback password)
+			throws IOException {
+		if (SegmentUserCertStoreHandler.isSegmentStore(storeHome)) {
+			throw new IOException("Storage format conversion is not supported for segment stores: " + storeHome);
+		}
+		PersistentUserCertStoreHandler.convertFormat(storeHome, format, password);
+	}
+
 	/**
 	 * Open a certificate store previously created via a {@link #createStore(Path)} call.
 	 *
@@ -112,10 +244,43 @@ public final class UserCertStore {
 	 * @throws IOException if an I/O error occurs while opening the store.
 	 */
 	public static UserCertStore openStore(Path storeHome) throws IOException {
-		PersistentUserCertStoreHandler persistentStoreHandler = new PersistentUserCertStoreHandler(storeHome);
+		return openStore(storeHome, false);
+	}
+
+	/**
+	 * Open a certificate store previously created via a {@link #createStore(Path)} call.
+	 * <p>
+	 * The store's on-disk layout (see {@link UserCertStoreLayout}) is detected automatically.
+	 * <p>
+	 * If lazy mode is requested, the store entries are set up using the store's metadata index and the actual
+	 * certificate objects are not decoded until they are accessed. Issuers are linked by comparing the Authority and
+	 * Subject Key Identifiers (or, if these are not available, the Distinguished Names) of the entries. Signatures are
+	 * only verified if an issuer cannot be determined unambiguously this way.
+	 *
+	 * @param storeHome The directory path to use for certificate storage.
+	 * @param lazy Whether to open the store in lazy mode ({@code true}) or to verify all issuer signatures while
+	 *        opening the store ({@code false}).
+	 * @return The opened certificate store.
+	 * @throws IOException if an I/O error occurs while opening the store.
+	 * @see #decodedObjectCount()
+	 */
+	public static UserCertStore openStore(Path storeHome, boolean lazy) throws IOException {
+		UserCertStoreHandler persistentStoreHandler;
+		Map<UserCertStoreEntryId, PersistentEntry> persistentEntries;
+
+		if (SegmentUserCertStoreHandler.isSegmentStore(storeHome)) {
+			SegmentUserCertStoreHandler segmentStoreHandler = SegmentUserCertStoreHandler.open(storeHome);
+
+			persistentEntries = segmentStoreHandler.scanStore();
+			persistentStoreHandler = segmentStoreHandler;
+		} else {
+			PersistentUserCertStoreHandler directoryStoreHandler = new PersistentUserCertStoreHandler(storeHome);
+
+			persistentEntries = directoryStoreHandler.scanStore();
+			persistentStoreHandler = directoryStoreHandler;
+		}
 
-		Map<UserCertStoreEntryId, PersistentEntry> persistentEntries = persistentStoreHandler.scanStore();
-		UserCertStore store = new UserCertStore(persistentStoreHandler);
+		UserCertStore store = new UserCertStore(persistentStoreHandler, lazy);
 
 		store.loadPersistentEntries(persistentEntries);
 		return store;
@@ -145,7 +310,16 @@ public final class UserCertStore {
 	 * @throws IOException if an I/O error occurs while reading/decoding certificate data.
 	 */
 	public static UserCertStore createFromFile(Path file, PasswordCallback password) throws IOException {
-		return createFromFiles(Arrays.asList(file), password);
+		UserCertStore store = new UserCertStore(new TransientUserCertStoreHandler());
+
+		try {
+			if (!store.streamCertObjects(file, password)) {
+				LOG.warning("Ignoring file ''{0}'' due to unrecognized file format or missing password", file);
+			}
+		} catch (IOException e) {
+			LOG.warning(e, "Ignoring file ''{0}'' due to read error: {1}", file, e.getLocalizedMessage());
+		}
+		return store;
 	}
 
 	/**
@@ -156,24 +330,34 @@ public final class UserCertStore {
 	 * @return The created certificate store.
 	 * @throws PasswordRequiredException if no valid password was given.
 	 * @throws IOException if an I/O error occurs while reading/decoding certificate data.
+	 * @see #createFromFiles(Collection, PasswordCallback, FileImportMonitor)
 	 */
 	public static UserCertStore createFromFiles(Collection<Path> files, PasswordCallback password) throws IOException {
-		List<CertObjectStore> certObjectStores = new ArrayList<>();
+		return createFromFiles(files, password, null);
+	}
 
-		for (Path file : files) {
-			try {
-				CertObjectStore certObjectStore = CertReaders.readFile(file, password);
+	/**
+	 * Create a certificate store backed up by multiple files.
+	 * <p>
+	 * The files are read concurrently and files with identical content are decoded only once. Password queries are
+	 * serialized, hence the submitted password callback is never invoked concurrently. The read certificate objects are
+	 * merged into the created store as soon as they have been decoded; issuers are resolved once after all files have
+	 * been read.
+	 *
+	 * @param files The files providing the certificate data.
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @param monitor The optional monitor to report the progress to and to poll for cancellation.
+	 * @return The created certificate store.
+	 * @throws PasswordRequiredException if no valid password was given.
+	 * @throws InterruptedIOException if the import has been cancelled.
+	 * @throws IOException if an I/O error occurs while reading/decoding certificate data.
+	 */
+	public static UserCertStore createFromFiles(Collection<Path> files, PasswordCallback password,
+			@Nullable FileImportMonitor monitor) throws IOException {
+		UserCertStore store = new UserCertStore(new TransientUserCertStoreHandler());
 
-				if (certObjectStore != null) {
-					certObjectStores.add(certObjectStore);
-				} else {
-					LOG.warning("Ignoring file ''{0}'' due to unrecognized file format or missing password", file);
-				}
-			} catch (IOException e) {
-				LOG.warning(e, "Ignoring file ''{0}'' due to read error: {1}", file, e.getLocalizedMessage());
-			}
-		}
-		return createFromCertObjects(certObjectStores.toArray(new CertObjectStore[certObjectStores.size()]));
+		store.importFiles(new FileImportPipeline(password, monitor), files);
+		return store;
 	}
 
 	/**
@@ -248,6 +432,29 @@ public final class UserCertStore {
 		return this.storeHandler.storeHome();
 	}
 
+	/**
+	 * Get the number of certificate objects decoded from this store's storage so far.
+	 * <p>
+	 * Transient stores always report {@code 0} as their certificate objects are decoded prior to creating the store.
+	 *
+	 * @return The number of certificate objects decoded from this store's storage so far.
+	 * @see #openStore(Path, boolean)
+	 */
+	public int decodedObjectCount() {
+		return this.storeHandler.decodedObjectCount();
+	}
+
+	/**
+	 * Get the statistics of this store's certificate object cache.
+	 * <p>
+	 * Transient stores do not use a cache and always report {@link CertObjectCacheStatistics#NONE}.
+	 *
+	 * @return The statistics of this store's certificate object cache.
+	 */
+	public CertObjectCacheStatistics cacheStatistics() {
+		return this.storeHandler.cacheStatistics();
+	}
+
 	/**
 	 * Get this store's name.
 	 * <p>
@@ -322,11 +529,17 @@ public final class UserCertStore {
 				request.getRevokeEntries(), storeEntry.dn(), storeEntry.getKey(password), request.signatureAlgorithm());
 		CertObjectHolder<X509CRL> crlHolder = this.storeHandler.createCRL(storeEntry.id(), crl);
 
+		// Drop the replaced CRL's content digest; indexEntry re-adds the digests of the current objects
+		unindexContent(storeEntry);
 		storeEntry.setCRL(crlHolder);
+		indexEntry(storeEntry);
 	}
 
 	/**
 	 * Import an store entry from another store by merging the entry's certificate objects.
+	 * <p>
+	 * The alias hint is used as is, unless an alias equal to it (ignoring case) is already in use. In the latter case
+	 * an indexed alias is derived from it.
 	 *
 	 * @param entry The store entry to merge.
 	 * @param newPassword The password callback to use for new password querying.
@@ -337,25 +550,102 @@ public final class UserCertStore {
 	@Nullable
 	public UserCertStoreEntry importEntry(UserCertStoreEntry entry, PasswordCallback newPassword, String aliasHint)
 			throws IOException {
-		CertObjectStore certObjects = new CertObjectStore();
-		String entryAlias = entry.id().getAlias();
+		Set<UserCertStoreEntry> mergedEntries = importEntries(Collections.singletonList(entry), newPassword, aliasHint)
+				.get(0).mergedEntries();
 
-		if (entry.hasCRT()) {
-			certObjects.addCRT(entryAlias, entry.getCRT());
-		}
-		if (entry.hasKey()) {
-			certObjects.addKey(entryAlias, entry.getKey());
-		}
-		if (entry.hasCSR()) {
-			certObjects.addCSR(entryAlias, entry.getCSR());
-		}
-		if (entry.hasCRL()) {
-			certObjects.addCRL(entryAlias, entry.getCRL());
+		return (!mergedEntries.isEmpty() ? mergedEntries.iterator().next() : null);
+	}
+
+	/**
+	 * Import multiple store entries from other stores by merging the entries' certificate objects.
+	 * <p>
+	 * All entries are merged at once (see {@link #mergeCertObjects(Collection, PasswordCallback, String)}).
+	 *
+	 * @param entries The store entries to merge.
+	 * @param newPassword The password callback to use for new password querying.
+	 * @param aliasHint The preferred alias for entry id generation.
+	 * @return The merge reports (one per submitted entry in submission order).
+	 * @throws IOException if an I/O error occurs during import.
+	 */
+	public List<CertObjectMergeReport> importEntries(Collection<UserCertStoreEntry> entries,
+			PasswordCallback newPassword, String aliasHint) throws IOException {
+		List<CertObjectStore> certObjectStores = new ArrayList<>(entries.size());
+
+		for (UserCertStoreEntry entry : entries) {
+			CertObjectStore certObjects = new CertObjectStore();
+			String entryAlias = entry.id().getAlias();
+
+			if (entry.hasCRT()) {
+				certObjects.addCRT(entryAlias, entry.getCRT());
+			}
+			if (entry.hasKey()) {
+				certObjects.addKey(entryAlias, entry.getKey());
+			}
+			if (entry.hasCSR()) {
+				certObjects.addCSR(entryAlias, entry.getCSR());
+			}
+			if (entry.hasCRL()) {
+				certObjects.addCRL(entryAlias, entry.getCRL());
+			}
+			certObjectStores.add(certObjects);
 		}
+		return mergeCertObjects(certObjectStores, newPassword, aliasHint);
+	}
 
-		Set<UserCertStoreEntry> mergedEntries = mergeCertObjects(certObjects, newPassword, aliasHint);
+	/**
+	 * Merge multiple sets of certificate objects into this store.
+	 * <p>
+	 * The certificate objects of all sources are merged within a single batch and while holding the store lock. The
+	 * CRT and CSR objects of all sources are merged first, hence Key and CRL objects may be matched against entries
+	 * provided by any of the sources. The entries' issuers are resolved only once after all objects have been merged.
+	 *
+	 * @param certObjectStores The certificate objects to merge.
+	 * @param newPassword The password callback to use for new password querying.
+	 * @param aliasHint The preferred alias for entry id generation.
+	 * @return The merge reports (one per submitted source in submission order).
+	 * @throws IOException if an I/O error occurs during the merge.
+	 */
+	public synchronized List<CertObjectMergeReport> mergeCertObjects(Collection<CertObjectStore> certObjectStores,
+			PasswordCallback newPassword, @Nullable String aliasHint) throws IOException {
+		List<CertObjectMergeReport> mergeReports = new ArrayList<>(certObjectStores.size());
 
-		return (!mergedEntries.isEmpty() ? mergedEntries.iterator().next() : null);
+		beginBatch();
+		try {
+			try {
+				// First merge CRT and CSR objects as they provide the entry's DN
+				for (CertObjectStore certObjects : certObjectStores) {
+					CertObjectMergeReport mergeReport = new CertObjectMergeReport();
+
+					for (CertObjectStore.Entry certObject : certObjects) {
+						if (certObject.type() == CertObjectType.CRT) {
+							mergeReport.record(mergeX509Certificate(certObject.getCRT(), aliasHint));
+						} else if (certObject.type() == CertObjectType.CSR) {
+							mergeReport.record(mergePKCS10CertificateRequest(certObject.getCSR(), aliasHint));
+						}
+					}
+					mergeReports.add(mergeReport);
+				}
+
+				Iterator<CertObjectMergeReport> mergeReportsIterator = mergeReports.iterator();
+
+				for (CertObjectStore certObjects : certObjectStores) {
+					CertObjectMergeReport mergeReport = mergeReportsIterator.next();
+
+					for (CertObjectStore.Entry certObject : certObjects) {
+						if (certObject.type() == CertObjectType.KEY) {
+							mergeReport.record(mergeKey(certObject.getKey(), newPassword));
+						} else if (certObject.type() == CertObjectType.CRL) {
+							mergeReport.record(mergeX509CRL(certObject.getCRL(), aliasHint));
+						}
+					}
+				}
+			} finally {
+				resolveIssuers();
+			}
+		} finally {
+			commitBatch();
+		}
+		return mergeReports;
 	}
 
 	/**
@@ -365,165 +655,554 @@ public final class UserCertStore {
 	 * @throws IOException if an I/O error occurs during deletion.
 	 */
 	public synchronized void deleteEntry(UserCertStoreEntryId entryId) throws IOException {
-		if (!this.storeEntries.containsKey(entryId)) {
+		Entry deleteEntry = this.storeEntries.get(entryId);
+
+		if (deleteEntry == null || deleteEntry.isTrustLayerEntry()) {
 			throw new IllegalArgumentException("Invalid entry: " + entryId);
 		}
 		this.storeEntries.remove(entryId);
+		unindexEntry(deleteEntry);
 		this.storeHandler.deleteEntry(entryId);
-		resetIssuers();
+		deleteEntry.dropCachedKey();
+		resolveIssuers();
 	}
 
 	/**
-	 * Get this store's entry count.
+	 * Collapse duplicate store entries.
+	 * <p>
+	 * Store entries holding an identical certificate object (same DER encoding) are considered duplicates. Of every set
+	 * of duplicates the entry holding the most objects is kept. The other entries are deleted, provided every object
+	 * they hold is also held by the kept entry.
 	 *
-	 * @return This store's entry count.
+	 * @return The number of deleted entries.
+	 * @throws IOException if an I/O error occurs while deleting the duplicate entries.
 	 */
-	public synchronized int size() {
-		return this.storeEntries.size();
+	public synchronized int deduplicateEntries() throws IOException {
+		List<List<Entry>> duplicateEntrySets = new ArrayList<>();
+
+		for (Set<Entry> contentEntries : this.contentIndex.values()) {
+			if (contentEntries.size() > 1) {
+				duplicateEntrySets.add(new ArrayList<>(contentEntries));
+			}
+		}
+
+		Comparator<Entry> keepOrder = Comparator.comparingInt(Entry::objectCount).reversed()
+				.thenComparing(entry -> entry.id().toString());
+		int deletedEntryCount = 0;
+
+		beginBatch();
+		try {
+			for (List<Entry> duplicateEntries : duplicateEntrySets) {
+				// Skip the entries already deleted while processing a previous set
+				duplicateEntries.removeIf(entry -> this.storeEntries.get(entry.id()) != entry);
+				duplicateEntries.sort(keepOrder);
+
+				Iterator<Entry> duplicateEntriesIterator = duplicateEntries.iterator();
+				Entry keepEntry = (duplicateEntriesIterator.hasNext() ? duplicateEntriesIterator.next() : null);
+
+				while (keepEntry != null && duplicateEntriesIterator.hasNext()) {
+					Entry duplicateEntry = duplicateEntriesIterator.next();
+
+					if (keepEntry.covers(duplicateEntry)) {
+						LOG.info("Deleting duplicate entry ''{0}'' (keeping ''{1}'')", duplicateEntry, keepEntry);
+						deleteEntry(duplicateEntry.id());
+						deletedEntryCount++;
+					}
+				}
+			}
+		} finally {
+			commitBatch();
+		}
+		return deletedEntryCount;
 	}
 
 	/**
-	 * Get this store's entries.
+	 * Add a read-only trust layer to this store.
+	 * <p>
+	 * A trust layer provides additional issuer certificates and is either a single certificate file (e.g. a PEM
+	 * bundle), a directory of certificate files (e.g. an OS CA directory) or the home directory of another store.
+	 * Issuers which cannot be resolved within this store are looked up in the trust layers (in the order the layers
+	 * have been added) before an external issuer entry is created. Trust layer certificates only become part of this
+	 * store if they are referenced as an issuer and they are never written to this store's storage.
+	 * <p>
+	 * Trust layers are loaded once and are shared by all stores using the same source.
 	 *
-	 * @return This store's entries.
+	 * @param source The trust layer source to add.
+	 * @return {@code true} if the trust layer has been added; {@code false} if it has already been added before.
+	 * @throws IOException if an I/O error occurs while loading the trust layer.
+	 * @see #removeTrustLayer(Path)
 	 */
-	public synchronized Set<UserCertStoreEntry> getEntries() {
-		return new HashSet<>(this.storeEntries.values());
+	public synchronized boolean addTrustLayer(Path source) throws IOException {
+		TrustLayer trustLayer = TrustLayer.get(source);
+		boolean added = false;
+
+		if (findTrustLayer(trustLayer.source()) == null) {
+			this.trustLayers.add(trustLayer);
+			// Only the entries currently referring to an external issuer may be affected by the new layer
+			for (Entry externalIssuer : this.externalIssuers.values()) {
+				this.addedEntries.addAll(lookupIndex(this.issuedEntries, externalIssuer));
+			}
+			resolveIssuers();
+			added = true;
+		}
+		return added;
 	}
 
 	/**
-	 * Get this store's root entries.
+	 * Remove a trust layer from this store.
+	 * <p>
+	 * The issuers provided by the removed trust layer are resolved again.
 	 *
-	 * @return This store's root entries.
+	 * @param source The source of the trust layer to remove.
+	 * @return {@code true} if the trust layer has been removed; {@code false} if it has not been added before.
+	 * @throws IOException if an I/O error occurs while resolving the affected issuers.
+	 * @see #addTrustLayer(Path)
 	 */
-	public synchronized Set<UserCertStoreEntry> getRootEntries() {
-		Set<UserCertStoreEntry> rootEntries = new HashSet<>();
+	public synchronized boolean removeTrustLayer(Path source) throws IOException {
+		TrustLayer trustLayer = findTrustLayer(source.toAbsolutePath().normalize());
+		boolean removed = false;
+
+		if (trustLayer != null) {
+			this.trustLayers.remove(trustLayer);
+
+			Iterator<Entry> trustLayerEntriesIterator = this.trustLayerEntries.values().iterator();
+
+			while (trustLayerEntriesIterator.hasNext()) {
+				TrustLayerEntry trustLayerEntry = (TrustLayerEntry) trustLayerEntriesIterator.next();
 
-		for (Entry entry : this.storeEntries.values()) {
-			if (entry.isSelfSigned()) {
-				rootEntries.add(entry);
+				if (trustLayerEntry.trustLayer() == trustLayer) {
+					trustLayerEntriesIterator.remove();
+					this.storeEntries.remove(trustLayerEntry.id());
+					this.removedEntries.add(trustLayerEntry);
+				}
 			}
+			resolveIssuers();
+			removed = true;
 		}
-		return rootEntries;
+		return removed;
 	}
 
 	/**
-	 * Get this store's entries which are issued by a specific store entry.
+	 * Get the sources of this store's trust layers.
 	 *
-	 * @param entry The store entry to get the issued entries for.
-	 * @return The store entries which are issued by the submitted store entry.
+	 * @return The sources of this store's trust layers (in the order the layers are consulted).
+	 * @see #addTrustLayer(Path)
 	 */
-	public synchronized Set<UserCertStoreEntry> getIssuedEntries(UserCertStoreEntry entry) {
-		Set<UserCertStoreEntry> issuedEntries = new HashSet<>();
+	public synchronized List<Path> getTrustLayers() {
+		List<Path> sources = new ArrayList<>(this.trustLayers.size());
 
-		for (Entry issuedEntry : this.storeEntries.values()) {
-			if (!entry.equals(issuedEntry) && issuedEntry.issuer().equals(entry)) {
-				issuedEntries.add(issuedEntry);
-			}
+		for (TrustLayer trustLayer : this.trustLayers) {
+			sources.add(trustLayer.source());
 		}
-		return issuedEntries;
+		return sources;
 	}
 
-	private synchronized void loadPersistentEntries(Map<UserCertStoreEntryId, PersistentEntry> entries)
-			throws IOException {
-		for (Map.Entry<UserCertStoreEntryId, PersistentEntry> persistentEntryPathsEntry : entries.entrySet()) {
-			UserCertStoreEntryId entryId = persistentEntryPathsEntry.getKey();
-			PersistentEntry entry = persistentEntryPathsEntry.getValue();
-			CertObjectHolder<X509Certificate> crtHolder = entry.crt();
-			SecureCertObjectHolder<KeyPair> keyHolder = entry.key();
-			CertObjectHolder<PKCS10CertificateRequest> csrHolder = entry.csr();
-			CertObjectHolder<X509CRL> crlHolder = entry.crl();
-			X500Principal entryDN = null;
-
-			if (crtHolder != null) {
-				entryDN = crtHolder.get().getSubjectX500Principal();
-			} else if (csrHolder != null) {
-				entryDN = csrHolder.get().getSubjectX500Principal();
-			} else if (crlHolder != null) {
-				entryDN = crlHolder.get().getIssuerX500Principal();
-			} else {
-				LOG.warning("Ignoring incompliete store entry ''{0}''", entryId);
-			}
-			if (entryDN != null) {
-				Entry storeEntry = new Entry(entryId, entryDN, crtHolder, keyHolder, csrHolder, crlHolder);
+	@Nullable
+	private TrustLayer findTrustLayer(Path source) {
+		TrustLayer foundTrustLayer = null;
 
-				this.storeEntries.put(entryId, storeEntry);
+		for (TrustLayer trustLayer : this.trustLayers) {
+			if (trustLayer.source().equals(source)) {
+				foundTrustLayer = trustLayer;
+				break;
 			}
 		}
-		resetIssuers();
+		return foundTrustLayer;
 	}
 
-	private static UserCertStore createFromCertObjects(CertObjectStore... certObjectStores) throws IOException {
-		UserCertStore store = new UserCertStore(new TransientUserCertStoreHandler());
+	/**
+	 * Enable caching of decrypted keys for this store.
+	 * <p>
+	 * Once enabled, keys decrypted via {@link UserCertStoreEntry#getKey(PasswordCallback)} are cached and subsequent
+	 * calls return the cached key without accessing the store or querying the password again. A cached key is dropped
+	 * as soon as it has not been accessed for the given idle timeout or has been cached for the given maximum lifetime.
+	 * Calling this function again replaces the current cache (and drops all currently cached keys).
+	 *
+	 * @param idleTimeout The time after which a cached key is dropped if it is not accessed.
+	 * @param maxLifetime The maximum time a key is cached.
+	 * @see #purgeKeyCache()
+	 * @see #disableKeyCache()
+	 */
+	public synchronized void enableKeyCache(Duration idleTimeout, Duration maxLifetime) {
+		DecryptedKeyCache previousKeyCache = this.keyCache;
 
-		for (CertObjectStore certObjectStore : certObjectStores) {
-			if (certObjectStore != null && certObjectStore.size() > 0) {
-				store.mergeCertObjects(certObjectStore, NoPassword.getInstance(), null);
-			}
+		this.keyCache = new DecryptedKeyCache(idleTimeout, maxLifetime);
+		if (previousKeyCache != null) {
+			previousKeyCache.close();
 		}
-		return store;
 	}
 
-	private synchronized Set<UserCertStoreEntry> mergeCertObjects(CertObjectStore certObjects,
-			PasswordCallback newPassword, @Nullable String aliasHint) throws IOException {
-		Set<UserCertStoreEntry> mergedEntries = new HashSet<>();
-
-		try {
-			// First merge CRT and CSR objects as they provide the entry's DN
-			for (CertObjectStore.Entry certObject : certObjects) {
-				UserCertStoreEntry mergedEntry = null;
-
-				if (certObject.type() == CertObjectType.CRT) {
-					mergedEntry = mergeX509Certificate(certObject.getCRT(), aliasHint);
-				} else if (certObject.type() == CertObjectType.CSR) {
-					mergedEntry = mergePKCS10CertificateRequest(certObject.getCSR(), aliasHint);
-				}
-				if (mergedEntry != null) {
-					mergedEntries.add(mergedEntry);
-				}
-			}
-			for (CertObjectStore.Entry certObject : certObjects) {
-				UserCertStoreEntry mergedEntry = null;
+	/**
+	 * Disable caching of decrypted keys for this store and drop all currently cached keys.
+	 */
+	public synchronized void disableKeyCache() {
+		DecryptedKeyCache previousKeyCache = this.keyCache;
 
-				if (certObject.type() == CertObjectType.KEY) {
-					mergedEntry = mergeKey(certObject.getKey(), newPassword);
-				} else if (certObject.type() == CertObjectType.CRL) {
-					mergedEntry = mergeX509CRL(certObject.getCRL(), aliasHint);
-				}
-				if (mergedEntry != null) {
-					mergedEntries.add(mergedEntry);
-				}
-			}
-		} finally {
-			resetIssuers();
+		this.keyCache = null;
+		if (previousKeyCache != null) {
+			previousKeyCache.close();
 		}
-		return mergedEntries;
 	}
 
-	private Entry mergeX509Certificate(X509Certificate crt, @Nullable String aliasHint) throws IOException {
-		Entry matchingEntry = matchX509Certificate(crt);
-
-		if (matchingEntry != null) {
-			if (!matchingEntry.hasCRT()) {
-				CertObjectHolder<X509Certificate> crtHolder = this.storeHandler.createCRT(matchingEntry.id(), crt);
-
-				matchingEntry.setCRT(crtHolder);
-			} else {
-				LOG.debug("Skipping duplicate CRT ''{0}''.", matchingEntry);
-			}
-		} else {
-			UserCertStoreEntryId entryId = this.storeHandler.nextEntryId(aliasHint);
-			CertObjectHolder<X509Certificate> crtHolder = this.storeHandler.createCRT(entryId, crt);
+	/**
+	 * Drop all currently cached decrypted keys.
+	 * <p>
+	 * Key caching remains enabled.
+	 */
+	public void purgeKeyCache() {
+		DecryptedKeyCache checkedKeyCache = this.keyCache;
 
-			matchingEntry = new Entry(entryId, crt.getSubjectX500Principal(), crtHolder, null, null, null);
-			this.storeEntries.put(entryId, matchingEntry);
+		if (checkedKeyCache != null) {
+			checkedKeyCache.purge();
 		}
-		return matchingEntry;
 	}
 
-	@Nullable
-	private Entry mergeKey(KeyPair key, PasswordCallback newPassword) throws IOException {
-		Entry matchingEntry = matchKey(key);
+	/**
+	 * Get the number of currently cached decrypted keys.
+	 *
+	 * @return The number of currently cached decrypted keys.
+	 * @see #enableKeyCache(Duration, Duration)
+	 */
+	public int cachedKeyCount() {
+		DecryptedKeyCache checkedKeyCache = this.keyCache;
+
+		return (checkedKeyCache != null ? checkedKeyCache.size() : 0);
+	}
+
+	/**
+	 * Begin a batch of store mutations.
+	 * <p>
+	 * Within a batch persistent stores may write the mutated certificate objects in the background. The written objects
+	 * are only guaranteed to be on disk after the batch has been committed via {@link #commitBatch()}. Batches may be
+	 * nested; only committing the outermost batch makes the mutations durable. Every {@link #beginBatch()} call must be
+	 * followed by a corresponding {@link #commitBatch()} call.
+	 *
+	 * @see #flush()
+	 */
+	public synchronized void beginBatch() {
+		if (this.batchDepth == 0) {
+			this.storeHandler.beginBatch();
+		}
+		this.batchDepth++;
+	}
+
+	/**
+	 * Wait until all store mutations of the current batch have been written.
+	 * <p>
+	 * In contrast to {@link #commitBatch()} the current batch remains active.
+	 *
+	 * @throws IOException if an I/O error occurred while writing any of the mutations.
+	 */
+	public void flush() throws IOException {
+		this.storeHandler.flushBatch();
+	}
+
+	/**
+	 * Commit a batch of store mutations started via {@link #beginBatch()}.
+	 *
+	 * @throws IOException if an I/O error occurred while writing any of the batch's mutations.
+	 */
+	public synchronized void commitBatch() throws IOException {
+		if (this.batchDepth <= 0) {
+			throw new IllegalStateException("No active batch");
+		}
+		this.batchDepth--;
+		if (this.batchDepth == 0) {
+			this.storeHandler.commitBatch();
+		}
+	}
+
+	/**
+	 * Add a listener to be notified about processed external changes.
+	 *
+	 * @param listener The listener to add.
+	 * @see #processChanges()
+	 */
+	public void addChangeListener(UserCertStoreChangeListener listener) {
+		this.changeListeners.add(listener);
+	}
+
+	/**
+	 * Remove a previously added change listener.
+	 *
+	 * @param listener The listener to remove.
+	 */
+	public void removeChangeListener(UserCertStoreChangeListener listener) {
+		this.changeListeners.remove(listener);
+	}
+
+	/**
+	 * Process any external changes of this store's storage.
+	 * <p>
+	 * Only the entries affected by the changes are reloaded and only these entries' issuers are re-resolved. If any
+	 * entry has been changed, the registered {@linkplain UserCertStoreChangeListener} are notified afterwards.
+	 * <p>
+	 * External changes are only detected for persistent stores on file systems supporting file watching. For all other
+	 * stores this function does nothing.
+	 *
+	 * @throws IOException if an I/O error occurs while reloading the changed entries.
+	 */
+	public void processChanges() throws IOException {
+		Set<UserCertStoreEntry> addedEntries = new HashSet<>();
+		Set<UserCertStoreEntry> updatedEntries = new HashSet<>();
+		Set<UserCertStoreEntry> removedEntries = new HashSet<>();
+
+		synchronized (this) {
+			List<UserCertStoreEntryId> knownIds = new ArrayList<>();
+
+			for (Entry entry : this.storeEntries.values()) {
+				if (!entry.isExternal()) {
+					knownIds.add(entry.id());
+				}
+			}
+
+			Set<UserCertStoreEntryId> changedIds = this.storeHandler.pollChangedEntryIds(knownIds);
+
+			try {
+				for (UserCertStoreEntryId changedId : changedIds) {
+					reloadEntry(changedId, addedEntries, updatedEntries, removedEntries);
+				}
+			} finally {
+				resolveIssuers();
+			}
+		}
+		if (!addedEntries.isEmpty() || !updatedEntries.isEmpty() || !removedEntries.isEmpty()) {
+			LOG.info("Processed store changes (added: {0}, updated: {1}, removed: {2})", addedEntries.size(),
+					updatedEntries.size(), removedEntries.size());
+
+			for (UserCertStoreChangeListener changeListener : this.changeListeners) {
+				changeListener.storeChanged(this, addedEntries, updatedEntries, removedEntries);
+			}
+		}
+	}
+
+	private void reloadEntry(UserCertStoreEntryId entryId, Set<UserCertStoreEntry> addedEntries,
+			Set<UserCertStoreEntry> updatedEntries, Set<UserCertStoreEntry> removedEntries) throws IOException {
+		Entry currentEntry = this.storeEntries.get(entryId);
+		PersistentEntry reloadedEntry = this.storeHandler.reloadEntry(entryId);
+		Entry newEntry = (reloadedEntry != null ? newPersistentEntry(entryId, reloadedEntry) : null);
+
+		if (currentEntry != null && newEntry != null) {
+			if (currentEntry.isEquivalent(newEntry)) {
+				unindexContent(currentEntry);
+				currentEntry.reload(newEntry);
+				indexContent(currentEntry);
+			} else {
+				// Keep the entry object and only rebuild its indexes; its issuer links are re-resolved afterwards
+				unindexEntry(currentEntry);
+				currentEntry.reload(newEntry);
+				currentEntry.resetIndexKeys();
+				indexEntry(currentEntry);
+			}
+			updatedEntries.add(currentEntry);
+		} else if (currentEntry != null) {
+			this.storeEntries.remove(entryId);
+			unindexEntry(currentEntry);
+			removedEntries.add(currentEntry);
+		} else if (newEntry != null) {
+			this.storeEntries.put(entryId, newEntry);
+			indexEntry(newEntry);
+			addedEntries.add(newEntry);
+		}
+	}
+
+	/**
+	 * Get this store's entry count.
+	 *
+	 * @return This store's entry count.
+	 */
+	public synchronized int size() {
+		return this.storeEntries.size();
+	}
+
+	/**
+	 * Get this store's entries.
+	 *
+	 * @return This store's entries.
+	 */
+	public synchronized Set<UserCertStoreEntry> getEntries() {
+		return new HashSet<>(this.storeEntries.values());
+	}
+
+	/**
+	 * Get this store's root entries.
+	 * <p>
+	 * The returned set is an unmodifiable snapshot which is not affected by subsequent store modifications.
+	 *
+	 * @return This store's root entries.
+	 */
+	public synchronized Set<UserCertStoreEntry> getRootEntries() {
+		Set<UserCertStoreEntry> rootEntriesSnapshot = this.rootEntriesSnapshot;
+
+		if (rootEntriesSnapshot == null) {
+			rootEntriesSnapshot = Collections.unmodifiableSet(new HashSet<>(this.rootEntries));
+			this.rootEntriesSnapshot = rootEntriesSnapshot;
+		}
+		return rootEntriesSnapshot;
+	}
+
+	/**
+	 * Get this store's entries which are issued by a specific store entry.
+	 * <p>
+	 * The returned set is an unmodifiable snapshot which is not affected by subsequent store modifications.
+	 *
+	 * @param entry The store entry to get the issued entries for.
+	 * @return The store entries which are issued by the submitted store entry.
+	 */
+	public synchronized Set<UserCertStoreEntry> getIssuedEntries(UserCertStoreEntry entry) {
+		Set<UserCertStoreEntry> issuedEntriesSnapshot = this.issuedEntriesSnapshots.get(entry);
+
+		if (issuedEntriesSnapshot == null) {
+			Set<Entry> entryIssuedEntries = this.issuedEntries.get(entry);
+
+			if (entryIssuedEntries != null) {
+				issuedEntriesSnapshot = Collections.unmodifiableSet(new HashSet<>(entryIssuedEntries));
+				this.issuedEntriesSnapshots.put(entry, issuedEntriesSnapshot);
+			} else {
+				issuedEntriesSnapshot = Collections.emptySet();
+			}
+		}
+		return issuedEntriesSnapshot;
+	}
+
+	private synchronized void loadPersistentEntries(Map<UserCertStoreEntryId, PersistentEntry> entries)
+			throws IOException {
+		for (Map.Entry<UserCertStoreEntryId, PersistentEntry> persistentEntryPathsEntry : entries.entrySet()) {
+			UserCertStoreEntryId entryId = persistentEntryPathsEntry.getKey();
+			Entry storeEntry = newPersistentEntry(entryId, persistentEntryPathsEntry.getValue());
+
+			if (storeEntry != null) {
+				this.storeEntries.put(entryId, storeEntry);
+				indexEntry(storeEntry);
+			}
+		}
+		resolveIssuers();
+	}
+
+	@Nullable
+	private Entry newPersistentEntry(UserCertStoreEntryId entryId, PersistentEntry entry) throws IOException {
+		CertObjectHolder<X509Certificate> crtHolder = entry.crt();
+		SecureCertObjectHolder<KeyPair> keyHolder = entry.key();
+		CertObjectHolder<PKCS10CertificateRequest> csrHolder = entry.csr();
+		CertObjectHolder<X509CRL> crlHolder = entry.crl();
+		X500Principal entryDN = null;
+
+		if (crtHolder != null) {
+			CertObjectInfo crtInfo = crtHolder.info();
+
+			entryDN = (crtInfo != null ? crtInfo.dn() : crtHolder.get().getSubjectX500Principal());
+		} else if (csrHolder != null) {
+			CertObjectInfo csrInfo = csrHolder.info();
+
+			entryDN = (csrInfo != null ? csrInfo.dn() : csrHolder.get().getSubjectX500Principal());
+		} else if (crlHolder != null) {
+			CertObjectInfo crlInfo = crlHolder.info();
+
+			entryDN = (crlInfo != null ? crlInfo.dn() : crlHolder.get().getIssuerX500Principal());
+		} else {
+			LOG.warning("Ignoring incompliete store entry ''{0}''", entryId);
+		}
+		return (entryDN != null ? new Entry(entryId, entryDN, crtHolder, keyHolder, csrHolder, crlHolder) : null);
+	}
+
+	private static UserCertStore createFromCertObjects(@Nullable CertObjectStore certObjects) throws IOException {
+		UserCertStore store = new UserCertStore(new TransientUserCertStoreHandler());
+
+		if (certObjects != null && certObjects.size() > 0) {
+			store.mergeCertObjects(certObjects, NoPassword.getInstance(), null);
+		}
+		return store;
+	}
+
+	private synchronized boolean streamCertObjects(Path file, PasswordCallback password) throws IOException {
+		// Keys and CRLs are matched against the entry's CRT or CSR; hence merge them after the whole file has been read
+		List<CertObjectStore.Entry> deferredCertObjects = new ArrayList<>();
+		boolean recognized;
+
+		beginBatch();
+		try {
+			try {
+				recognized = CertReaders.streamFile(file, password,
+						certObject -> mergeOrDeferCertObject(certObject, deferredCertObjects));
+				mergeDeferredCertObjects(deferredCertObjects);
+			} finally {
+				resolveIssuers();
+			}
+		} finally {
+			commitBatch();
+		}
+		return recognized;
+	}
+
+	private synchronized void importFiles(FileImportPipeline pipeline, Collection<Path> files) throws IOException {
+		// Keys and CRLs may match a CRT or CSR read from another file; hence merge them after all files have been read
+		List<CertObjectStore.Entry> deferredCertObjects = new ArrayList<>();
+
+		beginBatch();
+		try {
+			try {
+				pipeline.run(files, certObject -> mergeOrDeferCertObject(certObject, deferredCertObjects));
+				mergeDeferredCertObjects(deferredCertObjects);
+			} finally {
+				resolveIssuers();
+			}
+		} finally {
+			commitBatch();
+		}
+	}
+
+	private void mergeOrDeferCertObject(CertObjectStore.Entry certObject,
+			List<CertObjectStore.Entry> deferredCertObjects) throws IOException {
+		if (certObject.type() == CertObjectType.CRT) {
+			mergeX509Certificate(certObject.getCRT(), null);
+		} else if (certObject.type() == CertObjectType.CSR) {
+			mergePKCS10CertificateRequest(certObject.getCSR(), null);
+		} else {
+			deferredCertObjects.add(certObject);
+		}
+	}
+
+	private void mergeDeferredCertObjects(List<CertObjectStore.Entry> deferredCertObjects) throws IOException {
+		for (CertObjectStore.Entry certObject : deferredCertObjects) {
+			if (certObject.type() == CertObjectType.KEY) {
+				mergeKey(certObject.getKey(), NoPassword.getInstance());
+			} else if (certObject.type() == CertObjectType.CRL) {
+				mergeX509CRL(certObject.getCRL(), null);
+			}
+		}
+	}
+
+	private Set<UserCertStoreEntry> mergeCertObjects(CertObjectStore certObjects, PasswordCallback newPassword,
+			@Nullable String aliasHint) throws IOException {
+		return mergeCertObjects(Collections.singletonList(certObjects), newPassword, aliasHint).get(0)
+				.mergedEntries();
+	}
+
+	private Entry mergeX509Certificate(X509Certificate crt, @Nullable String aliasHint) throws IOException {
+		Entry matchingEntry = matchX509Certificate(crt);
+
+		if (matchingEntry != null) {
+			if (!matchingEntry.hasCRT()) {
+				CertObjectHolder<X509Certificate> crtHolder = this.storeHandler.createCRT(matchingEntry.id(), crt);
+
+				matchingEntry.setCRT(crtHolder);
+			} else {
+				LOG.debug("Skipping duplicate CRT ''{0}''.", matchingEntry);
+			}
+		} else {
+			UserCertStoreEntryId entryId = this.storeHandler.nextEntryId(aliasHint);
+			CertObjectHolder<X509Certificate> crtHolder = this.storeHandler.createCRT(entryId, crt);
+
+			matchingEntry = new Entry(entryId, crt.getSubjectX500Principal(), crtHolder, null, null, null);
+			this.storeEntries.put(entryId, matchingEntry);
+		}
+		indexEntry(matchingEntry);
+		return matchingEntry;
+	}
+
+	@Nullable
+	private Entry mergeKey(KeyPair key, PasswordCallback newPassword) throws IOException {
+		Entry matchingEntry = matchKey(key);
 
 		if (matchingEntry != null) {
 			if (!matchingEntry.hasKey()) {
@@ -537,6 +1216,9 @@ public final class UserCertStore {
 		} else {
 			LOG.info("Skipping non-matching Key ''{0}''.", KeyHelper.toString(key.getPublic()));
 		}
+		if (matchingEntry != null) {
+			indexEntry(matchingEntry);
+		}
 		return matchingEntry;
 	}
 
@@ -560,6 +1242,7 @@ public final class UserCertStore {
 			matchingEntry = new Entry(entryId, csr.getSubjectX500Principal(), null, null, csrHolder, null);
 			this.storeEntries.put(entryId, matchingEntry);
 		}
+		indexEntry(matchingEntry);
 		return matchingEntry;
 	}
 
@@ -581,27 +1264,27 @@ public final class UserCertStore {
 			matchingEntry = new Entry(entryId, crl.getIssuerX500Principal(), null, null, null, crlHolder);
 			this.storeEntries.put(entryId, matchingEntry);
 		}
+		indexEntry(matchingEntry);
 		return matchingEntry;
 	}
 
 	@Nullable
 	private Entry matchX509Certificate(X509Certificate crt) throws IOException {
-		X500Principal crtDN = crt.getSubjectX500Principal();
-		PublicKey crtPublicKey = crt.getPublicKey();
-		Entry matchingEntry = null;
+		Entry matchingEntry = matchContent(CertObjectInfo.contentDigest(crt));
 
-		for (Entry entry : this.storeEntries.values()) {
-			if (crtDN.equals(entry.dn())) {
-				if (entry.hasPublicKey()
-						&& Arrays.equals(crtPublicKey.getEncoded(), entry.getPublicKey().getEncoded())) {
-					matchingEntry = entry;
-					break;
-				}
-				if (entry.hasCRL() && X509CRLHelper.isCRLSignedBy(entry.getCRL(), crtPublicKey)) {
+		if (matchingEntry == null) {
+			X500Principal crtDN = crt.getSubjectX500Principal();
+			PublicKey crtPublicKey = crt.getPublicKey();
+
+			for (Entry entry : lookupIndex(this.publicKeyIndex, KeyHelper.fingerprint(crtPublicKey))) {
+				if (crtDN.equals(entry.dn())) {
 					matchingEntry = entry;
 					break;
 				}
 			}
+			if (matchingEntry == null) {
+				matchingEntry = matchCRLSignedBy(lookupIndex(this.crlIssuerIndex, crtDN), crtPublicKey);
+			}
 		}
 		return matchingEntry;
 	}
@@ -609,36 +1292,28 @@ public final class UserCertStore {
 	@Nullable
 	private Entry matchKey(KeyPair key) throws IOException {
 		PublicKey publicKey = key.getPublic();
-		Entry matchingEntry = null;
+		Set<Entry> keyEntries = lookupIndex(this.publicKeyIndex, KeyHelper.fingerprint(publicKey));
 
-		for (Entry entry : this.storeEntries.values()) {
-			if (entry.hasPublicKey() && Arrays.equals(publicKey.getEncoded(), entry.getPublicKey().getEncoded())) {
-				matchingEntry = entry;
-				break;
-			}
-			if (entry.hasCRL() && X509CRLHelper.isCRLSignedBy(entry.getCRL(), publicKey)) {
-				matchingEntry = entry;
-				break;
-			}
-		}
-		return matchingEntry;
+		return (!keyEntries.isEmpty() ? keyEntries.iterator().next()
+				: matchCRLSignedBy(this.unkeyedCRLEntries, publicKey));
 	}
 
 	@Nullable
 	private Entry matchPKCS10CertificateRequest(PKCS10CertificateRequest csr) throws IOException {
-		X500Principal csrDN = csr.getSubjectX500Principal();
-		PublicKey csrPublicKey = csr.getPublicKey();
-		Entry matchingEntry = null;
+		Entry matchingEntry = matchContent(CertObjectInfo.contentDigest(csr));
 
-		for (Entry entry : this.storeEntries.values()) {
-			if (csrDN.equals(entry.dn()) && entry.hasPublicKey()
-					&& Arrays.equals(csrPublicKey.getEncoded(), entry.getPublicKey().getEncoded())) {
-				matchingEntry = entry;
-				break;
+		if (matchingEntry == null) {
+			X500Principal csrDN = csr.getSubjectX500Principal();
+			PublicKey csrPublicKey = csr.getPublicKey();
+
+			for (Entry entry : lookupIndex(this.publicKeyIndex, KeyHelper.fingerprint(csrPublicKey))) {
+				if (csrDN.equals(entry.dn())) {
+					matchingEntry = entry;
+					break;
+				}
 			}
-			if (entry.hasCRL() && X509CRLHelper.isCRLSignedBy(entry.getCRL(), csrPublicKey)) {
-				matchingEntry = entry;
-				break;
+			if (matchingEntry == null) {
+				matchingEntry = matchCRLSignedBy(this.unkeyedCRLEntries, csrPublicKey);
 			}
 		}
 		return matchingEntry;
@@ -646,92 +1321,335 @@ public final class UserCertStore {
 
 	@Nullable
 	private Entry matchX509CRL(X509CRL crl) throws IOException {
-		X500Principal crlDN = crl.getIssuerX500Principal();
-		Entry matchingEntry = null;
+		Entry matchingEntry = matchContent(CertObjectInfo.contentDigest(crl));
 
-		for (Entry entry : this.storeEntries.values()) {
-			if (crlDN.equals(entry.dn())) {
+		if (matchingEntry == null) {
+			for (Entry entry : lookupIndex(this.dnIndex, crl.getIssuerX500Principal())) {
 				if (entry.hasPublicKey() && X509CRLHelper.isCRLSignedBy(crl, entry.getPublicKey())) {
 					matchingEntry = entry;
 					break;
 				}
-				try {
-					if (entry.hasCRL() && Arrays.equals(entry.getCRL().getEncoded(), crl.getEncoded())) {
-						matchingEntry = entry;
-						break;
-					}
-				} catch (CRLException e) {
-					throw new CertProviderException(e);
-				}
 			}
 		}
 		return matchingEntry;
 	}
 
-	private void resetIssuers() throws IOException {
-		// Collect external issuers and remove invalid issuers
-		Map<X500Principal, Entry> externalIssuers = new HashMap<>(this.storeEntries.size());
+	@Nullable
+	private Entry matchContent(byte[] contentDigest) {
+		Set<Entry> contentEntries = lookupIndex(this.contentIndex, ByteBuffer.wrap(contentDigest));
 
-		for (Entry entry : this.storeEntries.values()) {
-			Entry issuer = this.issuerCache.get(entry);
+		return (!contentEntries.isEmpty() ? contentEntries.iterator().next() : null);
+	}
 
-			if (issuer != null) {
-				if (issuer.isExternal()) {
-					externalIssuers.put(issuer.dn(), this.storeEntries.get(issuer.id()));
-				} else if (!this.storeEntries.containsKey(issuer.id())) {
-					this.issuerCache.remove(entry);
+	@Nullable
+	private Entry matchCRLSignedBy(Collection<Entry> entries, PublicKey publicKey) throws IOException {
+		Entry matchingEntry = null;
+
+		for (Entry entry : entries) {
+			if (X509CRLHelper.isCRLSignedBy(entry.getCRL(), publicKey)) {
+				matchingEntry = entry;
+				break;
+			}
+		}
+		return matchingEntry;
+	}
+
+	private <K> Set<Entry> lookupIndex(Map<K, Set<Entry>> index, K key) {
+		Set<Entry> entries = index.get(key);
+
+		return (entries != null ? entries : Collections.emptySet());
+	}
+
+	private <K> boolean addIndex(Map<K, Set<Entry>> index, K key, Entry entry) {
+		return index.computeIfAbsent(key, k -> new HashSet<>()).add(entry);
+	}
+
+	private <K> void removeIndex(Map<K, Set<Entry>> index, @Nullable K key, Entry entry) {
+		if (key != null) {
+			Set<Entry> entries = index.get(key);
+
+			if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+	private void indexEntry(Entry entry) throws IOException {
+		if (!entry.isExternal()) {
+			if (addIndex(this.dnIndex, entry.dn(), entry)) {
+				this.addedEntries.add(entry);
+			}
+			if (entry.publicKeyFingerprint() == null && entry.hasPublicKey()) {
+				String fingerprint = entry.lookupPublicKeyFingerprint();
+
+				entry.setPublicKeyFingerprint(fingerprint);
+				addIndex(this.publicKeyIndex, fingerprint, entry);
+				this.keyedEntries.add(entry);
+			}
+			if (entry.crtIssuerDN() == null && entry.hasCRT()) {
+				X500Principal issuerDN = entry.lookupCRTIssuerDN();
+
+				entry.setCRTIssuerDN(issuerDN);
+				addIndex(this.issuerDNIndex, issuerDN, entry);
+			}
+			if (entry.hasCRL()) {
+				addIndex(this.crlIssuerIndex, entry.dn(), entry);
+				if (entry.publicKeyFingerprint() == null) {
+					this.unkeyedCRLEntries.add(entry);
+				} else {
+					this.unkeyedCRLEntries.remove(entry);
 				}
 			}
+			indexContent(entry);
 		}
+	}
 
-		// Update all missing and external issuer references
-		Set<UserCertStoreEntryId> usedExternalIssuerIds = new HashSet<>(this.storeEntries.size());
+	private void indexContent(Entry entry) throws IOException {
+		for (ByteBuffer contentDigest : entry.lookupContentDigests()) {
+			if (entry.contentDigests().add(contentDigest)) {
+				addIndex(this.contentIndex, contentDigest, entry);
+			}
+		}
+	}
 
-		for (Entry entry : this.storeEntries.values()) {
-			Entry issuer = this.issuerCache.get(entry);
+	private void unindexContent(Entry entry) {
+		for (ByteBuffer contentDigest : entry.contentDigests()) {
+			removeIndex(this.contentIndex, contentDigest, entry);
+		}
+		entry.contentDigests().clear();
+	}
 
-			if (issuer == null || issuer.isExternal()) {
-				if (entry.hasCRT()) {
-					X509Certificate entryCRT = entry.getCRT();
-					X500Principal issuerDN = entryCRT.getIssuerX500Principal();
-					Entry foundIssuerEntry = null;
+	private void unindexEntry(Entry entry) {
+		removeIndex(this.dnIndex, entry.dn(), entry);
+		removeIndex(this.publicKeyIndex, entry.publicKeyFingerprint(), entry);
+		removeIndex(this.issuerDNIndex, entry.crtIssuerDN(), entry);
+		removeIndex(this.crlIssuerIndex, entry.dn(), entry);
+		this.unkeyedCRLEntries.remove(entry);
+		unindexContent(entry);
+		this.externalIssuers.remove(entry.dn(), entry);
+		this.addedEntries.remove(entry);
+		this.keyedEntries.remove(entry);
+		this.removedEntries.add(entry);
+	}
 
-					for (Entry issuerEntry : this.storeEntries.values()) {
-						if (issuerDN.equals(issuerEntry.dn()) && issuerEntry.hasPublicKey()
-								&& X509CertificateHelper.isCRTSignedBy(entryCRT, issuerEntry.getPublicKey())) {
-							foundIssuerEntry = issuerEntry;
-							break;
-						}
-					}
-					if (foundIssuerEntry != null) {
-						this.issuerCache.put(entry, foundIssuerEntry);
-					} else {
-						Entry externalIssuer = externalIssuers.get(issuerDN);
-
-						if (externalIssuer == null) {
-							externalIssuer = new Entry(this.storeHandler.nextEntryId(null), issuerDN);
-							this.issuerCache.put(externalIssuer, externalIssuer);
-							externalIssuers.put(issuerDN, externalIssuer);
-						}
-						this.issuerCache.put(entry, externalIssuer);
-						usedExternalIssuerIds.add(externalIssuer.id());
+	private void resolveIssuers() throws IOException {
+		// Collect all entries affected by the changes since the last call
+		Set<Entry> resolveEntries = new HashSet<>(this.addedEntries);
+		Set<Entry> dropIssuerCandidates = new HashSet<>();
+
+		for (Entry removedEntry : this.removedEntries) {
+			Entry removedEntryIssuer = removeIssuer(removedEntry);
+
+			if (removedEntryIssuer != null && isDroppableIssuer(removedEntryIssuer)) {
+				dropIssuerCandidates.add(removedEntryIssuer);
+			}
+			resolveEntries.addAll(lookupIndex(this.issuedEntries, removedEntry));
+		}
+		for (Entry keyedEntry : this.keyedEntries) {
+			for (Entry issuedEntry : lookupIndex(this.issuerDNIndex, keyedEntry.dn())) {
+				Entry issuer = this.issuerCache.get(issuedEntry);
+
+				if (issuer == null || isDroppableIssuer(issuer)) {
+					resolveEntries.add(issuedEntry);
+				}
+			}
+
+			// Trust layer entries are not indexed; hence check the ones referring to an external issuer separately
+			Entry externalIssuer = this.externalIssuers.get(keyedEntry.dn());
+
+			if (externalIssuer != null) {
+				resolveEntries.addAll(lookupIndex(this.issuedEntries, externalIssuer));
+			}
+		}
+		this.addedEntries.clear();
+		this.keyedEntries.clear();
+		this.removedEntries.clear();
+
+		// Update the issuer references of the affected entries
+		for (Entry resolveEntry : resolveEntries) {
+			if (this.storeEntries.get(resolveEntry.id()) == resolveEntry) {
+				Entry currentIssuer = this.issuerCache.get(resolveEntry);
+				Entry issuer = lookupIssuer(resolveEntry);
+
+				if (currentIssuer != null && isDroppableIssuer(currentIssuer) && !currentIssuer.equals(issuer)) {
+					dropIssuerCandidates.add(currentIssuer);
+				}
+				setIssuer(resolveEntry, issuer);
+			}
+		}
+
+		// Drop external and trust layer issuer entries which are no longer referenced (including their issuers)
+		Deque<Entry> dropIssuers = new ArrayDeque<>(dropIssuerCandidates);
+
+		while (!dropIssuers.isEmpty()) {
+			Entry dropIssuer = dropIssuers.pop();
+
+			if (this.storeEntries.get(dropIssuer.id()) == dropIssuer
+					&& lookupIndex(this.issuedEntries, dropIssuer).isEmpty()) {
+				this.storeEntries.remove(dropIssuer.id());
+
+				Entry dropIssuerIssuer = removeIssuer(dropIssuer);
+
+				if (dropIssuer instanceof TrustLayerEntry) {
+					this.trustLayerEntries.remove(((TrustLayerEntry) dropIssuer).crtHolder(), dropIssuer);
+					if (dropIssuerIssuer != null && isDroppableIssuer(dropIssuerIssuer)) {
+						dropIssuers.push(dropIssuerIssuer);
 					}
 				} else {
-					// Without a CRT an entry is always self-signed
-					this.issuerCache.put(entry, entry);
+					this.externalIssuers.remove(dropIssuer.dn(), dropIssuer);
 				}
 			}
 		}
+	}
+
+	private boolean isDroppableIssuer(Entry issuer) {
+		return issuer.isExternal() || issuer.isTrustLayerEntry();
+	}
+
+	private Entry lookupIssuer(Entry entry) throws IOException {
+		X500Principal issuerDN = entry.crtIssuerDN();
+		Entry issuer = null;
+
+		if (issuerDN != null) {
+			Collection<Entry> issuerCandidates = lookupIndex(this.dnIndex, issuerDN);
+
+			if (this.lazy) {
+				issuer = matchIssuerKeyIdentifier(entry, issuerCandidates);
+			} else {
+				issuer = matchIssuerSignature(entry, issuerCandidates);
+			}
+			if (issuer == null) {
+				issuer = matchTrustLayerIssuer(entry, issuerDN);
+			}
+			if (issuer == null) {
+				issuer = this.externalIssuers.get(issuerDN);
+				if (issuer == null) {
+					issuer = new Entry(this.storeHandler.nextEntryId(null), issuerDN);
+					setIssuer(issuer, issuer);
+					this.storeEntries.put(issuer.id(), issuer);
+					this.externalIssuers.put(issuerDN, issuer);
+				}
+			}
+		} else {
+			// Without a CRT an entry is always self-signed
+			issuer = entry;
+		}
+		return issuer;
+	}
 
-		// Also update external issuer entries as needed
-		for (Entry externalIssuer : externalIssuers.values()) {
-			UserCertStoreEntryId externalIssuerId = externalIssuer.id();
+	@Nullable
+	private Entry matchTrustLayerIssuer(Entry entry, X500Principal issuerDN) throws IOException {
+		Entry issuer = null;
+
+		for (TrustLayer trustLayer : this.trustLayers) {
+			List<Entry> issuerCandidates = new ArrayList<>();
 
-			if (usedExternalIssuerIds.contains(externalIssuer.id())) {
-				this.storeEntries.put(externalIssuerId, externalIssuer);
+			for (CertObjectHolder<X509Certificate> crtHolder : trustLayer.lookup(issuerDN)) {
+				Entry issuerCandidate = this.trustLayerEntries.get(crtHolder);
+
+				issuerCandidates.add(issuerCandidate != null ? issuerCandidate
+						: new TrustLayerEntry(this.storeHandler.nextEntryId(null), trustLayer, crtHolder));
+			}
+			if (this.lazy) {
+				issuer = matchIssuerKeyIdentifier(entry, issuerCandidates);
 			} else {
-				this.storeEntries.remove(externalIssuerId);
-				this.issuerCache.remove(externalIssuer);
+				issuer = matchIssuerSignature(entry, issuerCandidates);
+			}
+			if (issuer != null) {
+				break;
+			}
+		}
+		if (issuer instanceof TrustLayerEntry && !this.storeEntries.containsKey(issuer.id())) {
+			// Register the issuer prior to resolving its own issuer to stop the recursion at self-signed issuers
+			TrustLayerEntry trustLayerIssuer = (TrustLayerEntry) issuer;
+
+			this.storeEntries.put(trustLayerIssuer.id(), trustLayerIssuer);
+			this.trustLayerEntries.put(trustLayerIssuer.crtHolder(), trustLayerIssuer);
+			setIssuer(trustLayerIssuer, lookupIssuer(trustLayerIssuer));
+		}
+		return issuer;
+	}
+
+	@Nullable
+	private Entry matchIssuerKeyIdentifier(Entry entry, Collection<Entry> issuerCandidates) throws IOException {
+		CertObjectInfo entryInfo = entry.crtInfo();
+		byte[] aki = (entryInfo != null ? entryInfo.aki() : null);
+		List<Entry> unmatchedCandidates = new ArrayList<>();
+		Entry issuer = null;
+
+		for (Entry issuerCandidate : issuerCandidates) {
+			if (issuerCandidate.hasPublicKey()) {
+				CertObjectInfo issuerCandidateInfo = issuerCandidate.crtInfo();
+				byte[] ski = (issuerCandidateInfo != null ? issuerCandidateInfo.ski() : null);
+
+				if (aki == null || ski == null) {
+					unmatchedCandidates.add(issuerCandidate);
+				} else if (Arrays.equals(aki, ski)) {
+					issuer = issuerCandidate;
+					break;
+				}
+			}
+		}
+		if (issuer == null) {
+			// Without key identifiers a single DN match is sufficient; otherwise fall back to signature verification
+			if (unmatchedCandidates.size() == 1) {
+				issuer = unmatchedCandidates.get(0);
+			} else if (unmatchedCandidates.size() > 1) {
+				issuer = matchIssuerSignature(entry, unmatchedCandidates);
+			}
+		}
+		return issuer;
+	}
+
+	@Nullable
+	private Entry matchIssuerSignature(Entry entry, Collection<Entry> issuerCandidates) throws IOException {
+		Entry issuer = null;
+
+		if (!issuerCandidates.isEmpty()) {
+			X509Certificate entryCRT = entry.getCRT();
+
+			for (Entry issuerCandidate : issuerCandidates) {
+				if (issuerCandidate.hasPublicKey()
+						&& X509CertificateHelper.isCRTSignedBy(entryCRT, issuerCandidate.getPublicKey())) {
+					issuer = issuerCandidate;
+					break;
+				}
+			}
+		}
+		return issuer;
+	}
+
+	private void setIssuer(Entry entry, Entry issuer) {
+		Entry currentIssuer = this.issuerCache.put(entry, issuer);
+
+		if (!issuer.equals(currentIssuer)) {
+			unlinkIssuer(entry, currentIssuer);
+			if (issuer.equals(entry)) {
+				this.rootEntries.add(entry);
+				this.rootEntriesSnapshot = null;
+			} else {
+				addIndex(this.issuedEntries, issuer, entry);
+				this.issuedEntriesSnapshots.remove(issuer);
+			}
+		}
+	}
+
+	@Nullable
+	private Entry removeIssuer(Entry entry) {
+		Entry currentIssuer = this.issuerCache.remove(entry);
+
+		unlinkIssuer(entry, currentIssuer);
+		return currentIssuer;
+	}
+
+	private void unlinkIssuer(Entry entry, @Nullable Entry issuer) {
+		if (issuer != null) {
+			if (issuer.equals(entry)) {
+				this.rootEntries.remove(entry);
+				this.rootEntriesSnapshot = null;
+			} else {
+				removeIndex(this.issuedEntries, issuer, entry);
+				this.issuedEntriesSnapshots.remove(issuer);
 			}
 		}
 	}
@@ -754,6 +1672,14 @@ public final class UserCertStore {
 		@Nullable
 		private CertObjectHolder<X509CRL> crlHolder;
 
+		@Nullable
+		private String publicKeyFingerprint = null;
+
+		@Nullable
+		private X500Principal crtIssuerDN = null;
+
+		private final Set<ByteBuffer> contentDigests = new HashSet<>();
+
 		Entry(UserCertStoreEntryId id, X500Principal dn, @Nullable CertObjectHolder<X509Certificate> crtHolder,
 				@Nullable SecureCertObjectHolder<KeyPair> keyHolder,
 				@Nullable CertObjectHolder<PKCS10CertificateRequest> csrHolder,
@@ -779,6 +1705,11 @@ public final class UserCertStore {
 			return resolveIssuer(this);
 		}
 
+		@Override
+		public boolean isTrustLayerEntry() {
+			return false;
+		}
+
 		@Override
 		public boolean hasCRT() {
 			return this.crtHolder != null;
@@ -807,13 +1738,39 @@ public final class UserCertStore {
 
 		@Override
 		public KeyPair getKey(PasswordCallback password) throws IOException {
-			return ensureHas(this.keyHolder).get(password);
+			SecureCertObjectHolder<KeyPair> checkedKeyHolder = ensureHas(this.keyHolder);
+			DecryptedKeyCache checkedKeyCache = UserCertStore.this.keyCache;
+			KeyPair key;
+
+			if (checkedKeyCache != null && checkedKeyHolder.isSecured()) {
+				KeyPair cachedKey = checkedKeyCache.get(checkedKeyHolder);
+
+				if (cachedKey != null) {
+					key = cachedKey;
+				} else {
+					key = checkedKeyHolder.get(password);
+					checkedKeyCache.put(checkedKeyHolder, key);
+				}
+			} else {
+				key = checkedKeyHolder.get(password);
+			}
+			return key;
 		}
 
 		void setKey(SecureCertObjectHolder<KeyPair> keyHolder) {
+			dropCachedKey();
 			this.keyHolder = keyHolder;
 		}
 
+		void dropCachedKey() {
+			DecryptedKeyCache checkedKeyCache = UserCertStore.this.keyCache;
+			SecureCertObjectHolder<KeyPair> checkedKeyHolder = this.keyHolder;
+
+			if (checkedKeyCache != null && checkedKeyHolder != null) {
+				checkedKeyCache.remove(checkedKeyHolder);
+			}
+		}
+
 		@Override
 		public boolean hasCSR() {
 			return this.csrHolder != null;
@@ -842,6 +1799,131 @@ public final class UserCertStore {
 			this.crlHolder = crlHolder;
 		}
 
+		@Nullable
+		String publicKeyFingerprint() {
+			return this.publicKeyFingerprint;
+		}
+
+		void setPublicKeyFingerprint(String publicKeyFingerprint) {
+			this.publicKeyFingerprint = publicKeyFingerprint;
+		}
+
+		String lookupPublicKeyFingerprint() throws IOException {
+			CertObjectInfo info = publicKeyInfo();
+			String fingerprint = (info != null ? info.keyFingerprint() : null);
+
+			return (fingerprint != null ? fingerprint : KeyHelper.fingerprint(getPublicKey()));
+		}
+
+		@Nullable
+		CertObjectInfo crtInfo() throws IOException {
+			CertObjectHolder<X509Certificate> checkedCRTHolder = this.crtHolder;
+
+			return (checkedCRTHolder != null ? checkedCRTHolder.info() : null);
+		}
+
+		@Nullable
+		CertObjectInfo publicKeyInfo() throws IOException {
+			CertObjectHolder<X509Certificate> checkedCRTHolder = this.crtHolder;
+			CertObjectHolder<PKCS10CertificateRequest> checkedCSRHolder = this.csrHolder;
+			CertObjectInfo info = null;
+
+			if (checkedCRTHolder != null) {
+				info = checkedCRTHolder.info();
+			} else if (checkedCSRHolder != null && !hasDecryptedKey()) {
+				info = checkedCSRHolder.info();
+			}
+			return info;
+		}
+
+		@Nullable
+		X500Principal crtIssuerDN() {
+			return this.crtIssuerDN;
+		}
+
+		void setCRTIssuerDN(X500Principal crtIssuerDN) {
+			this.crtIssuerDN = crtIssuerDN;
+		}
+
+		X500Principal lookupCRTIssuerDN() throws IOException {
+			CertObjectInfo info = crtInfo();
+			X500Principal issuerDN = (info != null ? info.issuerDN() : null);
+
+			return (issuerDN != null ? issuerDN : getCRT().getIssuerX500Principal());
+		}
+
+		Set<ByteBuffer> contentDigests() {
+			return this.contentDigests;
+		}
+
+		int objectCount() {
+			return (hasCRT() ? 1 : 0) + (hasKey() ? 1 : 0) + (hasCSR() ? 1 : 0) + (hasCRL() ? 1 : 0);
+		}
+
+		boolean covers(Entry entry) {
+			// Entries holding identical objects share the same public key; hence their keys are interchangeable
+			return (!entry.hasKey() || hasKey()) && this.contentDigests.containsAll(entry.contentDigests);
+		}
+
+		List<ByteBuffer> lookupContentDigests() throws IOException {
+			CertObjectHolder<X509Certificate> checkedCRTHolder = this.crtHolder;
+			CertObjectHolder<PKCS10CertificateRequest> checkedCSRHolder = this.csrHolder;
+			CertObjectHolder<X509CRL> checkedCRLHolder = this.crlHolder;
+			List<ByteBuffer> digests = new ArrayList<>(3);
+
+			if (checkedCRTHolder != null) {
+				CertObjectInfo info = checkedCRTHolder.info();
+
+				digests.add(ByteBuffer.wrap(
+						info != null ? info.contentDigest() : CertObjectInfo.contentDigest(checkedCRTHolder.get())));
+			}
+			if (checkedCSRHolder != null) {
+				CertObjectInfo info = checkedCSRHolder.info();
+
+				digests.add(ByteBuffer.wrap(
+						info != null ? info.contentDigest() : CertObjectInfo.contentDigest(checkedCSRHolder.get())));
+			}
+			if (checkedCRLHolder != null) {
+				CertObjectInfo info = checkedCRLHolder.info();
+
+				digests.add(ByteBuffer.wrap(
+						info != null ? info.contentDigest() : CertObjectInfo.contentDigest(checkedCRLHolder.get())));
+			}
+			return digests;
+		}
+
+		boolean isEquivalent(Entry entry) throws IOException {
+			// Entries are equivalent if they can be exchanged without affecting the store's indexes
+			boolean equivalent = dn().equals(entry.dn()) && hasCRT() == entry.hasCRT() && hasKey() == entry.hasKey()
+					&& hasCSR() == entry.hasCSR() && hasCRL() == entry.hasCRL();
+
+			if (equivalent && hasPublicKey()) {
+				equivalent = Objects.equals(this.publicKeyFingerprint, entry.lookupPublicKeyFingerprint());
+			}
+			if (equivalent && hasCRT()) {
+				equivalent = Objects.equals(this.crtIssuerDN, entry.lookupCRTIssuerDN());
+			}
+			return equivalent;
+		}
+
+		void reload(Entry entry) {
+			if (this.keyHolder != entry.keyHolder) {
+				dropCachedKey();
+			}
+			if (!dn().equals(entry.dn())) {
+				setDN(entry.dn());
+			}
+			this.crtHolder = entry.crtHolder;
+			this.keyHolder = entry.keyHolder;
+			this.csrHolder = entry.csrHolder;
+			this.crlHolder = entry.crlHolder;
+		}
+
+		void resetIndexKeys() {
+			this.publicKeyFingerprint = null;
+			this.crtIssuerDN = null;
+		}
+
 		@Override
 		public List<Path> getFilePaths() {
 			List<Path> filePaths = new ArrayList<>();
@@ -873,4 +1955,33 @@ public final class UserCertStore {
 
 	}
 
+	private class TrustLayerEntry extends Entry {
+
+		private final TrustLayer trustLayer;
+
+		private final CertObjectHolder<X509Certificate> trustLayerCRTHolder;
+
+		TrustLayerEntry(UserCertStoreEntryId id, TrustLayer trustLayer, CertObjectHolder<X509Certificate> crtHolder)
+				throws IOException {
+			super(id, Objects.requireNonNull(crtHolder.info()).dn(), crtHolder, null, null, null);
+			this.trustLayer = trustLayer;
+			this.trustLayerCRTHolder = crtHolder;
+			setCRTIssuerDN(lookupCRTIssuerDN());
+		}
+
+		TrustLayer trustLayer() {
+			return this.trustLayer;
+		}
+
+		CertObjectHolder<X509Certificate> crtHolder() {
+			return this.trustLayerCRTHolder;
+		}
+
+		@Override
+		public boolean isTrustLayerEntry() {
+			return true;
+		}
+
+	}
+
 }
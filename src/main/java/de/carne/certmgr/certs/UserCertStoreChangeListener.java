@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+import java.util.Set;
+
+/**
+ * Listener interface for receiving notifications about externally changed {@link UserCertStore} entries.
+ *
+ * @see UserCertStore#addChangeListener(UserCertStoreChangeListener)
+ * @see UserCertStore#processChanges()
+ */
+@FunctionalInterface
+public interface UserCertStoreChangeListener {
+
+	/**
+	 * Called after external changes of a store have been processed.
+	 * <p>
+	 * An entry is reported as updated as long as its id persists, even if its certificate objects, its DN or its
+	 * issuer have changed. The entry object stays the same in this case.
+	 *
+	 * @param store The changed store.
+	 * @param addedEntries The added entries.
+	 * @param updatedEntries The entries whose certificate objects have been updated in place.
+	 * @param removedEntries The removed entries.
+	 */
+	void storeChanged(UserCertStore store, Set<UserCertStoreEntry> addedEntries,
+			Set<UserCertStoreEntry> updatedEntries, Set<UserCertStoreEntry> removedEntries);
+
+}
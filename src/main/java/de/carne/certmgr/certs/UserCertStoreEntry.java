@@ -51,7 +51,7 @@ public abstract class UserCertStoreEntry {
 
 	private final UserCertStoreEntryId id;
 
-	private final X500Principal dn;
+	private X500Principal dn;
 
 	UserCertStoreEntry(UserCertStoreEntryId id, X500Principal dn) {
 		this.id = id;
@@ -95,6 +95,10 @@ public abstract class UserCertStoreEntry {
 		return this.dn;
 	}
 
+	void setDN(X500Principal dn) {
+		this.dn = dn;
+	}
+
 	/**
 	 * Get this entry's issuing certificate store entry.
 	 * <p>
@@ -284,6 +288,17 @@ public abstract class UserCertStoreEntry {
 		return !hasCRT() && !hasKey() && !hasCSR() && !hasCRL();
 	}
 
+	/**
+	 * Check whether this entry has been provided by one of the store's trust layers.
+	 * <p>
+	 * Trust layer entries are read-only and only become part of the store if they are referenced as an issuer by
+	 * another store entry.
+	 *
+	 * @return {@code true} if this entry has been provided by one of the store's trust layers.
+	 * @see UserCertStore#addTrustLayer(Path)
+	 */
+	public abstract boolean isTrustLayerEntry();
+
 	/**
 	 * Check whether this entry is valid (and the current point in time lies within this validity range).
 	 *
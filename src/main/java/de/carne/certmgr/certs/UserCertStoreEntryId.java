@@ -61,7 +61,7 @@ public final class UserCertStoreEntryId {
 
 	@Override
 	public int hashCode() {
-		return this.id;
+		return 31 * this.id + this.alias.hashCode();
 	}
 
 	@Override
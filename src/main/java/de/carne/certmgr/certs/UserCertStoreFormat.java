@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs;
+
+/**
+ * The storage formats supported by directory based certificate stores.
+ */
+public enum UserCertStoreFormat {
+
+	/**
+	 * Certificate objects are stored PEM encoded (e.g. {@code ./certs/*.crt}).
+	 */
+	PEM,
+
+	/**
+	 * Certificate objects are stored as raw DER data (e.g. {@code ./certs/*.der}). DER files are decoded without the
+	 * Base64 and text parsing overhead of PEM files.
+	 */
+	DER
+
+}
@@ -21,6 +21,9 @@ import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -40,6 +43,35 @@ abstract class UserCertStoreHandler {
 		return null;
 	}
 
+	public int decodedObjectCount() {
+		return 0;
+	}
+
+	public CertObjectCacheStatistics cacheStatistics() {
+		return CertObjectCacheStatistics.NONE;
+	}
+
+	public Set<UserCertStoreEntryId> pollChangedEntryIds(Collection<UserCertStoreEntryId> knownIds) throws IOException {
+		return Collections.emptySet();
+	}
+
+	@Nullable
+	public PersistentEntry reloadEntry(UserCertStoreEntryId id) throws IOException {
+		return null;
+	}
+
+	public void beginBatch() {
+		// Nothing to do here
+	}
+
+	public void flushBatch() throws IOException {
+		// Nothing to do here
+	}
+
+	public void commitBatch() throws IOException {
+		// Nothing to do here
+	}
+
 	public abstract UserCertStoreEntryId nextEntryId(@Nullable String aliasHint);
 
 	public abstract CertObjectHolder<X509Certificate> createCRT(UserCertStoreEntryId id, X509Certificate crt)
@@ -21,6 +21,7 @@ import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 import de.carne.boot.prefs.FilePreferencesFactory;
+import de.carne.certmgr.util.BooleanPreference;
 import de.carne.certmgr.util.IntPreference;
 import de.carne.certmgr.util.StringPreference;
 
@@ -43,6 +44,10 @@ public final class UserCertStorePreferences {
 
 	private static final String STORE_DEFAULT_SIGNATURE_ALGORITHM = "defsigalg";
 
+	private static final String STORE_SHARDED_LAYOUT = "sharded";
+
+	private static final String STORE_STORAGE_FORMAT = "format";
+
 	private final Preferences preferences;
 
 	/**
@@ -70,6 +75,23 @@ public final class UserCertStorePreferences {
 	 */
 	public final StringPreference defaultSignatureAlgorithm;
 
+	/**
+	 * Sharded directory layout.
+	 * <p>
+	 * This preference is evaluated when the store is opened. Use
+	 * {@link UserCertStore#convertStore(Path, UserCertStoreLayout)} to change the layout of an existing store.
+	 */
+	public final BooleanPreference shardedLayout;
+
+	/**
+	 * Storage format (name of a {@link UserCertStoreFormat} constant).
+	 * <p>
+	 * This preference is evaluated when the store is opened. Use
+	 * {@link UserCertStore#convertStore(Path, UserCertStoreFormat, PasswordCallback)} to change the format of an
+	 * existing store.
+	 */
+	public final StringPreference storageFormat;
+
 	UserCertStorePreferences(Path storeHome) {
 		this.preferences = FilePreferencesFactory.customRoot(storeHome.resolve(PREFERENCES_FILENAME));
 
@@ -80,6 +102,8 @@ public final class UserCertStorePreferences {
 		this.defaultKeyPairAlgorithm = new StringPreference(optionsNode, STORE_DEFAULT_KEY_PAIR_ALGORITHM);
 		this.defaultKeySize = new IntPreference(optionsNode, STORE_DEFAULT_KEY_SIZE);
 		this.defaultSignatureAlgorithm = new StringPreference(optionsNode, STORE_DEFAULT_SIGNATURE_ALGORITHM);
+		this.shardedLayout = new BooleanPreference(optionsNode, STORE_SHARDED_LAYOUT);
+		this.storageFormat = new StringPreference(optionsNode, STORE_STORAGE_FORMAT);
 	}
 
 	/**
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} implementation reading directly from a {@link ByteBuffer} (e.g. a memory-mapped file).
+ * <p>
+ * The stream operates on a duplicate of the submitted buffer; hence the buffer's position is not affected and the same
+ * buffer can be shared by multiple streams.
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Construct {@code ByteBufferInputStream}.
+	 *
+	 * @param buffer The buffer to read from (starting at its current position).
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+
+	@Override
+	public int read() {
+		return (this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		int read;
+
+		if (len == 0) {
+			read = 0;
+		} else if (this.buffer.hasRemaining()) {
+			read = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, read);
+		} else {
+			read = -1;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+
+		this.buffer.position(this.buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		this.buffer.mark();
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.buffer.reset();
+	}
+
+}
@@ -21,6 +21,9 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
@@ -33,6 +36,8 @@ import java.util.Deque;
 import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.CertObjectConsumer;
 import de.carne.certmgr.certs.CertObjectStore;
 import de.carne.certmgr.certs.PasswordCallback;
 import de.carne.certmgr.certs.spi.CertReader;
@@ -43,6 +48,16 @@ import de.carne.certmgr.util.ProviderMap;
  */
 public final class CertReaders {
 
+	private static final Log LOG = new Log();
+
+	private static final int SNIFF_LENGTH = 4096;
+
+	private static final int JKS_MAGIC = 0xfeedfeed;
+
+	private static final int JCEKS_MAGIC = 0xcececece;
+
+	private static final byte[] PEM_ARMOR = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+
 	private CertReaders() {
 		// Make sure this class is not instantiated from outside
 	}
@@ -55,8 +70,10 @@ public final class CertReaders {
 	/**
 	 * Read all available certificate objects from a file.
 	 * <p>
-	 * All registered {@link CertReader}s are considered for reading certificate object until one recognizes the file
-	 * data.
+	 * The file's format is determined from its leading bytes first and the matching {@link CertReader} is invoked
+	 * directly. Only if this fails, all registered {@link CertReader}s are considered for reading certificate object
+	 * until one recognizes the file data. The file is read only once and the read data is shared by all readers. Files
+	 * exceeding {@link CertReader#READ_LIMIT} are memory-mapped instead of being read into the heap.
 	 *
 	 * @param file The file to read from.
 	 * @param password The callback to use for querying passwords (if needed).
@@ -65,22 +82,27 @@ public final class CertReaders {
 	 */
 	@Nullable
 	public static CertObjectStore readFile(Path file, PasswordCallback password) throws IOException {
-		Deque<CertReader> certReaders = new ArrayDeque<>();
-		Path fileName = file.getFileName();
-
-		for (CertReader reader : REGISTERED.providers()) {
-			if (matchFileName(reader, fileName)) {
-				certReaders.addFirst(reader);
-			} else {
-				certReaders.addLast(reader);
-			}
-		}
+		return readFile(file, readData(file), password);
+	}
 
+	/**
+	 * Read all available certificate objects from already read file data.
+	 * <p>
+	 * This function behaves like {@link #readFile(Path, PasswordCallback)} but uses the submitted data instead of
+	 * reading the file.
+	 *
+	 * @param file The file the data has been read from.
+	 * @param data The file data as returned by {@link #readData(Path)}.
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @return The read certificate objects, or {@code null} if no certificate data was recognized.
+	 * @throws IOException if an I/O error occurs during reading/decoding.
+	 */
+	@Nullable
+	public static CertObjectStore readFile(Path file, ByteBuffer data, PasswordCallback password) throws IOException {
 		CertObjectStore certObjects = null;
 
-		for (CertReader reader : certReaders) {
-			try (IOResource<InputStream> in = IOResource.newInputStream(file.toString(), file,
-					StandardOpenOption.READ)) {
+		for (CertReader reader : fileReaders(file.getFileName(), sniffProviderName(file, data))) {
+			try (IOResource<InputStream> in = IOResource.newInputStream(file.toString(), data)) {
 				certObjects = reader.readBinary(in, password);
 				if (certObjects != null) {
 					break;
@@ -91,10 +113,85 @@ public final class CertReaders {
 	}
 
 	/**
-	 * Read all available certificate objects from an {@link URL}.
+	 * Read all available certificate objects from a file and pass them to a consumer as soon as they are decoded.
 	 * <p>
 	 * All registered {@link CertReader}s are considered for reading certificate object until one recognizes the file
-	 * data.
+	 * data. Contrary to {@link #readFile(Path, PasswordCallback)} the read certificate objects are not collected.
+	 *
+	 * @param file The file to read from.
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @param consumer The consumer to pass the read certificate objects to.
+	 * @return {@code true} if the file data has been recognized.
+	 * @throws IOException if an I/O error occurs during reading/decoding.
+	 * @see CertReader#streamBinary(IOResource, PasswordCallback, CertObjectConsumer)
+	 */
+	public static boolean streamFile(Path file, PasswordCallback password, CertObjectConsumer consumer)
+			throws IOException {
+		return streamFile(file, readData(file), password, consumer);
+	}
+
+	/**
+	 * Read all available certificate objects from already read file data and pass them to a consumer as soon as they
+	 * are decoded.
+	 * <p>
+	 * This function behaves like {@link #streamFile(Path, PasswordCallback, CertObjectConsumer)} but uses the
+	 * submitted data instead of reading the file.
+	 *
+	 * @param file The file the data has been read from.
+	 * @param data The file data as returned by {@link #readData(Path)}.
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @param consumer The consumer to pass the read certificate objects to.
+	 * @return {@code true} if the file data has been recognized.
+	 * @throws IOException if an I/O error occurs during reading/decoding.
+	 */
+	public static boolean streamFile(Path file, ByteBuffer data, PasswordCallback password,
+			CertObjectConsumer consumer) throws IOException {
+		boolean recognized = false;
+
+		for (CertReader reader : fileReaders(file.getFileName(), sniffProviderName(file, data))) {
+			try (IOResource<InputStream> in = IOResource.newInputStream(file.toString(), data)) {
+				recognized = reader.streamBinary(in, password, consumer);
+				if (recognized) {
+					break;
+				}
+			}
+		}
+		return recognized;
+	}
+
+	private static Deque<CertReader> fileReaders(Path fileName, @Nullable String sniffedProviderName) {
+		Deque<CertReader> certReaders = fileReaders(fileName);
+		CertReader sniffedReader = (sniffedProviderName != null ? REGISTERED.get(sniffedProviderName) : null);
+
+		// Keep the remaining readers in place as a fallback in case the sniffed reader does not recognize the data
+		if (sniffedReader != null) {
+			certReaders.remove(sniffedReader);
+			certReaders.addFirst(sniffedReader);
+		}
+		return certReaders;
+	}
+
+	private static Deque<CertReader> fileReaders(Path fileName) {
+		Deque<CertReader> certReaders = new ArrayDeque<>();
+
+		for (CertReader reader : REGISTERED.providers()) {
+			if (matchFileName(reader, fileName)) {
+				certReaders.addFirst(reader);
+			} else {
+				certReaders.addLast(reader);
+			}
+		}
+		return certReaders;
+	}
+
+	/**
+	 * Read all available certificate objects from an {@link URL}.
+	 * <p>
+	 * The URL's content is downloaded once and its format is sniffed like in
+	 * {@link #readFile(Path, PasswordCallback)}. All registered {@link CertReader}s are considered for reading
+	 * certificate object until one recognizes the downloaded data. The content of HTTP(S) URLs is cached on disk and
+	 * re-validated via conditional requests. If the content has not been modified, the previously read certificate
+	 * objects may be returned.
 	 *
 	 * @param url The URL to read from.
 	 * @param password The callback to use for querying passwords (if needed).
@@ -103,7 +200,6 @@ public final class CertReaders {
 	 */
 	@Nullable
 	public static CertObjectStore readURL(URL url, PasswordCallback password) throws IOException {
-		Deque<CertReader> certReaders = new ArrayDeque<>();
 		Path file;
 
 		try {
@@ -116,27 +212,99 @@ public final class CertReaders {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
 
-		for (CertReader reader : REGISTERED.providers()) {
-			if (matchFileName(reader, file)) {
-				certReaders.addFirst(reader);
+		URLCache.Content content = URLCache.fetch(url);
+		CertObjectStore certObjects = content.decodedCertObjects();
+
+		if (certObjects != null) {
+			LOG.debug("Re-using certificate objects read from unmodified URL ''{0}''", url);
+		} else {
+			ByteBuffer data = content.data();
+
+			for (CertReader reader : fileReaders(file, sniffProviderName(file, data))) {
+				try (IOResource<InputStream> in = IOResource.newInputStream(url.toExternalForm(), data)) {
+					certObjects = reader.readBinary(in, password);
+				} catch (IOException e) {
+					Exceptions.ignore(e);
+				}
+				if (certObjects != null) {
+					content.setDecodedCertObjects(certObjects);
+					break;
+				}
+			}
+		}
+		return certObjects;
+	}
+
+	/**
+	 * Read a file's data.
+	 * <p>
+	 * Files exceeding {@link CertReader#READ_LIMIT} are memory-mapped instead of being read into the heap.
+	 *
+	 * @param file The file to read.
+	 * @return The read file data.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public static ByteBuffer readData(Path file) throws IOException {
+		ByteBuffer data;
+
+		// Mapping is only worth it for huge files; the mapping stays valid after the channel has been closed
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size <= CertReader.READ_LIMIT) {
+				int read = 0;
+
+				data = ByteBuffer.allocate((int) size);
+				while (data.hasRemaining() && read >= 0) {
+					read = channel.read(data);
+				}
+				data.flip();
 			} else {
-				certReaders.addLast(reader);
+				data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
 			}
 		}
+		return data;
+	}
 
-		CertObjectStore certObjects = null;
+	@Nullable
+	private static String sniffProviderName(Path file, ByteBuffer data) {
+		int length = data.remaining();
+		String providerName = null;
 
-		for (CertReader reader : certReaders) {
-			try (IOResource<InputStream> in = new IOResource<>(url.openStream(), file.toString())) {
-				certObjects = reader.readBinary(in, password);
-			} catch (IOException e) {
-				Exceptions.ignore(e);
+		if (length >= 4 && (data.getInt(0) == JKS_MAGIC || data.getInt(0) == JCEKS_MAGIC)) {
+			providerName = JKSCertReaderWriter.PROVIDER_NAME;
+		} else if (length >= 2 && data.get(0) == 0x30) {
+			// DER SEQUENCE; a PKCS#12 PFX starts with the version INTEGER 3
+			int lengthBytes = ((data.get(1) & 0x80) != 0 ? data.get(1) & 0x7f : 0);
+			int versionOffset = 2 + lengthBytes;
+
+			if (lengthBytes <= 4 && length >= versionOffset + 3 && data.get(versionOffset) == 0x02
+					&& data.get(versionOffset + 1) == 0x01 && data.get(versionOffset + 2) == 0x03) {
+				providerName = PKCS12CertReaderWriter.PROVIDER_NAME;
+			} else {
+				providerName = DERCertReaderWriter.PROVIDER_NAME;
 			}
-			if (certObjects != null) {
-				break;
+		} else if (indexOf(data, Math.min(length, SNIFF_LENGTH), PEM_ARMOR) >= 0) {
+			providerName = PEMCertReaderWriter.PROVIDER_NAME;
+		}
+		LOG.debug("Sniffed format of file ''{0}'': {1}", file, providerName);
+		return providerName;
+	}
+
+	private static int indexOf(ByteBuffer data, int length, byte[] pattern) {
+		int index = -1;
+
+		for (int dataIndex = 0; index < 0 && dataIndex <= length - pattern.length; dataIndex++) {
+			int patternIndex = 0;
+
+			while (patternIndex < pattern.length && data.get(dataIndex + patternIndex) == pattern[patternIndex]) {
+				patternIndex++;
+			}
+			if (patternIndex == pattern.length) {
+				index = dataIndex;
 			}
 		}
-		return certObjects;
+		return index;
 	}
 
 	private static boolean matchFileName(CertReader reader, Path fileName) {
@@ -16,6 +16,7 @@
  */
 package de.carne.certmgr.certs.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -25,18 +26,15 @@ import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.pkcs.EncryptedPrivateKeyInfo;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
-import org.bouncycastle.cert.X509CRLHolder;
-import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.jcajce.util.DefaultJcaJceHelper;
 import org.bouncycastle.jcajce.util.JcaJceHelper;
 import org.bouncycastle.operator.InputDecryptorProvider;
@@ -50,7 +48,6 @@ import org.bouncycastle.pkcs.jcajce.JcePKCSPBEInputDecryptorProviderBuilder;
 import org.bouncycastle.pkcs.jcajce.JcePKCSPBEOutputEncryptorBuilder;
 import org.eclipse.jdt.annotation.Nullable;
 
-import de.carne.boot.Exceptions;
 import de.carne.boot.logging.Log;
 import de.carne.certmgr.certs.CertObjectStore;
 import de.carne.certmgr.certs.CertProviderException;
@@ -78,6 +75,8 @@ public class DERCertReaderWriter extends JCAConversion implements CertReader, Ce
 
 	private static final JcaJceHelper JCA_JCE_HELPER = new DefaultJcaJceHelper();
 
+	private static final String CERTIFICATE_FACTORY_TYPE = "X.509";
+
 	/**
 	 * Provider name.
 	 */
@@ -122,57 +121,36 @@ public class DERCertReaderWriter extends JCAConversion implements CertReader, Ce
 		LOG.debug("Trying to read DER objects from: ''{0}''...", in);
 
 		CertObjectStore certObjects = null;
+		DERObjectScanner derScanner = newDERScanner(in.io());
+		DERObjectScanner.DERObject derObject;
 
-		try (ASN1InputStream derStream = new ASN1InputStream(in.io())) {
-			ASN1Primitive derObject;
-
-			while ((derObject = derStream.readObject()) != null) {
-				X509Certificate crt = tryDecodeCRT(derObject);
-
-				if (crt != null) {
-					if (certObjects == null) {
-						certObjects = new CertObjectStore();
-					}
-					certObjects.addCRT(crt);
-					continue;
-				}
-
-				KeyPair key = tryDecodeKey(derObject, in.resource(), password);
-
-				if (key != null) {
-					if (certObjects == null) {
-						certObjects = new CertObjectStore();
-					}
-					certObjects.addKey(key);
-					continue;
-				}
-
-				PKCS10CertificateRequest csr = tryDecodeCSR(derObject);
+		while ((derObject = nextDERObject(derScanner, in, certObjects != null)) != null) {
+			DERObjectScanner.Type derType = derObject.type();
 
-				if (csr != null) {
-					if (certObjects == null) {
-						certObjects = new CertObjectStore();
-					}
-					certObjects.addCSR(csr);
-					continue;
+			if (derType == DERObjectScanner.Type.UNKNOWN) {
+				LOG.warning(CertIOI18N.STR_DER_UNKNOWN_OBJECT, derObject);
+			} else {
+				if (certObjects == null) {
+					certObjects = new CertObjectStore();
 				}
-
-				X509CRL crl = tryDecodeCRL(derObject);
-
-				if (crl != null) {
-					if (certObjects == null) {
-						certObjects = new CertObjectStore();
-					}
-					certObjects.addCRL(crl);
-					continue;
+				switch (derType) {
+				case CRT:
+					certObjects.addCRT(decodeCRT(derObject.encoded()));
+					break;
+				case KEY:
+				case ENCRYPTED_KEY:
+					certObjects.addKey(decodeKey(derObject, in.resource(), password));
+					break;
+				case CSR:
+					certObjects.addCSR(decodeCSR(derObject.encoded()));
+					break;
+				case CRL:
+					certObjects.addCRL(decodeCRL(derObject.encoded()));
+					break;
+				default:
+					throw new IllegalStateException("Unexpected DER object type: " + derType);
 				}
-
-				LOG.warning(CertIOI18N.STR_DER_UNKNOWN_OBJECT, derObject.getClass().getName());
 			}
-		} catch (ClassCastException e) {
-			// ASN1InputStream may cause this in case of non-DER data; simply ignore it and consider
-			// the file is not a DER stream
-			throw new CertProviderException(e);
 		}
 		return certObjects;
 	}
@@ -221,6 +199,176 @@ public class DERCertReaderWriter extends JCAConversion implements CertReader, Ce
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Read a single CRT object from a DER encoded {@link InputStream} resource.
+	 *
+	 * @param in The stream resource to read from.
+	 * @return The read CRT object.
+	 * @throws IOException if no CRT object can be read.
+	 */
+	public static X509Certificate readCRTBinary(IOResource<InputStream> in) throws IOException {
+		X509Certificate crtObject;
+
+		try {
+			CertificateFactory crtFactory = JCA_JCE_HELPER.createCertificateFactory(CERTIFICATE_FACTORY_TYPE);
+
+			crtObject = (X509Certificate) crtFactory.generateCertificate(in.io());
+		} catch (GeneralSecurityException | ClassCastException e) {
+			throw new CertProviderException(e);
+		}
+		return crtObject;
+	}
+
+	/**
+	 * Read a single Key object from a DER encoded {@link InputStream} resource.
+	 *
+	 * @param in The stream resource to read from.
+	 * @param password The callback to use for querying the key password.
+	 * @return The read Key object.
+	 * @throws IOException if no Key object can be read.
+	 */
+	public static KeyPair readKeyBinary(IOResource<InputStream> in, PasswordCallback password) throws IOException {
+		DERObjectScanner.DERObject derObject = readObject(in);
+		DERObjectScanner.Type derType = derObject.type();
+
+		if (derType != DERObjectScanner.Type.KEY && derType != DERObjectScanner.Type.ENCRYPTED_KEY) {
+			throw new IOException("No key object read from '" + in.resource() + "'");
+		}
+		return decodeKey(derObject, in.resource(), password);
+	}
+
+	/**
+	 * Read a single CSR object from a DER encoded {@link InputStream} resource.
+	 *
+	 * @param in The stream resource to read from.
+	 * @return The read CSR object.
+	 * @throws IOException if no CSR object can be read.
+	 */
+	public static PKCS10CertificateRequest readCSRBinary(IOResource<InputStream> in) throws IOException {
+		return decodeCSR(readObject(in).encoded());
+	}
+
+	/**
+	 * Read a single CRL object from a DER encoded {@link InputStream} resource.
+	 *
+	 * @param in The stream resource to read from.
+	 * @return The read CRL object.
+	 * @throws IOException if no CRL object can be read.
+	 */
+	public static X509CRL readCRLBinary(IOResource<InputStream> in) throws IOException {
+		X509CRL crlObject;
+
+		try {
+			CertificateFactory crlFactory = JCA_JCE_HELPER.createCertificateFactory(CERTIFICATE_FACTORY_TYPE);
+
+			crlObject = (X509CRL) crlFactory.generateCRL(in.io());
+		} catch (GeneralSecurityException | ClassCastException e) {
+			throw new CertProviderException(e);
+		}
+		return crlObject;
+	}
+
+	/**
+	 * Create a {@link ASN1InputStream} for decoding DER objects.
+	 * <p>
+	 * If the input is backed up by a {@link ByteBufferInputStream} (e.g. a memory-mapped file) the decodable object size
+	 * is limited to the available data.
+	 *
+	 * @param in The input stream to decode.
+	 * @return The created {@link ASN1InputStream}.
+	 */
+	static ASN1InputStream newDERStream(InputStream in) {
+		return (in instanceof ByteBufferInputStream
+				? new ASN1InputStream(in, ((ByteBufferInputStream) in).available())
+				: new ASN1InputStream(in));
+	}
+
+	private static DERObjectScanner.@Nullable DERObject nextDERObject(DERObjectScanner derScanner,
+			IOResource<InputStream> in, boolean recognized) {
+		DERObjectScanner.DERObject derObject = null;
+
+		try {
+			derObject = derScanner.next();
+		} catch (IOException e) {
+			// Input that is not (or not entirely) DER encoded is left to the other readers, unless we already
+			// recognized some objects. In that case we keep them and only drop the remainder.
+			if (recognized) {
+				LOG.warning(e, "Ignoring trailing non-DER data in ''{0}''", in);
+			} else {
+				LOG.debug("No DER data in ''{0}'' ({1})", in, e.getMessage());
+			}
+		}
+		return derObject;
+	}
+
+	private static DERObjectScanner newDERScanner(InputStream in) {
+		return new DERObjectScanner(in,
+				(in instanceof ByteBufferInputStream ? ((ByteBufferInputStream) in).available() : Integer.MAX_VALUE));
+	}
+
+	private static DERObjectScanner.DERObject readObject(IOResource<InputStream> in) throws IOException {
+		DERObjectScanner.DERObject derObject = newDERScanner(in.io()).next();
+
+		if (derObject == null) {
+			throw new IOException("No objects read from '" + in.resource() + "'");
+		}
+		return derObject;
+	}
+
+	/**
+	 * Write a single CRT object to a {@link OutputStream} resource.
+	 *
+	 * @param out The stream resource to to write to.
+	 * @param crt The CRT object to write.
+	 * @throws IOException if an I/O error occurs during encoding/writing.
+	 */
+	public static void writeCRTBinary(IOResource<OutputStream> out, X509Certificate crt) throws IOException {
+		try {
+			out.io().write(crt.getEncoded());
+		} catch (GeneralSecurityException e) {
+			throw new CertProviderException(e);
+		}
+	}
+
+	/**
+	 * Write a single Key object to a {@link OutputStream} resource.
+	 *
+	 * @param out The stream resource to to write to.
+	 * @param key The Key object to write.
+	 * @param newPassword The callback to use for querying the encryption password.
+	 * @throws IOException if an I/O error occurs during encoding/writing.
+	 */
+	public static void writeKeyBinary(IOResource<OutputStream> out, KeyPair key, PasswordCallback newPassword)
+			throws IOException {
+		out.io().write(encryptKey(key, out.resource(), newPassword));
+	}
+
+	/**
+	 * Write a single CSR object to a {@link OutputStream} resource.
+	 *
+	 * @param out The stream resource to to write to.
+	 * @param csr The CSR object to write.
+	 * @throws IOException if an I/O error occurs during encoding/writing.
+	 */
+	public static void writeCSRBinary(IOResource<OutputStream> out, PKCS10CertificateRequest csr) throws IOException {
+		out.io().write(csr.toPKCS10().getEncoded());
+	}
+
+	/**
+	 * Write a single CRL object to a {@link OutputStream} resource.
+	 *
+	 * @param out The stream resource to to write to.
+	 * @param crl The CRL object to write.
+	 * @throws IOException if an I/O error occurs during encoding/writing.
+	 */
+	public static void writeCRLBinary(IOResource<OutputStream> out, X509CRL crl) throws IOException {
+		try {
+			out.io().write(crl.getEncoded());
+		} catch (GeneralSecurityException e) {
+			throw new CertProviderException(e);
+		}
+	}
+
 	private static void writeCertObject(IOResource<OutputStream> out, CertObjectStore.Entry storeEntry)
 			throws IOException {
 		LOG.debug("Writing DER object ''{0}'' to resource ''{1}''...", storeEntry, out);
@@ -268,98 +416,94 @@ public class DERCertReaderWriter extends JCAConversion implements CertReader, Ce
 		}
 	}
 
-	@Nullable
-	private static X509Certificate tryDecodeCRT(ASN1Primitive asn1Object) throws IOException {
-		X509CertificateHolder crtObject = null;
+	private static X509Certificate decodeCRT(byte[] encoded) throws IOException {
+		X509Certificate crt;
 
 		try {
-			crtObject = new X509CertificateHolder(asn1Object.getEncoded());
-		} catch (Exception e) {
-			Exceptions.ignore(e);
+			CertificateFactory crtFactory = JCA_JCE_HELPER.createCertificateFactory(CERTIFICATE_FACTORY_TYPE);
+
+			crt = (X509Certificate) crtFactory.generateCertificate(new ByteArrayInputStream(encoded));
+		} catch (GeneralSecurityException | ClassCastException e) {
+			throw new CertProviderException(e);
 		}
-		return (crtObject != null ? convertCRT(crtObject) : null);
+		return crt;
 	}
 
-	@Nullable
-	private static KeyPair tryDecodeKey(ASN1Primitive asn1Object, String resource, PasswordCallback password)
-			throws IOException {
-		PKCS8EncryptedPrivateKeyInfo encryptedPrivateKeyInfo = null;
+	private static KeyPair decodeKey(DERObjectScanner.DERObject derObject, String resource,
+			PasswordCallback password) throws IOException {
+		byte[] encoded = derObject.encoded();
+		PrivateKeyInfo privateKeyInfo;
 
 		try {
-			encryptedPrivateKeyInfo = new PKCS8EncryptedPrivateKeyInfo(EncryptedPrivateKeyInfo.getInstance(asn1Object));
-		} catch (Exception e) {
-			Exceptions.ignore(e);
+			if (derObject.type() == DERObjectScanner.Type.ENCRYPTED_KEY) {
+				privateKeyInfo = decryptKey(new PKCS8EncryptedPrivateKeyInfo(encoded), resource, password);
+				encoded = privateKeyInfo.getEncoded();
+			} else {
+				privateKeyInfo = PrivateKeyInfo.getInstance(encoded);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new CertProviderException(e);
 		}
 
-		PrivateKeyInfo privateKeyInfo = null;
+		PrivateKey privateKey;
 
-		if (encryptedPrivateKeyInfo != null) {
-			Throwable passwordException = null;
+		try {
+			String algorithmId = privateKeyInfo.getPrivateKeyAlgorithm().getAlgorithm().getId();
+			KeyFactory keyFactory = JCA_JCE_HELPER.createKeyFactory(algorithmId);
 
-			while (privateKeyInfo == null) {
-				char[] passwordChars = password.queryPassword(resource);
+			privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+		} catch (GeneralSecurityException e) {
+			throw new CertProviderException(e);
+		}
+		return KeyHelper.rebuildKeyPair(privateKey);
+	}
 
-				if (passwordChars == null) {
-					throw new PasswordRequiredException(resource, passwordException);
-				}
+	private static PrivateKeyInfo decryptKey(PKCS8EncryptedPrivateKeyInfo encryptedPrivateKeyInfo, String resource,
+			PasswordCallback password) throws IOException {
+		PrivateKeyInfo privateKeyInfo = null;
+		Throwable passwordException = null;
 
-				InputDecryptorProvider inputDecryptorProvider = INPUT_DECRYPTOR_BUILDER.build(passwordChars);
+		while (privateKeyInfo == null) {
+			char[] passwordChars = (passwordException == null ? password.queryPassword(resource)
+					: password.requeryPassword(resource, passwordException));
 
-				try {
-					privateKeyInfo = encryptedPrivateKeyInfo.decryptPrivateKeyInfo(inputDecryptorProvider);
-				} catch (PKCSException e) {
-					passwordException = e;
-				}
+			if (passwordChars == null) {
+				throw new PasswordRequiredException(resource, passwordException);
 			}
-		}
-
-		try {
-			privateKeyInfo = PrivateKeyInfo.getInstance(asn1Object);
-		} catch (Exception e) {
-			Exceptions.ignore(e);
-		}
-
-		KeyPair key = null;
 
-		if (privateKeyInfo != null) {
-			PrivateKey privateKey;
+			InputDecryptorProvider inputDecryptorProvider = INPUT_DECRYPTOR_BUILDER.build(passwordChars);
 
 			try {
-				String algorithmId = privateKeyInfo.getPrivateKeyAlgorithm().getAlgorithm().getId();
-				KeyFactory keyFactory = JCA_JCE_HELPER.createKeyFactory(algorithmId);
-				PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privateKeyInfo.getEncoded());
-
-				privateKey = keyFactory.generatePrivate(keySpec);
-			} catch (GeneralSecurityException e) {
-				throw new CertProviderException(e);
+				privateKeyInfo = encryptedPrivateKeyInfo.decryptPrivateKeyInfo(inputDecryptorProvider);
+			} catch (PKCSException e) {
+				passwordException = e;
 			}
-			key = KeyHelper.rebuildKeyPair(privateKey);
 		}
-		return key;
+		return privateKeyInfo;
 	}
 
-	@Nullable
-	private static PKCS10CertificateRequest tryDecodeCSR(ASN1Primitive asn1Object) throws IOException {
-		PKCS10CertificationRequest csrObject = null;
+	private static PKCS10CertificateRequest decodeCSR(byte[] encoded) throws IOException {
+		PKCS10CertificationRequest csrObject;
 
 		try {
-			csrObject = new PKCS10CertificationRequest(asn1Object.getEncoded());
-		} catch (Exception e) {
-			Exceptions.ignore(e);
+			csrObject = new PKCS10CertificationRequest(encoded);
+		} catch (RuntimeException e) {
+			throw new CertProviderException(e);
 		}
-		return (csrObject != null ? convertCSR(csrObject) : null);
+		return convertCSR(csrObject);
 	}
 
-	@Nullable
-	private static X509CRL tryDecodeCRL(ASN1Primitive asn1Object) throws IOException {
-		X509CRLHolder crlObject = null;
+	private static X509CRL decodeCRL(byte[] encoded) throws IOException {
+		X509CRL crl;
 
 		try {
-			crlObject = new X509CRLHolder(asn1Object.getEncoded());
-		} catch (Exception e) {
-			Exceptions.ignore(e);
+			CertificateFactory crlFactory = JCA_JCE_HELPER.createCertificateFactory(CERTIFICATE_FACTORY_TYPE);
+
+			crl = (X509CRL) crlFactory.generateCRL(new ByteArrayInputStream(encoded));
+		} catch (GeneralSecurityException | ClassCastException e) {
+			throw new CertProviderException(e);
 		}
-		return (crlObject != null ? convertCRL(crlObject) : null);
+		return crl;
 	}
 
 	private static byte[] encryptKey(KeyPair key, String resource, PasswordCallback newPassword) throws IOException {
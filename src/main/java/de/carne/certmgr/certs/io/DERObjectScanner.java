@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Scanner splitting DER encoded input into its top-level objects.
+ * <p>
+ * Every scanned object is classified by looking at the tag and version structure of its encoding. This way the
+ * actual decoding can be dispatched directly to the matching decoder and the original encoding can be handed over to
+ * it as is.
+ */
+final class DERObjectScanner {
+
+	/**
+	 * The certificate object types recognized by the classifier.
+	 */
+	enum Type {
+
+		/**
+		 * X.509 certificate.
+		 */
+		CRT,
+
+		/**
+		 * Unencrypted PKCS#8 private key.
+		 */
+		KEY,
+
+		/**
+		 * Encrypted PKCS#8 private key.
+		 */
+		ENCRYPTED_KEY,
+
+		/**
+		 * PKCS#10 certificate signing request.
+		 */
+		CSR,
+
+		/**
+		 * X.509 certificate revocation list.
+		 */
+		CRL,
+
+		/**
+		 * Any other kind of object.
+		 */
+		UNKNOWN
+
+	}
+
+	private static final int TAG_INTEGER = 0x02;
+	private static final int TAG_BIT_STRING = 0x03;
+	private static final int TAG_OCTET_STRING = 0x04;
+	private static final int TAG_UTC_TIME = 0x17;
+	private static final int TAG_GENERALIZED_TIME = 0x18;
+	private static final int TAG_SEQUENCE = 0x30;
+	private static final int TAG_CONTEXT_0 = 0xa0;
+
+	private static final int MAX_CHILDREN = 8;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final InputStream in;
+
+	private final int limit;
+
+	/**
+	 * Construct {@code DERObjectScanner}.
+	 *
+	 * @param in The input stream to scan.
+	 * @param limit The maximum size of a single object.
+	 */
+	DERObjectScanner(InputStream in, int limit) {
+		this.in = in;
+		this.limit = limit;
+	}
+
+	/**
+	 * Scan for the next DER object.
+	 *
+	 * @return The next DER object, or {@code null} if the end of the input has been reached.
+	 * @throws IOException if an I/O error occurs or if the object is not DER encoded.
+	 */
+	@Nullable
+	DERObject next() throws IOException {
+		int tag = this.in.read();
+		DERObject derObject = null;
+
+		if (tag >= 0) {
+			if ((tag & 0x1f) == 0x1f) {
+				throw new IOException("Unsupported DER tag: " + tag);
+			}
+
+			int lengthByte = readByte();
+			byte[] header;
+			int length;
+
+			if (lengthByte < 0x80) {
+				header = new byte[] { (byte) tag, (byte) lengthByte };
+				length = lengthByte;
+			} else {
+				int lengthSize = lengthByte & 0x7f;
+
+				if (lengthSize == 0 || lengthSize > 4) {
+					throw new IOException("Unsupported DER length: " + lengthByte);
+				}
+				header = new byte[2 + lengthSize];
+				header[0] = (byte) tag;
+				header[1] = (byte) lengthByte;
+				length = 0;
+				for (int lengthIndex = 0; lengthIndex < lengthSize; lengthIndex++) {
+					int nextLengthByte = readByte();
+
+					header[2 + lengthIndex] = (byte) nextLengthByte;
+					length = (length << 8) | nextLengthByte;
+				}
+			}
+			if (length < 0 || length > this.limit - header.length) {
+				throw new IOException("DER object length exceeds limit: " + Integer.toUnsignedString(length));
+			}
+			derObject = new DERObject(readEncoded(header, length));
+		}
+		return derObject;
+	}
+
+	private int readByte() throws IOException {
+		int b = this.in.read();
+
+		if (b < 0) {
+			throw new EOFException("Unexpected end of DER data");
+		}
+		return b;
+	}
+
+	private byte[] readEncoded(byte[] header, int length) throws IOException {
+		int encodedLength = header.length + length;
+		// Grow the buffer as the data arrives to avoid huge allocations caused by a garbage length
+		byte[] encoded = Arrays.copyOf(header, Math.min(encodedLength, header.length + CHUNK_SIZE));
+		int encodedPosition = header.length;
+
+		while (encodedPosition < encodedLength) {
+			if (encodedPosition == encoded.length) {
+				encoded = Arrays.copyOf(encoded, Math.min(encodedLength, encoded.length + CHUNK_SIZE));
+			}
+
+			int read = this.in.read(encoded, encodedPosition, encoded.length - encodedPosition);
+
+			if (read < 0) {
+				throw new EOFException("Unexpected end of DER data");
+			}
+			encodedPosition += read;
+		}
+		return encoded;
+	}
+
+	/**
+	 * Classify a DER encoded object.
+	 *
+	 * @param encoded The encoded object to classify.
+	 * @return The object's type.
+	 */
+	static Type classify(byte[] encoded) {
+		int[] outer = children(encoded, 0);
+		Type type = Type.UNKNOWN;
+
+		if (outer.length == 3 && tag(encoded, outer[0]) == TAG_SEQUENCE && tag(encoded, outer[1]) == TAG_SEQUENCE
+				&& tag(encoded, outer[2]) == TAG_BIT_STRING) {
+			// Signed object (CRT, CSR or CRL); the signed content's leading elements tell which one
+			type = classifySigned(encoded, children(encoded, outer[0]));
+		} else if (outer.length >= 3 && tag(encoded, outer[0]) == TAG_INTEGER
+				&& tag(encoded, outer[1]) == TAG_SEQUENCE && tag(encoded, outer[2]) == TAG_OCTET_STRING) {
+			type = Type.KEY;
+		} else if (outer.length == 2 && tag(encoded, outer[0]) == TAG_SEQUENCE
+				&& tag(encoded, outer[1]) == TAG_OCTET_STRING) {
+			type = Type.ENCRYPTED_KEY;
+		}
+		return type;
+	}
+
+	private static Type classifySigned(byte[] encoded, int[] tbs) {
+		Type type = Type.UNKNOWN;
+
+		if (tbs.length > 0) {
+			int firstTag = tag(encoded, tbs[0]);
+
+			if (firstTag == TAG_CONTEXT_0) {
+				// Explicit version of a v2/v3 certificate
+				type = Type.CRT;
+			} else if (firstTag == TAG_SEQUENCE) {
+				// Signature algorithm of a v1 CRL (no version)
+				type = Type.CRL;
+			} else if (firstTag == TAG_INTEGER) {
+				if (tbs.length > 3 && isTime(tag(encoded, tbs[3]))) {
+					// version, signature, issuer, thisUpdate
+					type = Type.CRL;
+				} else if (tbs.length == 4 && tag(encoded, tbs[3]) == TAG_CONTEXT_0) {
+					// version, subject, subjectPKInfo, attributes
+					type = Type.CSR;
+				} else if (tbs.length >= 6) {
+					// serialNumber, signature, issuer, validity, subject, subjectPublicKeyInfo of a v1 certificate
+					type = Type.CRT;
+				}
+			}
+		}
+		return type;
+	}
+
+	private static boolean isTime(int tag) {
+		return tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME;
+	}
+
+	private static int tag(byte[] encoded, int offset) {
+		return encoded[offset] & 0xff;
+	}
+
+	private static int[] children(byte[] encoded, int offset) {
+		int[] children = new int[MAX_CHILDREN];
+		int childCount = 0;
+
+		if (offset < encoded.length && (encoded[offset] & 0x20) != 0) {
+			int contentOffset = contentOffset(encoded, offset);
+			int contentEnd = (contentOffset >= 0 ? contentOffset + contentLength(encoded, offset) : -1);
+			int childOffset = contentOffset;
+
+			if (contentEnd > encoded.length) {
+				contentEnd = -1;
+			}
+			while (childOffset >= 0 && childOffset < contentEnd && childCount < MAX_CHILDREN) {
+				int childContentOffset = contentOffset(encoded, childOffset);
+
+				if (childContentOffset >= 0) {
+					children[childCount++] = childOffset;
+					childOffset = childContentOffset + contentLength(encoded, childOffset);
+				} else {
+					childOffset = -1;
+				}
+			}
+			if (childOffset != contentEnd && childCount < MAX_CHILDREN) {
+				// Malformed content
+				childCount = 0;
+			}
+		}
+		return Arrays.copyOf(children, childCount);
+	}
+
+	private static int contentOffset(byte[] encoded, int offset) {
+		int contentOffset = -1;
+
+		if (offset + 1 < encoded.length && (encoded[offset] & 0x1f) != 0x1f) {
+			int lengthByte = encoded[offset + 1] & 0xff;
+			int lengthSize = (lengthByte < 0x80 ? 0 : lengthByte & 0x7f);
+
+			if (lengthByte != 0x80 && lengthSize <= 4 && offset + 2 + lengthSize <= encoded.length) {
+				contentOffset = offset + 2 + lengthSize;
+			}
+		}
+		return contentOffset;
+	}
+
+	private static int contentLength(byte[] encoded, int offset) {
+		int lengthByte = encoded[offset + 1] & 0xff;
+		int length;
+
+		if (lengthByte < 0x80) {
+			length = lengthByte;
+		} else {
+			int lengthSize = lengthByte & 0x7f;
+
+			length = 0;
+			for (int lengthIndex = 0; lengthIndex < lengthSize; lengthIndex++) {
+				length = (length << 8) | (encoded[offset + 2 + lengthIndex] & 0xff);
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * A single DER object.
+	 */
+	static final class DERObject {
+
+		private final byte[] encoded;
+		private final Type type;
+
+		DERObject(byte[] encoded) {
+			this.encoded = encoded;
+			this.type = classify(encoded);
+		}
+
+		/**
+		 * Get this object's type.
+		 *
+		 * @return This object's type.
+		 */
+		Type type() {
+			return this.type;
+		}
+
+		/**
+		 * Get this object's original encoding.
+		 *
+		 * @return This object's original encoding.
+		 */
+		byte[] encoded() {
+			return this.encoded;
+		}
+
+		@Override
+		public String toString() {
+			return (this.type != Type.UNKNOWN ? this.type.name() : String.format("0x%02x", this.encoded[0] & 0xff));
+		}
+
+	}
+
+}
@@ -23,6 +23,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
@@ -98,6 +99,18 @@ public final class IOResource<T extends AutoCloseable> implements AutoCloseable
 		return new IOResource<>(Files.newInputStream(path, options), resource);
 	}
 
+	/**
+	 * Create a new {@link InputStream} based I/O resource reading from a {@link ByteBuffer}.
+	 *
+	 * @param resource The resource name.
+	 * @param buffer The buffer to read from.
+	 * @return The created I/O resource.
+	 * @see ByteBufferInputStream
+	 */
+	public static IOResource<InputStream> newInputStream(String resource, ByteBuffer buffer) {
+		return new IOResource<>(new ByteBufferInputStream(buffer), resource);
+	}
+
 	/**
 	 * Create a new {@link OutputStream} based I/O resource.
 	 *
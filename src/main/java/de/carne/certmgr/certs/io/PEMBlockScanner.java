@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Byte level scanner splitting PEM encoded input into its armored blocks.
+ * <p>
+ * The scanner only locates the {@code -----BEGIN ...-----} and {@code -----END ...-----} armor lines and collects the
+ * Base64 encoded block content. Any text outside of the armor lines is skipped.
+ */
+final class PEMBlockScanner {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] ARMOR_BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ARMOR_END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ARMOR_DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream in;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int bufferPosition = 0;
+
+	private int bufferLimit = 0;
+
+	private byte[] line = new byte[128];
+
+	private int lineLength = 0;
+
+	/**
+	 * Construct {@code PEMBlockScanner}.
+	 *
+	 * @param in The input stream to scan.
+	 */
+	PEMBlockScanner(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Scan for the next PEM block.
+	 *
+	 * @return The next PEM block, or {@code null} if the end of the input has been reached.
+	 * @throws IOException if an I/O error occurs or if the block is malformed.
+	 */
+	@Nullable
+	Block next() throws IOException {
+		Block block = null;
+
+		while (block == null && readLine()) {
+			String type = matchArmor(ARMOR_BEGIN);
+
+			if (type != null) {
+				block = readBlock(type);
+			}
+		}
+		return block;
+	}
+
+	private Block readBlock(String type) throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		ByteArrayOutputStream base64 = new ByteArrayOutputStream();
+		boolean headers = false;
+		boolean complete = false;
+
+		appendLine(text);
+		while (!complete && readLine()) {
+			appendLine(text);
+
+			String endType = matchArmor(ARMOR_END);
+
+			if (endType != null) {
+				if (!type.equals(endType)) {
+					throw new IOException("PEM armor mismatch: BEGIN " + type + " / END " + endType);
+				}
+				complete = true;
+			} else if (lineContains((byte) ':')) {
+				// Encapsulated headers (e.g. Proc-Type and DEK-Info of an encrypted key)
+				headers = true;
+			} else {
+				for (int lineIndex = 0; lineIndex < this.lineLength; lineIndex++) {
+					byte b = this.line[lineIndex];
+
+					if (!isWhitespace(b)) {
+						base64.write(b);
+					}
+				}
+			}
+		}
+		if (!complete) {
+			throw new IOException("Missing PEM armor: END " + type);
+		}
+		return new Block(type, headers, text.toByteArray(), base64.toByteArray());
+	}
+
+	private boolean readLine() throws IOException {
+		boolean eol = false;
+		boolean eof = false;
+
+		this.lineLength = 0;
+		while (!eol && !eof) {
+			if (this.bufferPosition >= this.bufferLimit) {
+				int read = this.in.read(this.buffer);
+
+				this.bufferPosition = 0;
+				this.bufferLimit = Math.max(read, 0);
+				eof = read < 0;
+			}
+			while (!eol && this.bufferPosition < this.bufferLimit) {
+				byte b = this.buffer[this.bufferPosition++];
+
+				if (b == '\n') {
+					eol = true;
+				} else if (b != '\r') {
+					if (this.lineLength == this.line.length) {
+						this.line = Arrays.copyOf(this.line, this.line.length * 2);
+					}
+					this.line[this.lineLength++] = b;
+				}
+			}
+		}
+		return eol || this.lineLength > 0;
+	}
+
+	@Nullable
+	private String matchArmor(byte[] armor) {
+		int armorEnd = this.lineLength;
+
+		while (armorEnd > 0 && isWhitespace(this.line[armorEnd - 1])) {
+			armorEnd--;
+		}
+
+		String type = null;
+
+		if (armorEnd >= armor.length + ARMOR_DASHES.length && startsWith(0, armor)
+				&& startsWith(armorEnd - ARMOR_DASHES.length, ARMOR_DASHES)) {
+			type = new String(this.line, armor.length, armorEnd - ARMOR_DASHES.length - armor.length,
+					StandardCharsets.US_ASCII);
+		}
+		return type;
+	}
+
+	private boolean startsWith(int offset, byte[] prefix) {
+		boolean startsWith = true;
+
+		for (int prefixIndex = 0; startsWith && prefixIndex < prefix.length; prefixIndex++) {
+			startsWith = this.line[offset + prefixIndex] == prefix[prefixIndex];
+		}
+		return startsWith;
+	}
+
+	private boolean lineContains(byte b) {
+		boolean contains = false;
+
+		for (int lineIndex = 0; !contains && lineIndex < this.lineLength; lineIndex++) {
+			contains = this.line[lineIndex] == b;
+		}
+		return contains;
+	}
+
+	private void appendLine(ByteArrayOutputStream text) {
+		text.write(this.line, 0, this.lineLength);
+		text.write('\n');
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	/**
+	 * A single PEM block.
+	 */
+	static final class Block {
+
+		private final String type;
+		private final boolean headers;
+		private final byte[] text;
+		private final byte[] base64;
+
+		Block(String type, boolean headers, byte[] text, byte[] base64) {
+			this.type = type;
+			this.headers = headers;
+			this.text = text;
+			this.base64 = base64;
+		}
+
+		/**
+		 * Get this block's type (e.g. {@code CERTIFICATE}).
+		 *
+		 * @return This block's type.
+		 */
+		String type() {
+			return this.type;
+		}
+
+		/**
+		 * Check whether this block contains encapsulated headers.
+		 *
+		 * @return {@code true} if this block contains encapsulated headers.
+		 */
+		boolean hasHeaders() {
+			return this.headers;
+		}
+
+		/**
+		 * Get this block's full text (including the armor lines).
+		 *
+		 * @return This block's full text.
+		 */
+		byte[] text() {
+			return this.text;
+		}
+
+		/**
+		 * Decode this block's content.
+		 *
+		 * @return The decoded DER data.
+		 * @throws IOException if the block's content is not valid Base64.
+		 */
+		byte[] decode() throws IOException {
+			byte[] der;
+
+			try {
+				der = Base64.getDecoder().decode(this.base64);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid PEM " + this.type + " block", e);
+			}
+			return der;
+		}
+
+		@Override
+		public String toString() {
+			return this.type;
+		}
+
+	}
+
+}
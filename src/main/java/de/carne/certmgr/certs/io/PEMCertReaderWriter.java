@@ -16,8 +16,10 @@
  */
 package de.carne.certmgr.certs.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
@@ -25,7 +27,10 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -42,7 +47,9 @@ import org.bouncycastle.pkcs.PKCS10CertificationRequest;
 import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.CertObjectConsumer;
 import de.carne.certmgr.certs.CertObjectStore;
+import de.carne.certmgr.certs.CertProviderException;
 import de.carne.certmgr.certs.NoPassword;
 import de.carne.certmgr.certs.PasswordCallback;
 import de.carne.certmgr.certs.PasswordRequiredException;
@@ -73,6 +80,8 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 
 	private static final JcaPEMKeyConverter PEM_KEY_CONVERTER = new JcaPEMKeyConverter();
 
+	private static final int DECODE_BATCH_SIZE = 256;
+
 	@Override
 	public String providerName() {
 		return PROVIDER_NAME;
@@ -112,6 +121,12 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 		return readObjectsBinary(in, password);
 	}
 
+	@Override
+	public boolean streamBinary(IOResource<InputStream> in, PasswordCallback password, CertObjectConsumer consumer)
+			throws IOException {
+		return readBlocks(in, password, CertObjectStore.streaming(consumer));
+	}
+
 	@Override
 	@Nullable
 	public CertObjectStore readString(IOResource<Reader> in, PasswordCallback password) throws IOException {
@@ -166,6 +181,10 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 
 	/**
 	 * Read all available certificate objects from a PEM encoded {@link InputStream} resource.
+	 * <p>
+	 * The input is split into its PEM blocks on byte level. CRT, CSR and CRL blocks are decoded in parallel (the
+	 * order of the read certificate objects still reflects the input order). All other blocks (e.g. encrypted keys)
+	 * are decoded sequentially.
 	 *
 	 * @param in The stream resource to read from.
 	 * @param password The callback to use for querying passwords (if needed).
@@ -175,12 +194,96 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 	@Nullable
 	public static CertObjectStore readObjectsBinary(IOResource<InputStream> in, PasswordCallback password)
 			throws IOException {
-		CertObjectStore certObjects;
+		CertObjectStore certObjects = new CertObjectStore();
 
-		try (IOResource<Reader> inReader = IOResource.streamReader(in, StandardCharsets.US_ASCII)) {
-			certObjects = readObjectsString(inReader, password);
+		return (readBlocks(in, password, certObjects) ? certObjects : null);
+	}
+
+	private static boolean readBlocks(IOResource<InputStream> in, PasswordCallback password,
+			CertObjectStore certObjects) throws IOException {
+		LOG.debug("Trying to read PEM blocks from: ''{0}''...", in);
+
+		PEMBlockScanner scanner = new PEMBlockScanner(in.io());
+		PEMBlockScanner.Block block;
+
+		try {
+			block = scanner.next();
+		} catch (IOException e) {
+			LOG.info(e, "No PEM objects recognized in: ''{0}''", in);
+			block = null;
+		}
+
+		boolean recognized = block != null;
+		List<PEMBlockScanner.Block> blocks = new ArrayList<>(DECODE_BATCH_SIZE);
+
+		while (block != null) {
+			blocks.add(block);
+			block = scanner.next();
+			if (block == null || blocks.size() >= DECODE_BATCH_SIZE) {
+				decodeBlocks(in, password, blocks, certObjects);
+				blocks.clear();
+			}
+		}
+		return recognized;
+	}
+
+	private static void decodeBlocks(IOResource<InputStream> in, PasswordCallback password,
+			List<PEMBlockScanner.Block> blocks, CertObjectStore certObjects) throws IOException {
+		// Decode the independent blocks in parallel; the remaining ones are decoded in order via PEMParser
+		List<Object> decodedBlocks = blocks.parallelStream().map(PEMCertReaderWriter::decodeBlock)
+				.collect(Collectors.toList());
+
+		for (Object decodedBlock : decodedBlocks) {
+			if (decodedBlock instanceof X509Certificate) {
+				certObjects.addCRT((X509Certificate) decodedBlock);
+			} else if (decodedBlock instanceof PKCS10CertificateRequest) {
+				certObjects.addCSR((PKCS10CertificateRequest) decodedBlock);
+			} else if (decodedBlock instanceof X509CRL) {
+				certObjects.addCRL((X509CRL) decodedBlock);
+			} else if (decodedBlock instanceof IOException) {
+				throw (IOException) decodedBlock;
+			} else {
+				PEMBlockScanner.Block block = (PEMBlockScanner.Block) decodedBlock;
+
+				LOG.debug("Decoding PEM block of type {0} via PEMParser", block);
+
+				try (IOResource<Reader> blockReader = new IOResource<>(
+						new InputStreamReader(new ByteArrayInputStream(block.text()), StandardCharsets.US_ASCII),
+						in.resource())) {
+					readObjects(blockReader, password, certObjects);
+				}
+			}
 		}
-		return certObjects;
+	}
+
+	private static Object decodeBlock(PEMBlockScanner.Block block) {
+		// Blocks not decodable here are returned as is
+		Object decodedBlock = block;
+
+		if (!block.hasHeaders()) {
+			try {
+				switch (block.type()) {
+				case "CERTIFICATE":
+				case "X509 CERTIFICATE":
+					decodedBlock = convertCRT(new X509CertificateHolder(block.decode()));
+					break;
+				case "CERTIFICATE REQUEST":
+				case "NEW CERTIFICATE REQUEST":
+					decodedBlock = convertCSR(new PKCS10CertificationRequest(block.decode()));
+					break;
+				case "X509 CRL":
+					decodedBlock = convertCRL(new X509CRLHolder(block.decode()));
+					break;
+				default:
+					// Leave it to PEMParser
+				}
+			} catch (IOException e) {
+				decodedBlock = e;
+			} catch (IllegalArgumentException | ClassCastException e) {
+				decodedBlock = new CertProviderException(e);
+			}
+		}
+		return decodedBlock;
 	}
 
 	/**
@@ -194,9 +297,16 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 	@Nullable
 	public static CertObjectStore readObjectsString(IOResource<Reader> in, PasswordCallback password)
 			throws IOException {
+		CertObjectStore certObjects = new CertObjectStore();
+
+		return (readObjects(in, password, certObjects) ? certObjects : null);
+	}
+
+	private static boolean readObjects(IOResource<Reader> in, PasswordCallback password, CertObjectStore certObjects)
+			throws IOException {
 		LOG.debug("Trying to read PEM objects from: ''{0}''...", in);
 
-		CertObjectStore certObjects = null;
+		boolean recognized = false;
 
 		try (PEMParser parser = new PEMParser(in.io())) {
 			Object pemObject;
@@ -208,9 +318,7 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 				pemObject = null;
 			}
 			while (pemObject != null) {
-				if (certObjects == null) {
-					certObjects = new CertObjectStore();
-				}
+				recognized = true;
 
 				LOG.info("Decoding PEM object of type {0}", pemObject.getClass().getName());
 
@@ -230,7 +338,7 @@ public class PEMCertReaderWriter extends JCAConversion implements CertReader, Ce
 				pemObject = parser.readObject();
 			}
 		}
-		return certObjects;
+		return recognized;
 	}
 
 	/**
@@ -33,9 +33,12 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.DERBMPString;
 import org.bouncycastle.asn1.pkcs.ContentInfo;
+import org.bouncycastle.asn1.pkcs.Pfx;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
@@ -67,7 +70,6 @@ import de.carne.certmgr.certs.PasswordRequiredException;
 import de.carne.certmgr.certs.spi.CertReader;
 import de.carne.certmgr.certs.spi.CertWriter;
 import de.carne.certmgr.certs.x509.KeyHelper;
-import de.carne.io.IOUtil;
 import de.carne.util.Strings;
 
 /**
@@ -308,18 +310,25 @@ public class PKCS12CertReaderWriter implements CertReader, CertWriter {
 	}
 
 	@Nullable
+	@SuppressWarnings("resource")
 	private static PKCS12PfxPdu readPKCS12(IOResource<InputStream> in) {
+		InputStream pkcs12Stream = in.io();
+		// Buffered input is only limited by the buffer size; otherwise stick to the read limit
+		// (the stream is closed by the caller)
+		ASN1InputStream derStream = (pkcs12Stream instanceof ByteBufferInputStream
+				? DERCertReaderWriter.newDERStream(pkcs12Stream)
+				: new ASN1InputStream(pkcs12Stream, CertReader.READ_LIMIT));
 		PKCS12PfxPdu pkcs12 = null;
 
 		try {
-			byte[] bytes = IOUtil.readAllBytes(in.io(), CertReader.READ_LIMIT);
+			ASN1Primitive derObject = derStream.readObject();
 
-			if (bytes.length > 0) {
-				pkcs12 = new PKCS12PfxPdu(bytes);
+			if (derObject != null) {
+				pkcs12 = new PKCS12PfxPdu(Pfx.getInstance(derObject));
 			} else {
 				LOG.info("Ignoring empty resource: ''{0}''", in);
 			}
-		} catch (IOException e) {
+		} catch (IOException | IllegalArgumentException | ClassCastException e) {
 			LOG.info(e, "No PKCS#12 objects recognized in: ''{0}''", in);
 		}
 		return pkcs12;
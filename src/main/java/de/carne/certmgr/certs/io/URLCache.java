@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2015-2021 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.certmgr.certs.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.certmgr.certs.CertObjectStore;
+import de.carne.certmgr.certs.CertObjectType;
+import de.carne.certmgr.certs.spi.CertReader;
+import de.carne.certmgr.util.PropertiesHelper;
+import de.carne.nio.file.attribute.FileAttributes;
+import de.carne.util.SystemProperties;
+
+/**
+ * Download cache for {@link URL} based certificate data.
+ * <p>
+ * Every URL is downloaded only once per read and downloads exceeding {@link CertReader#READ_LIMIT} are rejected. The
+ * content of HTTP(S) URLs is additionally cached on disk together with the {@code ETag} and {@code Last-Modified}
+ * response headers. Repeated downloads are issued as conditional
+ * requests and a {@code 304 Not Modified} response is served from the disk cache. If the content has not been modified
+ * since it has been decoded the last time, the decoded certificate objects are re-used as well. Every reader gets its
+ * own copy of the re-used certificate objects. The number of URLs for which decoded certificate objects are kept is
+ * limited by the system property {@code de.carne.certmgr.certs.io.urlCacheEntries} (default: 32); the least recently
+ * used ones are dropped first.
+ * <p>
+ * The disk cache is located in the directory defined by the system property
+ * {@code de.carne.certmgr.certs.io.urlCache} (default: {@code .certmgr/urlcache} in the user's home directory). Setting
+ * the property to an empty string disables the disk cache. Content is only written to the disk cache after it has been
+ * decoded and if it does not contain any private keys. The cache files are only accessible by the owner (if supported
+ * by the file system). The total size of the cached content is limited by the system property
+ * {@code de.carne.certmgr.certs.io.urlCacheSize} (in KiB, default: 16384); the least recently used entries are dropped
+ * first.
+ */
+final class URLCache {
+
+	private static final Log LOG = new Log();
+
+	private static final String CACHE_DIRECTORY_PROPERTY = URLCache.class.getPackage().getName() + ".urlCache";
+
+	private static final String CACHE_DATA_SUFFIX = ".dat";
+	private static final String CACHE_INFO_SUFFIX = ".properties";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private static final String INFO_URL = "url";
+	private static final String INFO_ETAG = "etag";
+	private static final String INFO_LAST_MODIFIED = "lastModified";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final long MAX_CACHE_SIZE = PropertiesHelper.getInt(URLCache.class, ".urlCacheSize", 16384) * 1024L;
+
+	private static final int MAX_DECODED_CONTENTS = PropertiesHelper.getInt(URLCache.class, ".urlCacheEntries", 32);
+
+	private static final Map<String, DecodedContent> DECODED_CONTENTS = new LinkedHashMap<String, DecodedContent>(16,
+			0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DecodedContent> eldest) {
+			return size() > MAX_DECODED_CONTENTS;
+		}
+
+	};
+
+	private URLCache() {
+		// Prevent instantiation
+	}
+
+	/**
+	 * Download an URL's content.
+	 *
+	 * @param url The URL to download.
+	 * @return The downloaded content.
+	 * @throws IOException if an I/O error occurs during the download.
+	 */
+	static Content fetch(URL url) throws IOException {
+		URLConnection connection = url.openConnection();
+		Content content;
+
+		if (connection instanceof HttpURLConnection) {
+			content = fetchHttp(url, (HttpURLConnection) connection);
+		} else {
+			try (InputStream in = connection.getInputStream()) {
+				content = new Content(url, readContent(url, in), null, false);
+			}
+		}
+		return content;
+	}
+
+	private static Content fetchHttp(URL url, HttpURLConnection connection) throws IOException {
+		Path cacheFile = cacheFile(url);
+		Properties cacheInfo = (cacheFile != null ? readCacheInfo(url, cacheFile) : null);
+
+		if (cacheInfo != null) {
+			String etag = cacheInfo.getProperty(INFO_ETAG);
+			String lastModified = cacheInfo.getProperty(INFO_LAST_MODIFIED);
+
+			if (etag != null) {
+				connection.setRequestProperty("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				connection.setRequestProperty("If-Modified-Since", lastModified);
+			}
+		}
+
+		int responseCode = connection.getResponseCode();
+		Content content;
+
+		if (cacheFile != null && cacheInfo != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			LOG.debug("Using cached content for URL ''{0}''", url);
+
+			Path dataFile = dataFile(cacheFile);
+
+			content = new Content(url, ByteBuffer.wrap(Files.readAllBytes(dataFile)),
+					validator(cacheInfo.getProperty(INFO_ETAG), cacheInfo.getProperty(INFO_LAST_MODIFIED)), true);
+			touchCacheFile(dataFile);
+		} else if (responseCode == HttpURLConnection.HTTP_OK) {
+			String etag = connection.getHeaderField("ETag");
+			String lastModified = connection.getHeaderField("Last-Modified");
+
+			if (connection.getContentLengthLong() > CertReader.READ_LIMIT) {
+				throw new IOException("Content of URL '" + url + "' exceeds read limit of " + CertReader.READ_LIMIT
+						+ " bytes");
+			}
+
+			ByteBuffer data;
+
+			try (InputStream in = connection.getInputStream()) {
+				data = readContent(url, in);
+			}
+			content = new Content(url, data, validator(etag, lastModified), false);
+			if (cacheFile != null) {
+				// The outdated entry is dropped right away; the new one is written once the content has been decoded
+				dropCacheEntry(cacheFile);
+				if (etag != null || lastModified != null) {
+					content.setCacheUpdate(cacheFile, etag, lastModified);
+				}
+			}
+		} else {
+			throw new IOException("Unexpected HTTP response for URL '" + url + "': " + responseCode);
+		}
+		return content;
+	}
+
+	private static ByteBuffer readContent(URL url, InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[BUFFER_SIZE];
+		int read;
+
+		while ((read = in.read(chunk)) >= 0) {
+			if (buffer.size() + read > CertReader.READ_LIMIT) {
+				throw new IOException("Content of URL '" + url + "' exceeds read limit of " + CertReader.READ_LIMIT
+						+ " bytes");
+			}
+			buffer.write(chunk, 0, read);
+		}
+		return ByteBuffer.wrap(buffer.toByteArray());
+	}
+
+	@Nullable
+	private static String validator(@Nullable String etag, @Nullable String lastModified) {
+		return (etag != null || lastModified != null ? etag + "|" + lastModified : null);
+	}
+
+	@Nullable
+	private static Path cacheFile(URL url) {
+		String cacheDirectory = SystemProperties.value(CACHE_DIRECTORY_PROPERTY,
+				Paths.get(System.getProperty("user.home"), ".certmgr", "urlcache").toString());
+
+		return (!cacheDirectory.isEmpty() ? Paths.get(cacheDirectory, cacheKey(url)) : null);
+	}
+
+	private static Path dataFile(Path cacheFile) {
+		return cacheFile.resolveSibling(cacheFile.getFileName() + CACHE_DATA_SUFFIX);
+	}
+
+	private static Path infoFile(Path cacheFile) {
+		return cacheFile.resolveSibling(cacheFile.getFileName() + CACHE_INFO_SUFFIX);
+	}
+
+	@Nullable
+	private static Properties readCacheInfo(URL url, Path cacheFile) {
+		Path infoFile = infoFile(cacheFile);
+		Properties cacheInfo = null;
+
+		if (Files.isRegularFile(infoFile) && Files.isRegularFile(dataFile(cacheFile))) {
+			try (InputStream in = Files.newInputStream(infoFile)) {
+				Properties loadedInfo = new Properties();
+
+				loadedInfo.load(in);
+				// Guard against (unlikely) cache key collisions
+				if (url.toExternalForm().equals(loadedInfo.getProperty(INFO_URL))) {
+					cacheInfo = loadedInfo;
+				}
+			} catch (IOException e) {
+				LOG.warning(e, "Ignoring unreadable cache entry ''{0}''", infoFile);
+			}
+		}
+		return cacheInfo;
+	}
+
+	private static void dropCacheEntry(Path cacheFile) {
+		Path infoFile = infoFile(cacheFile);
+		Path dataFile = dataFile(cacheFile);
+
+		try {
+			// Drop the info file first; hence a partially dropped entry is never used
+			Files.deleteIfExists(infoFile);
+			Files.deleteIfExists(dataFile);
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to drop cache entry ''{0}''", cacheFile);
+		}
+	}
+
+	private static void writeCacheEntry(URL url, Path cacheFile, ByteBuffer data, @Nullable String etag,
+			@Nullable String lastModified) {
+		Path dataFile = dataFile(cacheFile);
+		Path infoFile = infoFile(cacheFile);
+
+		try {
+			Properties cacheInfo = new Properties();
+
+			cacheInfo.setProperty(INFO_URL, url.toExternalForm());
+			if (etag != null) {
+				cacheInfo.setProperty(INFO_ETAG, etag);
+			}
+			if (lastModified != null) {
+				cacheInfo.setProperty(INFO_LAST_MODIFIED, lastModified);
+			}
+
+			Path cacheDirectory = cacheFile.getParent();
+
+			Files.createDirectories(cacheDirectory, FileAttributes.userDirectoryDefault(cacheDirectory));
+			writeFile(dataFile, out -> out.write(data.array(), data.arrayOffset(), data.remaining()));
+			writeFile(infoFile, out -> cacheInfo.store(out, null));
+			trimCache(cacheDirectory);
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to update cache entry ''{0}''", cacheFile);
+			dropCacheEntry(cacheFile);
+		}
+	}
+
+	private static void writeFile(Path file, CacheWriter writer) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + TEMP_FILE_SUFFIX);
+
+		// Re-create any left over temp file; hence the owner-only permissions are always applied
+		Files.deleteIfExists(tempFile);
+		try (OutputStream out = Channels.newOutputStream(Files.newByteChannel(tempFile,
+				EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly(tempFile)))) {
+			writer.write(out);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static FileAttribute<?>[] ownerOnly(Path file) {
+		FileAttribute<?>[] attributes;
+
+		if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			attributes = new FileAttribute<?>[] {
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) };
+		} else {
+			attributes = new FileAttribute<?>[0];
+		}
+		return attributes;
+	}
+
+	private static void touchCacheFile(Path dataFile) {
+		try {
+			// The data file's modification time tracks the last use of the entry
+			Files.setLastModifiedTime(dataFile, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			Exceptions.ignore(e);
+		}
+	}
+
+	private static void trimCache(Path cacheDirectory) throws IOException {
+		List<CachedData> cachedDatas = new ArrayList<>();
+
+		try (DirectoryStream<Path> dataFiles = Files.newDirectoryStream(cacheDirectory, "*" + CACHE_DATA_SUFFIX)) {
+			for (Path dataFile : dataFiles) {
+				try {
+					cachedDatas.add(new CachedData(dataFile, Files.size(dataFile),
+							Files.getLastModifiedTime(dataFile).toMillis()));
+				} catch (IOException e) {
+					// The entry may have been dropped concurrently
+					Exceptions.ignore(e);
+				}
+			}
+		}
+		cachedDatas.sort(Comparator.comparingLong((CachedData cachedData) -> cachedData.lastUsed).reversed());
+
+		long cacheSize = 0;
+
+		for (CachedData cachedData : cachedDatas) {
+			cacheSize += cachedData.size;
+			if (cacheSize > MAX_CACHE_SIZE) {
+				String dataFileName = cachedData.dataFile.getFileName().toString();
+
+				LOG.debug("Dropping least recently used cache entry ''{0}''", cachedData.dataFile);
+				dropCacheEntry(cachedData.dataFile.resolveSibling(
+						dataFileName.substring(0, dataFileName.length() - CACHE_DATA_SUFFIX.length())));
+			}
+		}
+	}
+
+	private static String cacheKey(URL url) {
+		byte[] digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support SHA-256
+			throw Exceptions.toRuntime(e);
+		}
+
+		StringBuilder cacheKey = new StringBuilder();
+
+		for (byte digestByte : digest) {
+			cacheKey.append(Character.forDigit((digestByte >> 4) & 0xf, 16));
+			cacheKey.append(Character.forDigit(digestByte & 0xf, 16));
+		}
+		return cacheKey.toString();
+	}
+
+	@FunctionalInterface
+	private interface CacheWriter {
+
+		void write(OutputStream out) throws IOException;
+
+	}
+
+	private static class CachedData {
+
+		final Path dataFile;
+		final long size;
+		final long lastUsed;
+
+		CachedData(Path dataFile, long size, long lastUsed) {
+			this.dataFile = dataFile;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+
+	}
+
+	private static class CacheUpdate {
+
+		final Path cacheFile;
+		@Nullable
+		final String etag;
+		@Nullable
+		final String lastModified;
+
+		CacheUpdate(Path cacheFile, @Nullable String etag, @Nullable String lastModified) {
+			this.cacheFile = cacheFile;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	private static class DecodedContent {
+
+		final String validator;
+		final SoftReference<CertObjectStore> certObjects;
+
+		DecodedContent(String validator, CertObjectStore certObjects) {
+			this.validator = validator;
+			this.certObjects = new SoftReference<>(certObjects);
+		}
+
+	}
+
+	/**
+	 * Downloaded URL content.
+	 */
+	static final class Content {
+
+		private final URL url;
+		private final ByteBuffer data;
+		@Nullable
+		private final String validator;
+		private final boolean notModified;
+		@Nullable
+		private CacheUpdate cacheUpdate = null;
+
+		Content(URL url, ByteBuffer data, @Nullable String validator, boolean notModified) {
+			this.url = url;
+			this.data = data;
+			this.validator = validator;
+			this.notModified = notModified;
+		}
+
+		void setCacheUpdate(Path cacheFile, @Nullable String etag, @Nullable String lastModified) {
+			this.cacheUpdate = new CacheUpdate(cacheFile, etag, lastModified);
+		}
+
+		/**
+		 * Get the downloaded data.
+		 *
+		 * @return The downloaded data.
+		 */
+		ByteBuffer data() {
+			return this.data;
+		}
+
+		/**
+		 * Check whether the content has been served from the disk cache due to a {@code 304 Not Modified} response.
+		 *
+		 * @return {@code true} if the content has been served from the disk cache.
+		 */
+		boolean isNotModified() {
+			return this.notModified;
+		}
+
+		/**
+		 * Get the certificate objects previously decoded from this content.
+		 *
+		 * @return A copy of the previously decoded certificate objects, or {@code null} if none are available.
+		 */
+		@Nullable
+		CertObjectStore decodedCertObjects() {
+			CertObjectStore certObjects = null;
+
+			if (this.notModified) {
+				String key = this.url.toExternalForm();
+				CertObjectStore decodedCertObjects = null;
+
+				synchronized (DECODED_CONTENTS) {
+					DecodedContent decodedContent = DECODED_CONTENTS.get(key);
+
+					if (decodedContent != null && Objects.equals(this.validator, decodedContent.validator)) {
+						decodedCertObjects = decodedContent.certObjects.get();
+						if (decodedCertObjects == null) {
+							DECODED_CONTENTS.remove(key);
+						}
+					}
+				}
+				if (decodedCertObjects != null) {
+					certObjects = CertObjectStore.copy(decodedCertObjects);
+				}
+			}
+			return certObjects;
+		}
+
+		/**
+		 * Remember the certificate objects decoded from this content.
+		 * <p>
+		 * Certificate objects containing private keys are never remembered and the content they have been decoded from
+		 * is not written to the disk cache. A copy of the submitted certificate objects is remembered; hence the caller
+		 * may continue to modify them.
+		 *
+		 * @param certObjects The decoded certificate objects.
+		 */
+		void setDecodedCertObjects(CertObjectStore certObjects) {
+			String contentValidator = this.validator;
+			CacheUpdate pendingCacheUpdate = this.cacheUpdate;
+			boolean containsKey = false;
+
+			for (CertObjectStore.Entry certObject : certObjects) {
+				containsKey = containsKey || certObject.type() == CertObjectType.KEY;
+			}
+			this.cacheUpdate = null;
+			if (containsKey) {
+				LOG.debug("Not caching content of URL ''{0}'' due to contained private keys", this.url);
+			} else {
+				if (pendingCacheUpdate != null) {
+					writeCacheEntry(this.url, pendingCacheUpdate.cacheFile, this.data, pendingCacheUpdate.etag,
+							pendingCacheUpdate.lastModified);
+				}
+				if (contentValidator != null) {
+					synchronized (DECODED_CONTENTS) {
+						DECODED_CONTENTS.put(this.url.toExternalForm(),
+								new DecodedContent(contentValidator, CertObjectStore.copy(certObjects)));
+					}
+				}
+			}
+		}
+
+	}
+
+}
@@ -22,6 +22,7 @@ import java.io.Reader;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import de.carne.certmgr.certs.CertObjectConsumer;
 import de.carne.certmgr.certs.CertObjectStore;
 import de.carne.certmgr.certs.PasswordCallback;
 import de.carne.certmgr.certs.io.CertReaders;
@@ -52,6 +53,32 @@ public interface CertReader extends NamedProvider, FileAccessProvider {
 	@Nullable
 	CertObjectStore readBinary(IOResource<InputStream> in, PasswordCallback password) throws IOException;
 
+	/**
+	 * Read all available certificate objects and pass them to a consumer as soon as they are decoded.
+	 * <p>
+	 * Contrary to {@link #readBinary(IOResource, PasswordCallback)} the read certificate objects are not collected;
+	 * hence memory usage does not depend on the number of objects contained in the input. The default implementation
+	 * reads all objects via {@link #readBinary(IOResource, PasswordCallback)} first and should be overridden by
+	 * readers capable of decoding their input incrementally.
+	 *
+	 * @param in The input resource to read from.
+	 * @param password The callback to use for querying passwords (if needed).
+	 * @param consumer The consumer to pass the read certificate objects to.
+	 * @return {@code true} if the input has been recognized.
+	 * @throws IOException if an I/O error occurs while reading.
+	 */
+	default boolean streamBinary(IOResource<InputStream> in, PasswordCallback password, CertObjectConsumer consumer)
+			throws IOException {
+		CertObjectStore certObjects = readBinary(in, password);
+
+		if (certObjects != null) {
+			for (CertObjectStore.Entry certObject : certObjects) {
+				consumer.accept(certObject);
+			}
+		}
+		return certObjects != null;
+	}
+
 	/**
 	 * Read all available certificate objects.
 	 *
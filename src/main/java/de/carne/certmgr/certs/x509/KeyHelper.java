@@ -22,6 +22,8 @@ import java.io.StringWriter;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
@@ -36,6 +38,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import de.carne.boot.logging.Log;
 import de.carne.certmgr.certs.CertProviderException;
 import de.carne.certmgr.certs.security.KeyPairAlgorithm;
+import de.carne.certmgr.util.Bytes;
 
 /**
  * Utility class providing security key related functions.
@@ -163,6 +166,27 @@ public final class KeyHelper {
 		return buffer.toString();
 	}
 
+	/**
+	 * Get the public key's fingerprint.
+	 * <p>
+	 * The fingerprint is derived from the key's SubjectPublicKeyInfo encoding and is therefore suitable for identifying
+	 * identical keys independent of their actual key object.
+	 *
+	 * @param publicKey The public key to get the fingerprint for.
+	 * @return The public key's fingerprint (SHA-256 hex string).
+	 * @throws IOException if the fingerprint cannot be computed.
+	 */
+	public static String fingerprint(PublicKey publicKey) throws IOException {
+		byte[] digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+		} catch (NoSuchAlgorithmException e) {
+			throw new CertProviderException(e);
+		}
+		return Bytes.toHexString(digest);
+	}
+
 	/**
 	 * Generate a Key object.
 	 *
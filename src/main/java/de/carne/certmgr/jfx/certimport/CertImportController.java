@@ -38,6 +38,7 @@ import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.logging.LogLevel;
 import de.carne.boot.logging.LogRecorder;
+import de.carne.certmgr.certs.FileImportMonitor;
 import de.carne.certmgr.certs.PasswordCallback;
 import de.carne.certmgr.certs.UserCertStore;
 import de.carne.certmgr.certs.UserCertStoreEntry;
@@ -69,6 +70,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TreeItem;
@@ -112,6 +114,9 @@ public class CertImportController extends StageController {
 	@FXML
 	VBox ctlProgressOverlay;
 
+	@FXML
+	ProgressIndicator ctlProgressIndicator;
+
 	@FXML
 	RadioButton ctlFileSourceOption;
 
@@ -392,7 +397,7 @@ public class CertImportController extends StageController {
 						files = filesStream.filter(Files::isRegularFile).collect(Collectors.toList());
 					}
 					return UserCertStore.createFromFiles(files,
-							PasswordDialog.enterPassword(CertImportController.this));
+							PasswordDialog.enterPassword(CertImportController.this), fileImportMonitor());
 				}
 
 			});
@@ -466,7 +471,7 @@ public class CertImportController extends StageController {
 					@Override
 					protected UserCertStore createStore(List<Path> params) throws IOException {
 						return UserCertStore.createFromFiles(params,
-								PasswordDialog.enterPassword(CertImportController.this));
+								PasswordDialog.enterPassword(CertImportController.this), fileImportMonitor());
 					}
 
 				});
@@ -609,6 +614,8 @@ public class CertImportController extends StageController {
 
 		ReloadTask(P reloadParam) {
 			this.reloadParam = reloadParam;
+			// Rebinding resets the indicator to the new task's (initially indeterminate) progress
+			CertImportController.this.ctlProgressIndicator.progressProperty().bind(progressProperty());
 		}
 
 		public List<LogRecord> logRecords() {
@@ -628,6 +635,22 @@ public class CertImportController extends StageController {
 
 		protected abstract UserCertStore createStore(P param) throws IOException;
 
+		protected FileImportMonitor fileImportMonitor() {
+			return new FileImportMonitor() {
+
+				@Override
+				public void progress(int processed, int total) {
+					ReloadTask.this.updateProgress(processed, total);
+				}
+
+				@Override
+				public boolean isCancelled() {
+					return ReloadTask.this.isCancelled();
+				}
+
+			};
+		}
+
 		@Override
 		protected void succeeded() {
 			super.succeeded();
@@ -647,9 +670,7 @@ public class CertImportController extends StageController {
 
 		UserCertStore importStore = this.importStoreParam.get();
 
-		for (UserCertStoreEntry importEntry : importSelection) {
-			importStore.importEntry(importEntry, newPassword, CertImportI18N.strTextAliashint());
-		}
+		importStore.importEntries(importSelection, newPassword, CertImportI18N.strTextAliashint());
 	}
 
 	private class ImportSelectionTask extends BackgroundTask<Void> {
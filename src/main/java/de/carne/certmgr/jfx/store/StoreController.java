@@ -37,6 +37,7 @@ import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.Exceptions;
 import de.carne.certmgr.certs.UserCertStore;
+import de.carne.certmgr.certs.UserCertStoreChangeListener;
 import de.carne.certmgr.certs.UserCertStoreEntry;
 import de.carne.certmgr.certs.x509.Attributes;
 import de.carne.certmgr.certs.x509.PKCS10CertificateRequest;
@@ -108,6 +109,9 @@ public class StoreController extends StageController {
 
 	private ObjectProperty<UserCertStore> storeProperty = new SimpleObjectProperty<>(null);
 
+	private final UserCertStoreChangeListener storeChangeListener = (store, addedEntries, updatedEntries,
+			removedEntries) -> PlatformHelper.runLater(() -> onStoreChanged(store));
+
 	@SuppressWarnings("null")
 	@FXML
 	MenuItem cmdStorePreferences;
@@ -606,6 +610,24 @@ public class StoreController extends StageController {
 		updateDetailsView(selection);
 	}
 
+	private void onProcessStoreChanges() {
+		UserCertStore store = this.storeProperty.get();
+
+		if (store != null) {
+			try {
+				store.processChanges();
+			} catch (IOException e) {
+				Exceptions.warn(e);
+			}
+		}
+	}
+
+	private void onStoreChanged(UserCertStore store) {
+		if (store.equals(this.storeProperty.get())) {
+			updateStoreEntryView();
+		}
+	}
+
 	private void onUpdateHeapStatus() {
 		Runtime rt = Runtime.getRuntime();
 		long usedMemory = rt.totalMemory() - rt.freeMemory();
@@ -730,6 +752,16 @@ public class StoreController extends StageController {
 				.addListener((p, o, n) -> onStoreViewSelectionChanged(n));
 		Windows.onHiding(stage, (ScheduledFuture<?> f) -> f.cancel(true), getExecutorService().scheduleAtFixedRate(
 				PlatformHelper.runLaterRunnable(() -> onUpdateHeapStatus()), 0, 500, TimeUnit.MILLISECONDS));
+		Windows.onHiding(stage, (ScheduledFuture<?> f) -> f.cancel(true), getExecutorService()
+				.scheduleWithFixedDelay(() -> onProcessStoreChanges(), 1000, 1000, TimeUnit.MILLISECONDS));
+		this.storeProperty.addListener((p, o, n) -> {
+			if (o != null) {
+				o.removeChangeListener(this.storeChangeListener);
+			}
+			if (n != null) {
+				n.addChangeListener(this.storeChangeListener);
+			}
+		});
 	}
 
 	@Override
@@ -60,4 +60,23 @@ public final class Bytes {
 		return buffer.toString();
 	}
 
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Convert byte data to a compact hex string (without any separators).
+	 *
+	 * @param bytes The byte data to convert.
+	 * @return The byte data's hex string representation.
+	 */
+	public static String toHexString(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		int charIndex = 0;
+
+		for (byte b : bytes) {
+			chars[charIndex++] = HEX_DIGITS[(b >> 4) & 0xf];
+			chars[charIndex++] = HEX_DIGITS[b & 0xf];
+		}
+		return new String(chars);
+	}
+
 }
@@ -17,20 +17,36 @@
 package de.carne.certmgr.test.certs;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.Security;
 import java.security.cert.X509Extension;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.BackingStoreException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -41,15 +57,24 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.eclipse.jdt.annotation.Nullable;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import de.carne.boot.Exceptions;
+import de.carne.certmgr.certs.CertObjectCacheStatistics;
+import de.carne.certmgr.certs.CertObjectMergeReport;
+import de.carne.certmgr.certs.CertObjectStore;
+import de.carne.certmgr.certs.FileImportMonitor;
 import de.carne.certmgr.certs.NoPassword;
+import de.carne.certmgr.certs.PasswordCallback;
 import de.carne.certmgr.certs.UserCertStore;
 import de.carne.certmgr.certs.UserCertStoreEntry;
 import de.carne.certmgr.certs.UserCertStoreEntryId;
+import de.carne.certmgr.certs.UserCertStoreFormat;
+import de.carne.certmgr.certs.UserCertStoreLayout;
 import de.carne.certmgr.certs.UserCertStorePreferences;
+import de.carne.certmgr.certs.io.CertReaders;
 import de.carne.certmgr.certs.net.SSLPeer.Protocol;
 import de.carne.certmgr.certs.security.KeyPairAlgorithm;
 import de.carne.certmgr.certs.security.PlatformKeyStore;
@@ -59,6 +84,7 @@ import de.carne.certmgr.certs.x500.X500Names;
 import de.carne.certmgr.certs.x509.Attributes;
 import de.carne.certmgr.certs.x509.BasicConstraintsExtensionData;
 import de.carne.certmgr.certs.x509.GenerateCertRequest;
+import de.carne.certmgr.certs.x509.KeyHelper;
 import de.carne.certmgr.certs.x509.ReasonFlag;
 import de.carne.certmgr.certs.x509.UpdateCRLRequest;
 import de.carne.certmgr.certs.x509.X509CRLHelper;
@@ -281,6 +307,604 @@ public class UserCertStoreTest {
 		}
 	}
 
+	/**
+	 * Test store index handling.
+	 */
+	@Test
+	public void testStoreIndex() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			Path indexPath = storeHome.resolve(".index.dat");
+
+			Assert.assertFalse(Files.exists(indexPath));
+
+			UserCertStore store1 = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, store1.size());
+			Assert.assertTrue(Files.exists(indexPath));
+
+			UserCertStore store2 = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, store2.size());
+			Assert.assertEquals(1, traverseStore(store2.getRootEntries()));
+
+			Files.write(indexPath, new byte[] { 0x00, 0x01, 0x02, 0x03 });
+
+			UserCertStore store3 = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, store3.size());
+			Assert.assertTrue(Files.size(indexPath) > 4);
+
+			// Corrupt the first record's DN length (magic, version, count, key, last modified, size, type)
+			ByteBuffer indexBytes = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+			int dnLengthPosition = 12 + 2 + Short.toUnsignedInt(indexBytes.getShort(12)) + 8 + 8 + 1;
+
+			indexBytes.putInt(dnLengthPosition, Integer.MAX_VALUE);
+			Files.write(indexPath, indexBytes.array());
+
+			UserCertStore store4 = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, store4.size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test lazy store opening.
+	 */
+	@Test
+	public void testLazyStore() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			UserCertStore eagerStore = UserCertStore.openStore(storeHome);
+			UserCertStore lazyStore = UserCertStore.openStore(storeHome, true);
+
+			Assert.assertEquals(eagerStore.size(), lazyStore.size());
+			Assert.assertEquals(0, lazyStore.decodedObjectCount());
+
+			Map<UserCertStoreEntryId, UserCertStoreEntry> eagerEntries = new HashMap<>();
+
+			for (UserCertStoreEntry eagerEntry : eagerStore.getEntries()) {
+				eagerEntries.put(eagerEntry.id(), eagerEntry);
+			}
+			for (UserCertStoreEntry lazyEntry : lazyStore.getEntries()) {
+				if (!lazyEntry.isExternal()) {
+					UserCertStoreEntry eagerEntry = eagerEntries.get(lazyEntry.id());
+
+					Assert.assertNotNull(eagerEntry);
+					Assert.assertEquals(eagerEntry.issuer().dn(), lazyEntry.issuer().dn());
+					Assert.assertEquals(eagerEntry.issuer().isExternal(), lazyEntry.issuer().isExternal());
+				}
+			}
+			Assert.assertEquals(0, lazyStore.decodedObjectCount());
+			Assert.assertEquals(1, traverseStore(lazyStore.getRootEntries()));
+			Assert.assertTrue(lazyStore.decodedObjectCount() > 0);
+
+			CertObjectCacheStatistics cacheStatistics = lazyStore.cacheStatistics();
+			int decodedObjectCount = lazyStore.decodedObjectCount();
+
+			Assert.assertTrue(cacheStatistics.missCount() > 0);
+			Assert.assertTrue(cacheStatistics.objectWeight() > 0);
+			Assert.assertEquals(1, traverseStore(lazyStore.getRootEntries()));
+			Assert.assertTrue(lazyStore.cacheStatistics().hitCount() > cacheStatistics.hitCount());
+			Assert.assertEquals(decodedObjectCount, lazyStore.decodedObjectCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test processing of external store changes.
+	 *
+	 * @throws InterruptedException if the test is interrupted.
+	 */
+	@Test
+	public void testProcessChanges() throws InterruptedException {
+		ScheduledExecutorService changeProcessor = Executors.newSingleThreadScheduledExecutor();
+
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			UserCertStore store = UserCertStore.openStore(storeHome);
+			List<String> updatedAliases = new CopyOnWriteArrayList<>();
+			List<String> removedAliases = new CopyOnWriteArrayList<>();
+			CountDownLatch entryRemoved = new CountDownLatch(1);
+			CountDownLatch entryUpdated = new CountDownLatch(1);
+
+			store.addChangeListener((s, added, updated, removed) -> {
+				updated.forEach(entry -> updatedAliases.add(entry.id().getAlias()));
+				removed.forEach(entry -> removedAliases.add(entry.id().getAlias()));
+				if (removedAliases.contains("RSACertificate3")) {
+					entryRemoved.countDown();
+				}
+				if (updatedAliases.contains("RSACertificate2")) {
+					entryUpdated.countDown();
+				}
+			});
+
+			Assert.assertEquals(11, store.size());
+
+			// Process changes the same way the UI does
+			changeProcessor.scheduleWithFixedDelay(() -> {
+				try {
+					store.processChanges();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}, 100, 100, TimeUnit.MILLISECONDS);
+
+			Files.delete(storeHome.resolve("certs").resolve("RSACertificate3.crt"));
+			Files.delete(storeHome.resolve("private").resolve("RSACertificate3.key"));
+
+			Assert.assertTrue(entryRemoved.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(10, store.size());
+			Assert.assertEquals(Arrays.asList("RSACertificate3"), removedAliases);
+
+			// Depending on the watch event timing the entry may have been updated before being removed
+			updatedAliases.clear();
+
+			// The store's own changes are not reported as external changes
+			UserCertStore importStore = UserCertStore.createFromURL(TestCerts.simplePEMURL(), TestCerts.password());
+			UserCertStoreEntry importEntry = importStore.getEntries().stream().filter(UserCertStoreEntry::hasCRT)
+					.findFirst().orElseThrow(() -> new IOException("No CRT entry found"));
+			UserCertStoreEntry importedEntry = store.importEntry(importEntry, TestCerts.password(), "Imported");
+
+			Assert.assertNotNull(importedEntry);
+
+			UserCertStoreEntry crlEntry = store.getEntries().stream()
+					.filter(entry -> "RSACertificate2".equals(entry.id().getAlias())).findFirst()
+					.orElseThrow(() -> new IOException("No RSACertificate2 entry found"));
+			UserCertStoreEntry crlEntryIssuer = crlEntry.issuer();
+
+			Assert.assertTrue(crlEntry.hasCRL());
+
+			Files.delete(storeHome.resolve("crl").resolve("RSACertificate2.crl"));
+
+			Assert.assertTrue(entryUpdated.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(Arrays.asList("RSACertificate2"), updatedAliases);
+			Assert.assertEquals(Arrays.asList("RSACertificate3"), removedAliases);
+			Assert.assertFalse(crlEntry.hasCRL());
+			Assert.assertEquals(crlEntryIssuer, crlEntry.issuer());
+			Assert.assertTrue(store.getIssuedEntries(crlEntryIssuer).contains(crlEntry));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		} finally {
+			changeProcessor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Test store layout conversion and segment store access.
+	 */
+	@Test
+	public void testSegmentStore() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+
+			UserCertStore.convertStore(storeHome, UserCertStoreLayout.SEGMENT);
+
+			Assert.assertFalse(Files.exists(storeHome.resolve("certs")));
+
+			UserCertStore segmentStore = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, segmentStore.size());
+			Assert.assertEquals(1, traverseStore(segmentStore.getRootEntries()));
+
+			UserCertStoreEntry deleteEntry = segmentStore.getEntries().stream()
+					.filter(entry -> "RSACertificate3".equals(entry.id().getAlias())).findFirst().orElse(null);
+
+			Assert.assertNotNull(deleteEntry);
+
+			segmentStore.deleteEntry(Objects.requireNonNull(deleteEntry).id());
+
+			Assert.assertEquals(10, UserCertStore.openStore(storeHome).size());
+
+			UserCertStore.convertStore(storeHome, UserCertStoreLayout.DIRECTORY);
+
+			Assert.assertTrue(Files.exists(storeHome.resolve("certs")));
+
+			UserCertStore directoryStore = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(10, directoryStore.size());
+			Assert.assertEquals(1, traverseStore(directoryStore.getRootEntries()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test sharded directory layout.
+	 */
+	@Test
+	public void testShardedStore() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+
+			UserCertStore.convertStore(storeHome, UserCertStoreLayout.SHARDED_DIRECTORY);
+
+			try (Stream<Path> crtFiles = Files.list(storeHome.resolve("certs"))) {
+				Assert.assertTrue(crtFiles.allMatch(Files::isDirectory));
+			}
+
+			UserCertStore shardedStore = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, shardedStore.size());
+			Assert.assertEquals(1, traverseStore(shardedStore.getRootEntries()));
+
+			UserCertStore.convertStore(storeHome, UserCertStoreLayout.DIRECTORY);
+
+			try (Stream<Path> crtFiles = Files.list(storeHome.resolve("certs"))) {
+				Assert.assertTrue(crtFiles.noneMatch(Files::isDirectory));
+			}
+
+			UserCertStore directoryStore = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, directoryStore.size());
+			Assert.assertEquals(1, traverseStore(directoryStore.getRootEntries()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test DER storage format (conversion from and back to PEM preserves the store content).
+	 */
+	@Test
+	public void testDERStorageFormat() {
+		try {
+			Path pemStoreHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			Path derStoreHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+
+			UserCertStore.convertStore(derStoreHome, UserCertStoreFormat.DER, TestCerts.password());
+
+			try (Stream<Path> crtFiles = Files.list(derStoreHome.resolve("certs"))) {
+				Assert.assertTrue(crtFiles.allMatch(file -> file.getFileName().toString().endsWith(".der")));
+			}
+
+			Map<String, List<Object>> pemStoreContent = accessStore(pemStoreHome);
+
+			Assert.assertEquals(pemStoreContent, accessStore(derStoreHome));
+
+			UserCertStore.convertStore(derStoreHome, UserCertStoreFormat.PEM, TestCerts.password());
+
+			try (Stream<Path> crtFiles = Files.list(derStoreHome.resolve("certs"))) {
+				Assert.assertTrue(crtFiles.allMatch(file -> file.getFileName().toString().endsWith(".crt")));
+			}
+			Assert.assertEquals(pemStoreContent, accessStore(derStoreHome));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test detection and removal of duplicate store entries.
+	 */
+	@Test
+	public void testDeduplicateEntries() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			Path crtFile;
+
+			try (Stream<Path> crtFiles = Files.list(storeHome.resolve("certs"))) {
+				crtFile = crtFiles.filter(file -> file.getFileName().toString().endsWith(".crt")).findFirst()
+						.orElseThrow(() -> new IOException("No CRT file found"));
+			}
+
+			Path duplicateCRTFile = crtFile.resolveSibling("Duplicate.crt");
+
+			Files.copy(crtFile, duplicateCRTFile);
+
+			UserCertStore store = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(12, store.size());
+
+			// Identical objects are not merged again
+			UserCertStore importStore = UserCertStore.createFromFile(crtFile, TestCerts.password());
+
+			for (UserCertStoreEntry importStoreEntry : importStore.getEntries()) {
+				store.importEntry(importStoreEntry, TestCerts.password(), "Imported");
+			}
+
+			Assert.assertEquals(12, store.size());
+			Assert.assertEquals(1, store.deduplicateEntries());
+			Assert.assertEquals(11, store.size());
+			Assert.assertEquals(0, store.deduplicateEntries());
+			Assert.assertTrue(Files.exists(crtFile) ^ Files.exists(duplicateCRTFile));
+			Assert.assertEquals(11, UserCertStore.openStore(storeHome).size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test stores containing aliases differing only in case (as created before aliases became case insensitive).
+	 */
+	@Test
+	public void testMixedCaseAliases() {
+		try {
+			Path storeHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			Path certsDir = storeHome.resolve("certs");
+
+			Files.copy(certsDir.resolve("RSACertificate2.crt"), certsDir.resolve("Legacy.crt"));
+			Assume.assumeFalse("Case insensitive file system", Files.exists(certsDir.resolve("legacy.crt")));
+			Files.copy(certsDir.resolve("RSACertificate2.crt"), certsDir.resolve("legacy.crt"));
+
+			UserCertStore store = UserCertStore.openStore(storeHome);
+
+			// Existing aliases are kept as is
+			Assert.assertEquals(13, store.size());
+			Assert.assertTrue(store.getEntries().stream().anyMatch(entry -> "Legacy".equals(entry.id().getAlias())));
+			Assert.assertTrue(store.getEntries().stream().anyMatch(entry -> "legacy".equals(entry.id().getAlias())));
+
+			// Removing one variant keeps the other one in use
+			store.deleteEntry(store.getEntries().stream().map(UserCertStoreEntry::id)
+					.filter(id -> "legacy".equals(id.getAlias())).findFirst()
+					.orElseThrow(() -> new IOException("No legacy entry found")));
+			Assert.assertEquals(12, store.size());
+
+			UserCertStore importStore = UserCertStore.createFromURL(TestCerts.simplePEMURL(), TestCerts.password());
+			UserCertStoreEntry importEntry = importStore.getEntries().stream().filter(UserCertStoreEntry::hasCRT)
+					.findFirst().orElseThrow(() -> new IOException("No CRT entry found"));
+			UserCertStoreEntry importedEntry = store.importEntry(importEntry, TestCerts.password(), "LEGACY");
+
+			Assert.assertNotNull(importedEntry);
+			Assert.assertEquals("LEGACY1", importedEntry.id().getAlias());
+			Assert.assertTrue(UserCertStore.openStore(storeHome).getEntries().stream()
+					.anyMatch(entry -> "Legacy".equals(entry.id().getAlias())));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test merging of keys into entries solely identified by their CRL.
+	 */
+	@Test
+	public void testCRLOnlyEntries() {
+		try {
+			Path sourceHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			UserCertStore store = UserCertStore.createStore(tempPath.get().resolve("crlOnlyStore"));
+
+			for (String crlName : new String[] { "RSACertificate2.crl", "ECCertificate2.crl" }) {
+				UserCertStore importStore = UserCertStore.createFromFile(sourceHome.resolve("crl").resolve(crlName),
+						TestCerts.password());
+
+				for (UserCertStoreEntry importStoreEntry : importStore.getEntries()) {
+					store.importEntry(importStoreEntry, TestCerts.password(), "Imported");
+				}
+			}
+			Assert.assertEquals(2, store.size());
+			Assert.assertTrue(store.getEntries().stream().allMatch(entry -> entry.hasCRL() && !entry.hasKey()));
+
+			// A key alone does not form an entry; hence merge it directly and let it match the unkeyed CRL entry via
+			// the CRL signature
+			CertObjectStore keyObjects = CertReaders.readFile(
+					sourceHome.resolve("private").resolve("RSACertificate2.key"), TestCerts.password());
+
+			Assert.assertNotNull(keyObjects);
+
+			List<CertObjectMergeReport> mergeReports = store
+					.mergeCertObjects(Collections.singletonList(keyObjects), TestCerts.password(), "Imported");
+			Set<UserCertStoreEntry> keyedEntries = mergeReports.get(0).mergedEntries();
+
+			Assert.assertEquals(1, keyedEntries.size());
+			Assert.assertEquals(2, store.size());
+
+			UserCertStoreEntry keyedEntry = keyedEntries.iterator().next();
+
+			Assert.assertTrue(keyedEntry.hasCRL() && keyedEntry.hasKey());
+			Assert.assertEquals(1,
+					store.getEntries().stream().filter(entry -> entry.hasCRL() && entry.hasKey()).count());
+
+			// The stored key is secured and provides no public key; hence the entry is still matched via the CRL
+			// signature and merging the key again changes nothing
+			mergeReports = store.mergeCertObjects(Collections.singletonList(keyObjects), TestCerts.password(),
+					"Imported");
+
+			Assert.assertEquals(Collections.singleton(keyedEntry), mergeReports.get(0).mergedEntries());
+			Assert.assertEquals(2, store.size());
+			Assert.assertEquals(2, UserCertStore.openStore(store.storeHome()).size());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test trust layer issuer resolution.
+	 */
+	@Test
+	public void testTrustLayer() {
+		try {
+			Path layerHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			UserCertStore layerStore = UserCertStore.openStore(layerHome);
+			UserCertStoreEntry issuedEntry = layerStore.getEntries().stream()
+					.filter(entry -> entry.hasCRT() && !entry.isSelfSigned() && entry.issuer().hasCRT()).findFirst()
+					.orElseThrow(() -> new IOException("No issued entry found"));
+			// Import the certificate only (the layer store's keys are encrypted)
+			UserCertStore crtStore = UserCertStore.createFromFile(
+					layerHome.resolve("certs").resolve(issuedEntry.id().getAlias() + ".crt"), TestCerts.password());
+			UserCertStoreEntry crtEntry = crtStore.getEntries().stream()
+					.filter(entry -> entry.hasCRT() && !entry.isExternal()).findFirst()
+					.orElseThrow(() -> new IOException("No CRT entry found"));
+			Path storeHome = tempPath.get().resolve("trustLayerStore");
+			UserCertStore store = UserCertStore.createStore(storeHome);
+			UserCertStoreEntry importedEntry = store.importEntry(crtEntry, TestCerts.password(), "Imported");
+
+			Assert.assertNotNull(importedEntry);
+			Assert.assertTrue(importedEntry.issuer().isExternal());
+			Assert.assertTrue(store.addTrustLayer(layerHome));
+			Assert.assertFalse(store.addTrustLayer(layerHome));
+			Assert.assertTrue(importedEntry.issuer().isTrustLayerEntry());
+			Assert.assertEquals(issuedEntry.issuer().dn(), importedEntry.issuer().dn());
+			Assert.assertFalse(store.getEntries().stream().anyMatch(UserCertStoreEntry::isExternal));
+			try (Stream<Path> crtFiles = Files.list(storeHome.resolve("certs"))) {
+				Assert.assertEquals(1, crtFiles.count());
+			}
+			Assert.assertTrue(store.removeTrustLayer(layerHome));
+			Assert.assertTrue(importedEntry.issuer().isExternal());
+			Assert.assertEquals(2, store.size());
+
+			// A segment store layer is never written; not even if it ends with an incomplete record
+			Path segmentLayerHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+
+			UserCertStore.convertStore(segmentLayerHome, UserCertStoreLayout.SEGMENT);
+
+			Path segmentFile = segmentLayerHome.resolve("store.seg");
+
+			Files.write(segmentFile, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+			byte[] segmentData = Files.readAllBytes(segmentFile);
+
+			Assert.assertTrue(store.addTrustLayer(segmentLayerHome));
+			Assert.assertTrue(importedEntry.issuer().isTrustLayerEntry());
+			Assert.assertArrayEquals(segmentData, Files.readAllBytes(segmentFile));
+			Assert.assertFalse(Files.exists(segmentLayerHome.resolve("store.idx")));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test batched store mutations.
+	 */
+	@Test
+	public void testBatchImport() {
+		try {
+			Path storeHome = tempPath.get().resolve("batchStore");
+			UserCertStore store = UserCertStore.createStore(storeHome);
+			UserCertStore importStore = UserCertStore.createFromFiles(collectDirectoryFiles(testStorePath.get()),
+					TestCerts.password());
+
+			store.beginBatch();
+			for (UserCertStoreEntry importStoreEntry : importStore.getEntries()) {
+				store.importEntry(importStoreEntry, TestCerts.password(), "Imported");
+			}
+			store.flush();
+			Assert.assertEquals(11, UserCertStore.openStore(storeHome).size());
+			store.commitBatch();
+
+			UserCertStore reopenedStore = UserCertStore.openStore(storeHome);
+
+			Assert.assertEquals(11, reopenedStore.size());
+			Assert.assertEquals(1, traverseStore(reopenedStore.getRootEntries()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test bulk merging of store entries.
+	 */
+	@Test
+	public void testBulkImport() {
+		try {
+			Path storeHome = tempPath.get().resolve("bulkStore");
+			UserCertStore store = UserCertStore.createStore(storeHome);
+			UserCertStore importStore = UserCertStore.createFromFiles(collectDirectoryFiles(testStorePath.get()),
+					TestCerts.password());
+			List<UserCertStoreEntry> importEntries = new ArrayList<>(importStore.getEntries());
+			List<CertObjectMergeReport> mergeReports = store.importEntries(importEntries, TestCerts.password(),
+					"Imported");
+
+			Assert.assertEquals(importEntries.size(), mergeReports.size());
+			for (int entryIndex = 0; entryIndex < importEntries.size(); entryIndex++) {
+				UserCertStoreEntry importEntry = importEntries.get(entryIndex);
+				CertObjectMergeReport mergeReport = mergeReports.get(entryIndex);
+
+				Assert.assertEquals(0, mergeReport.skippedCount());
+				Assert.assertEquals(importEntry.isExternal(), mergeReport.mergedEntries().isEmpty());
+			}
+			Assert.assertEquals(11, store.size());
+			Assert.assertEquals(1, traverseStore(store.getRootEntries()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test decrypted key caching.
+	 */
+	@Test
+	public void testKeyCache() {
+		try {
+			UserCertStore store = UserCertStore.openStore(testStorePath.get());
+			UserCertStoreEntry keyEntry = store.getEntries().stream().filter(UserCertStoreEntry::hasKey).findFirst()
+					.orElse(null);
+
+			Assert.assertNotNull(keyEntry);
+
+			AtomicInteger passwordQueries = new AtomicInteger();
+			PasswordCallback password = new PasswordCallback() {
+
+				@Override
+				public char @Nullable [] queryPassword(String resource) {
+					passwordQueries.incrementAndGet();
+					return TestCerts.password().queryPassword(resource);
+				}
+
+				@Override
+				public char @Nullable [] requeryPassword(String resource, Throwable cause) {
+					passwordQueries.incrementAndGet();
+					return TestCerts.password().requeryPassword(resource, cause);
+				}
+
+			};
+
+			store.enableKeyCache(Duration.ofMinutes(1), Duration.ofMinutes(5));
+
+			KeyPair key1 = Objects.requireNonNull(keyEntry).getKey(password);
+			int keyPasswordQueries = passwordQueries.get();
+			int decodedObjectCount = store.decodedObjectCount();
+
+			Assert.assertEquals(1, store.cachedKeyCount());
+
+			KeyPair key2 = keyEntry.getKey(password);
+
+			Assert.assertEquals(keyPasswordQueries, passwordQueries.get());
+			Assert.assertEquals(decodedObjectCount, store.decodedObjectCount());
+			Assert.assertArrayEquals(key1.getPrivate().getEncoded(), key2.getPrivate().getEncoded());
+
+			store.purgeKeyCache();
+
+			Assert.assertEquals(0, store.cachedKeyCount());
+
+			keyEntry.getKey(password);
+
+			Assert.assertTrue(store.decodedObjectCount() > decodedObjectCount);
+
+			store.disableKeyCache();
+
+			Assert.assertEquals(0, store.cachedKeyCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
 	private int traverseStore(Set<UserCertStoreEntry> entries) {
 		int entryCount = 1;
 
@@ -311,6 +935,36 @@ public class UserCertStoreTest {
 		return entryCount;
 	}
 
+	private Map<String, List<Object>> accessStore(Path storeHome) throws IOException {
+		UserCertStore store = UserCertStore.openStore(storeHome);
+		Map<String, List<Object>> storeContent = new HashMap<>();
+
+		try {
+			for (UserCertStoreEntry entry : store.getEntries()) {
+				List<Object> entryContent = new ArrayList<>();
+
+				if (entry.hasCRT()) {
+					entryContent.add(ByteBuffer.wrap(entry.getCRT().getEncoded()));
+				}
+				if (entry.hasKey()) {
+					entryContent.add(KeyHelper.fingerprint(entry.getKey(TestCerts.password()).getPublic()));
+				}
+				if (entry.hasCSR()) {
+					entryContent.add(ByteBuffer.wrap(entry.getCSR().toPKCS10().getEncoded()));
+				}
+				if (entry.hasCRL()) {
+					entryContent.add(ByteBuffer.wrap(entry.getCRL().getEncoded()));
+				}
+				storeContent.put(entry.id().toString(), entryContent);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+		Assert.assertEquals(11, store.size());
+		Assert.assertEquals(1, traverseStore(store.getRootEntries()));
+		return storeContent;
+	}
+
 	private void accessExtensionValues(X509Extension extension) throws IOException {
 		Set<String> criticalExtensionOIDs = extension.getCriticalExtensionOIDs();
 
@@ -366,6 +1020,81 @@ public class UserCertStoreTest {
 
 			Assert.assertNotNull(importStore);
 			Assert.assertTrue(importStore.size() > 0);
+
+			// Duplicate files must not affect the import result
+			List<Path> duplicateFiles = new ArrayList<>(files);
+
+			duplicateFiles.addAll(files);
+
+			AtomicInteger processedFiles = new AtomicInteger();
+			UserCertStore duplicateImportStore = UserCertStore.createFromFiles(duplicateFiles, TestCerts.password(),
+					new FileImportMonitor() {
+
+						@Override
+						public void progress(int processed, int total) {
+							Assert.assertEquals(duplicateFiles.size(), total);
+							processedFiles.set(processed);
+						}
+
+						@Override
+						public boolean isCancelled() {
+							return false;
+						}
+
+					});
+
+			Assert.assertEquals(duplicateFiles.size(), processedFiles.get());
+			Assert.assertEquals(importStore.size(), duplicateImportStore.size());
+
+			// A copy failing to decode must not suppress the other copies of the same content
+			Path sourceHome = createTempDirFromZIPResource(TestCerts.testStoreZIPURL(), tempPath.get(), null)
+					.resolve(TestCerts.TEST_STORE_NAME);
+			Path keyFile = sourceHome.resolve("private").resolve("RSACertificate2.key");
+			Path keyFileCopy = Files.copy(keyFile, sourceHome.resolve("RSACertificate2-copy.key"));
+			AtomicReference<String> failingResource = new AtomicReference<>();
+			PasswordCallback failFirstPassword = new PasswordCallback() {
+
+				@Override
+				public char @Nullable [] queryPassword(String resource) {
+					failingResource.compareAndSet(null, resource);
+					return (!resource.equals(failingResource.get()) ? TestCerts.password().queryPassword(resource)
+							: null);
+				}
+
+				@Override
+				public char @Nullable [] requeryPassword(String resource, Throwable cause) {
+					return queryPassword(resource);
+				}
+
+			};
+			UserCertStore retryImportStore = UserCertStore.createFromFiles(
+					Arrays.asList(sourceHome.resolve("certs").resolve("RSACertificate2.crt"), keyFile, keyFileCopy),
+					failFirstPassword);
+
+			Assert.assertNotNull(failingResource.get());
+			Assert.assertTrue(retryImportStore.getEntries().stream().anyMatch(UserCertStoreEntry::hasKey));
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+		try {
+			UserCertStore.createFromFiles(collectDirectoryFiles(testStorePath.get()), TestCerts.password(),
+					new FileImportMonitor() {
+
+						@Override
+						public void progress(int processed, int total) {
+							// Nothing to do here
+						}
+
+						@Override
+						public boolean isCancelled() {
+							return true;
+						}
+
+					});
+			Assert.fail("Cancelled import succeeded");
+		} catch (InterruptedIOException e) {
+			Exceptions.ignore(e);
 		} catch (IOException e) {
 			e.printStackTrace();
 			Assert.fail(e.getMessage());
@@ -16,34 +16,59 @@
  */
 package de.carne.certmgr.test.certs.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.eclipse.jdt.annotation.Nullable;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpServer;
+
 import de.carne.certmgr.certs.CertObjectStore;
+import de.carne.certmgr.certs.CertObjectType;
 import de.carne.certmgr.certs.io.CertReaders;
 import de.carne.certmgr.certs.io.CertWriters;
+import de.carne.certmgr.certs.io.DERCertReaderWriter;
 import de.carne.certmgr.certs.io.IOResource;
+import de.carne.certmgr.certs.io.PEMCertReaderWriter;
 import de.carne.certmgr.certs.spi.CertReader;
 import de.carne.certmgr.certs.spi.CertWriter;
 import de.carne.certmgr.test.Tests;
+import de.carne.io.IOUtil;
+import de.carne.nio.file.FileUtil;
 
 /**
  * Test Certificate Readers and Writers.
  */
 public class CertReadersWritersTest {
 
+	private static final String URL_CACHE_PROPERTY = "de.carne.certmgr.certs.io.urlCache";
+
 	/**
 	 * Register BouncyCastle Provider.
 	 */
@@ -78,6 +103,222 @@ public class CertReadersWritersTest {
 		}
 	}
 
+	/**
+	 * Test byte level PEM block decoding against the char based PEM parsing.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testPEMBlockDecoding() throws IOException {
+		for (int resourceIndex = 1;; resourceIndex++) {
+			URL testResourceURL = getClass()
+					.getResource(PEMCertReaderWriter.PROVIDER_NAME + "." + resourceIndex + ".dat");
+
+			if (testResourceURL == null) {
+				break;
+			}
+
+			CertObjectStore blockCertObjects;
+			CertObjectStore parserCertObjects;
+
+			try (IOResource<InputStream> in = new IOResource<>(testResourceURL.openStream(),
+					testResourceURL.toString())) {
+				blockCertObjects = PEMCertReaderWriter.readObjectsBinary(in, Tests.password());
+			}
+			try (IOResource<Reader> in = new IOResource<>(
+					new InputStreamReader(testResourceURL.openStream(), StandardCharsets.US_ASCII),
+					testResourceURL.toString())) {
+				parserCertObjects = PEMCertReaderWriter.readObjectsString(in, Tests.password());
+			}
+
+			Assert.assertNotNull(blockCertObjects);
+			Assert.assertNotNull(parserCertObjects);
+
+			List<CertObjectStore.Entry> blockEntries = new ArrayList<>();
+			List<CertObjectStore.Entry> parserEntries = new ArrayList<>();
+
+			blockCertObjects.forEach(blockEntries::add);
+			parserCertObjects.forEach(parserEntries::add);
+			Assert.assertEquals(parserEntries, blockEntries);
+		}
+	}
+
+	/**
+	 * Test DER object classification for all supported object types as well as the fallback for data that is not (or
+	 * not entirely) DER encoded.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testDERObjectScanner() throws IOException {
+		CertReader reader = new DERCertReaderWriter();
+
+		assertDERObjectType(reader, "scan.v1.crt", CertObjectType.CRT);
+		assertDERObjectType(reader, "scan.v3.crt", CertObjectType.CRT);
+		assertDERObjectType(reader, "scan.v1.crl", CertObjectType.CRL);
+		assertDERObjectType(reader, "scan.v2.crl", CertObjectType.CRL);
+		assertDERObjectType(reader, "scan.csr", CertObjectType.CSR);
+		assertDERObjectType(reader, "scan.key", CertObjectType.KEY);
+		assertDERObjectType(reader, "scan.encrypted.key", CertObjectType.KEY);
+
+		byte[] crtData = readResource("scan.v3.crt");
+		byte[] truncatedData = Arrays.copyOf(crtData, crtData.length / 2);
+		byte[] garbageData = "This is not DER encoded data".getBytes(StandardCharsets.US_ASCII);
+		byte[] unsupportedTagData = new byte[] { 0x1f, 0x7f, 0x01, 0x00 };
+
+		Assert.assertNull(readDER(reader, "truncated", truncatedData));
+		Assert.assertNull(readDER(reader, "garbage", garbageData));
+		Assert.assertNull(readDER(reader, "unsupported", unsupportedTagData));
+
+		byte[] trailingGarbageData = Arrays.copyOf(crtData, crtData.length + truncatedData.length);
+
+		System.arraycopy(truncatedData, 0, trailingGarbageData, crtData.length, truncatedData.length);
+
+		CertObjectStore trailingGarbageObjects = readDER(reader, "trailing", trailingGarbageData);
+
+		Assert.assertNotNull(trailingGarbageObjects);
+		Assert.assertEquals(1, trailingGarbageObjects.size());
+	}
+
+	private void assertDERObjectType(CertReader reader, String resource, CertObjectType expectedType)
+			throws IOException {
+		CertObjectStore certObjects = readDER(reader, resource, readResource(resource));
+
+		Assert.assertNotNull(certObjects);
+		Assert.assertEquals(1, certObjects.size());
+		Assert.assertEquals(expectedType, certObjects.iterator().next().type());
+	}
+
+	@Nullable
+	private static CertObjectStore readDER(CertReader reader, String resource, byte[] data) throws IOException {
+		try (IOResource<InputStream> in = IOResource.newInputStream(resource, ByteBuffer.wrap(data))) {
+			return reader.readBinary(in, Tests.password());
+		}
+	}
+
+	private byte[] readResource(String resource) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		try (InputStream in = getClass().getResourceAsStream(resource)) {
+			IOUtil.copyStream(buffer, in);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Test conditional URL downloads via the URL cache.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testURLCache() throws IOException {
+		ByteArrayOutputStream crlBuffer = new ByteArrayOutputStream();
+
+		try (InputStream in = getClass().getResourceAsStream("test.crl")) {
+			IOUtil.copyStream(crlBuffer, in);
+		}
+
+		byte[] crlData = crlBuffer.toByteArray();
+		byte[] keyData = readResource("scan.key");
+
+		String etag = "\"test\"";
+		AtomicInteger fullResponses = new AtomicInteger();
+		AtomicInteger notModifiedResponses = new AtomicInteger();
+		AtomicInteger keyResponses = new AtomicInteger();
+		AtomicInteger conditionalKeyRequests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+		server.createContext("/test.crl", exchange -> {
+			exchange.getResponseHeaders().add("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModifiedResponses.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				fullResponses.incrementAndGet();
+				exchange.sendResponseHeaders(200, crlData.length);
+				exchange.getResponseBody().write(crlData);
+			}
+			exchange.close();
+		});
+		server.createContext("/test.key", exchange -> {
+			keyResponses.incrementAndGet();
+			if (exchange.getRequestHeaders().containsKey("If-None-Match")) {
+				conditionalKeyRequests.incrementAndGet();
+			}
+			exchange.getResponseHeaders().add("ETag", etag);
+			exchange.sendResponseHeaders(200, keyData.length);
+			exchange.getResponseBody().write(keyData);
+			exchange.close();
+		});
+		server.start();
+
+		Path cacheDirectory = Files.createTempDirectory(getClass().getSimpleName());
+
+		System.setProperty(URL_CACHE_PROPERTY, cacheDirectory.toString());
+		try {
+			URL crlURL = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(),
+					"/test.crl");
+			CertObjectStore readCertObjects1 = CertReaders.readURL(crlURL, Tests.password());
+			CertObjectStore readCertObjects2 = CertReaders.readURL(crlURL, Tests.password());
+
+			Assert.assertNotNull(readCertObjects1);
+			Assert.assertNotNull(readCertObjects2);
+			Assert.assertEquals(1, readCertObjects1.size());
+			Assert.assertNotSame(readCertObjects1, readCertObjects2);
+
+			List<CertObjectStore.Entry> entries1 = new ArrayList<>();
+			List<CertObjectStore.Entry> entries2 = new ArrayList<>();
+
+			readCertObjects1.forEach(entries1::add);
+			readCertObjects2.forEach(entries2::add);
+			Assert.assertEquals(entries1, entries2);
+
+			// Modifying a read result must not affect the cached certificate objects
+			CertObjectStore otherCertObjects = readDER(new DERCertReaderWriter(), "scan.v2.crl",
+					readResource("scan.v2.crl"));
+
+			Assert.assertNotNull(otherCertObjects);
+			readCertObjects2.addCRL(otherCertObjects.iterator().next().getCRL());
+			Assert.assertEquals(2, readCertObjects2.size());
+
+			CertObjectStore readCertObjects3 = CertReaders.readURL(crlURL, Tests.password());
+
+			Assert.assertNotNull(readCertObjects3);
+			Assert.assertEquals(1, readCertObjects3.size());
+			Assert.assertEquals(1, fullResponses.get());
+			Assert.assertEquals(2, notModifiedResponses.get());
+
+			// Content containing private keys must not be written to the disk cache
+			URL keyURL = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(),
+					"/test.key");
+			CertObjectStore readKeyObjects1 = CertReaders.readURL(keyURL, Tests.password());
+			CertObjectStore readKeyObjects2 = CertReaders.readURL(keyURL, Tests.password());
+
+			Assert.assertNotNull(readKeyObjects1);
+			Assert.assertNotNull(readKeyObjects2);
+			Assert.assertEquals(CertObjectType.KEY, readKeyObjects2.iterator().next().type());
+			Assert.assertEquals(2, keyResponses.get());
+			Assert.assertEquals(0, conditionalKeyRequests.get());
+
+			List<Path> cacheFiles = new ArrayList<>();
+
+			try (DirectoryStream<Path> cacheDirectoryFiles = Files.newDirectoryStream(cacheDirectory)) {
+				cacheDirectoryFiles.forEach(cacheFiles::add);
+			}
+			Assert.assertEquals(2, cacheFiles.size());
+			if (cacheDirectory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				for (Path cacheFile : cacheFiles) {
+					Assert.assertEquals(PosixFilePermissions.fromString("rw-------"),
+							Files.getPosixFilePermissions(cacheFile));
+				}
+			}
+		} finally {
+			System.clearProperty(URL_CACHE_PROPERTY);
+			server.stop(0);
+			FileUtil.delete(cacheDirectory);
+		}
+	}
+
 	private void testReaderAndWriter(CertReader reader, URL testResourceURL, Path testPath) throws IOException {
 		System.out.println("Testing I/O provider: " + reader.providerName());
 
@@ -94,6 +335,16 @@ public class CertReadersWritersTest {
 
 		Assert.assertNotNull(readCertObjects1);
 
+		// The temporary file's name provides no hint about the format; hence the format has to be sniffed
+		try (InputStream in = testResourceURL.openStream()) {
+			Files.copy(in, testPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		CertObjectStore fileCertObjects = CertReaders.readFile(testPath, Tests.password());
+
+		Assert.assertNotNull(fileCertObjects);
+		Assert.assertEquals(readCertObjects1.size(), fileCertObjects.size());
+
 		for (CertObjectStore.Entry entry : readCertObjects1) {
 			switch (entry.type()) {
 			case CRT:
@@ -120,6 +371,12 @@ public class CertReadersWritersTest {
 			Assert.assertNotNull(readCertObjects2);
 			Assert.assertEquals(readCertObjects1.size(), readCertObjects2.size());
 		}
+		try (IOResource<InputStream> in = new IOResource<>(testResourceURL.openStream(), reader.providerName())) {
+			Set<CertObjectStore.Entry> streamedCertObjects = new LinkedHashSet<>();
+
+			Assert.assertTrue(reader.streamBinary(in, Tests.password(), streamedCertObjects::add));
+			Assert.assertEquals(readCertObjects2.size(), streamedCertObjects.size());
+		}
 		if (writer != null) {
 			if (!writer.isEncryptionRequired()) {
 				try (IOResource<OutputStream> out = IOResource.newOutputStream(writer.providerName(), testPath)) {